@@ -0,0 +1,219 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/** The files of a commit as a tar or zip archive, written from the
+ *  object store straight to a stream: trees are walked in order and each
+ *  blob is copied into the archive as it is reached, so nothing is put
+ *  in the working directory and no file is held in memory.
+ *
+ *  Tar archives are POSIX ustar, with a pax header before any file whose
+ *  path does not fit in the ustar name fields or whose size does not fit
+ *  in its size field.  Every file gets mode 644 and the commit's time.
+ *  @author Matt Chorlian
+ */
+class Archive {
+
+    /** The formats that can be written. */
+    static final String[] FORMATS = {"tar", "zip"};
+
+    /** Size of a tar block. */
+    private static final int BLOCK = 512;
+
+    /** Longest ustar name. */
+    private static final int NAME = 100;
+
+    /** Longest ustar name prefix. */
+    private static final int PREFIX = 155;
+
+    /** Milliseconds in a second. */
+    private static final long MILLIS = 1000;
+
+    /** Largest size a ustar header holds: eleven octal digits. */
+    private static final long MAX_SIZE = (1L << 33) - 1;
+
+    /** Octal mode of every file. */
+    private static final int MODE = 0644;
+
+    /** Tar entry type of a file. */
+    private static final byte FILE = '0';
+
+    /** Tar entry type of a pax header for the next entry. */
+    private static final byte PAX = 'x';
+
+    /** Magic number and version of a ustar header. */
+    private static final byte[] USTAR =
+        ("ustar" + '\0' + "00").getBytes(StandardCharsets.US_ASCII);
+
+    /** Length of the mode, id and checksum fields of a tar header. */
+    private static final int ID_LENGTH = 8;
+
+    /** Length of the size and time fields of a tar header. */
+    private static final int NUMBER_LENGTH = 12;
+
+    /** Offsets of the fields of a tar header. */
+    private static final int MODE_AT = 100, UID_AT = 108, GID_AT = 116,
+        SIZE_AT = 124, MTIME_AT = 136, SUM_AT = 148, TYPE_AT = 156,
+        MAGIC_AT = 257, PREFIX_AT = 345;
+
+    /** An archive in FORMAT, one of FORMATS, of files whose time is MTIME
+     *  in seconds since the epoch, written to OUT. */
+    Archive(String format, long mtime, OutputStream out) {
+        _zip = format.equals("zip") ? new ZipOutputStream(out) : null;
+        _mtime = mtime;
+        _out = out;
+    }
+
+    /** Writes the files of the tree ROOT, which may be null, and ends the
+     *  archive. */
+    void write(String root) {
+        try {
+            if (root != null) {
+                tree(root, "");
+            }
+            if (_zip != null) {
+                _zip.finish();
+            } else {
+                _out.write(new byte[2 * BLOCK]);
+            }
+            _out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the files of the tree ID, whose paths begin with PREFIX. */
+    private void tree(String id, String prefix) throws IOException {
+        for (Map.Entry<String, String> e : Tree.entries(id).entrySet()) {
+            String path = prefix + e.getKey();
+            if (path.endsWith(Tree.SEPARATOR)) {
+                tree(e.getValue(), path);
+            } else if (_zip != null) {
+                ZipEntry entry = new ZipEntry(path);
+                entry.setTime(_mtime * MILLIS);
+                _zip.putNextEntry(entry);
+                ObjectStore.copyBlob(e.getValue(), _zip, n -> new byte[0]);
+                _zip.closeEntry();
+            } else {
+                long[] size = new long[1];
+                ObjectStore.copyBlob(e.getValue(), _out, n -> {
+                    size[0] = n;
+                    return tarHeader(path, n);
+                });
+                int pad = (int) (-size[0] & (BLOCK - 1));
+                _out.write(new byte[pad]);
+            }
+        }
+    }
+
+    /** Returns the tar header of the file PATH, of SIZE bytes, preceded
+     *  by a pax header if ustar cannot hold either. */
+    private byte[] tarHeader(String path, long size) {
+        byte[] name = path.getBytes(StandardCharsets.UTF_8);
+        byte[] prefix = new byte[0];
+        boolean fits = name.length <= NAME;
+        int split = fits ? -1 : split(name);
+        if (split >= 0) {
+            prefix = Arrays.copyOf(name, split);
+            name = Arrays.copyOfRange(name, split + 1, name.length);
+            fits = true;
+        }
+        byte[] file = header(fits ? name : Arrays.copyOf(name, NAME), prefix,
+                             Math.min(size, MAX_SIZE), FILE);
+        StringBuilder pax = new StringBuilder();
+        if (!fits) {
+            pax.append(paxRecord("path", path));
+        }
+        if (size > MAX_SIZE) {
+            pax.append(paxRecord("size", Long.toString(size)));
+        }
+        if (pax.length() == 0) {
+            return file;
+        }
+        byte[] records = pax.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] paxName = ("PaxHeader/" + _paxHeaders++)
+            .getBytes(StandardCharsets.UTF_8);
+        int padded = (records.length + BLOCK - 1) / BLOCK * BLOCK;
+        byte[] result = new byte[BLOCK + padded + BLOCK];
+        System.arraycopy(header(paxName, new byte[0], records.length, PAX),
+                         0, result, 0, BLOCK);
+        System.arraycopy(records, 0, result, BLOCK, records.length);
+        System.arraycopy(file, 0, result, BLOCK + padded, BLOCK);
+        return result;
+    }
+
+    /** Returns the position of a separator at which NAME, too long for
+     *  the ustar name field, divides into a prefix and a name that both
+     *  fit, or -1 if there is none. */
+    private static int split(byte[] name) {
+        for (int i = Math.max(name.length - NAME - 1, 0);
+             i < name.length && i <= PREFIX; i += 1) {
+            if (name[i] == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns a pax record setting KEY to VALUE, which begins with its
+     *  own length in bytes. */
+    private static String paxRecord(String key, String value) {
+        String body = " " + key + "=" + value + "\n";
+        int n = body.getBytes(StandardCharsets.UTF_8).length;
+        int length = n;
+        while (length != n + Integer.toString(length).length()) {
+            length = n + Integer.toString(length).length();
+        }
+        return length + body;
+    }
+
+    /** Returns a ustar header block for an entry of type TYPE named NAME
+     *  under PREFIX, of SIZE bytes. */
+    private byte[] header(byte[] name, byte[] prefix, long size, byte type) {
+        byte[] block = new byte[BLOCK];
+        System.arraycopy(name, 0, block, 0, name.length);
+        octal(block, MODE_AT, ID_LENGTH, MODE);
+        octal(block, UID_AT, ID_LENGTH, 0);
+        octal(block, GID_AT, ID_LENGTH, 0);
+        octal(block, SIZE_AT, NUMBER_LENGTH, size);
+        octal(block, MTIME_AT, NUMBER_LENGTH, _mtime);
+        Arrays.fill(block, SUM_AT, SUM_AT + ID_LENGTH, (byte) ' ');
+        block[TYPE_AT] = type;
+        System.arraycopy(USTAR, 0, block, MAGIC_AT, USTAR.length);
+        System.arraycopy(prefix, 0, block, PREFIX_AT, prefix.length);
+        int sum = 0;
+        for (byte b : block) {
+            sum += b & 0xff;
+        }
+        octal(block, SUM_AT, ID_LENGTH - 1, sum);
+        return block;
+    }
+
+    /** Writes V into BLOCK at OFF as a NUL-terminated octal numeral of
+     *  LEN bytes, zero-padded. */
+    private static void octal(byte[] block, int off, int len, long v) {
+        String digits = Long.toOctalString(v);
+        digits = "0".repeat(len - 1 - digits.length()) + digits;
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0,
+                         block, off, len - 1);
+        block[off + len - 1] = 0;
+    }
+
+    /** The zip stream, or null if writing a tar. */
+    private final ZipOutputStream _zip;
+
+    /** The time of every file, in seconds since the epoch. */
+    private final long _mtime;
+
+    /** The stream written to. */
+    private final OutputStream _out;
+
+    /** Number of pax headers written, to name them. */
+    private int _paxHeaders;
+}
@@ -0,0 +1,492 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/** Benchmarks of gitlet's commands over synthetic repositories.
+ *
+ *  Usage: java gitlet.Benchmark [--commits N,...] [--files N,...]
+ *  [--warmup N] [--iterations N] [--out FILE] [--baseline FILE].
+ *
+ *  For each number of commits and each number of files, a JVM is forked
+ *  in a fresh temporary directory.  It builds a repository there with
+ *  that many files spread over directories and that many commits: a
+ *  mainline with a topic branch merged back into it every few commits,
+ *  each commit changing a few files.  It then times status, log, find,
+ *  the split-point search, checkout of a branch, merge, add and commit,
+ *  each over warmup and then measured iterations run in-process, as the
+ *  daemon runs them, so that JVM start-up is not what is measured.
+ *
+ *  Results are written to the --out file as JSON in the layout JMH uses,
+ *  one benchmark per line, with scores in ms/op and a 99.9% confidence
+ *  error, so the usual JMH tools can read them.  With --baseline, each
+ *  score is compared with the same benchmark in an earlier results file,
+ *  and if any is more than REGRESSION percent slower even at the low end
+ *  of its error, the regressions are listed and the exit status is 1.
+ *  Operands it does not understand make the exit status 2.
+ *  @author Matt Chorlian
+ */
+class Benchmark {
+
+    /** Default numbers of commits. */
+    private static final String COMMITS = "1000,10000";
+
+    /** Default numbers of files. */
+    private static final String FILES = "10,1000";
+
+    /** Default number of warmup iterations. */
+    private static final int WARMUP = 3;
+
+    /** Default number of measured iterations. */
+    private static final int ITERATIONS = 10;
+
+    /** Default results file. */
+    private static final String OUT = "bench-results.json";
+
+    /** Percentage slowdown against a baseline reported as a
+     *  regression. */
+    private static final double REGRESSION = 20;
+
+    /** Files per directory of a synthetic repository. */
+    private static final int DIR_SIZE = 64;
+
+    /** Lines in each file of a synthetic repository. */
+    private static final int LINES = 20;
+
+    /** Mainline commits between topic branches. */
+    private static final int TOPIC_EVERY = 8;
+
+    /** Commits on each topic branch. */
+    private static final int TOPIC_LENGTH = 3;
+
+    /** One file in TOPIC_SHARE is edited only on topic branches, so that
+     *  merges do not conflict. */
+    private static final int TOPIC_SHARE = 4;
+
+    /** Files changed by each commit. */
+    private static final int EDITS = 3;
+
+    /** Seed of the edits, so that every run builds the same history. */
+    private static final long SEED = 61;
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MS = 1e6;
+
+    /** Two-sided 99.9% quantiles of Student's t distribution for 1 to 30
+     *  degrees of freedom, as JMH uses for its score errors. */
+    private static final double[] T_999 = {
+        636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59,
+        4.44, 4.32, 4.22, 4.14, 4.07, 4.01, 3.97, 3.92, 3.88, 3.85,
+        3.82, 3.79, 3.77, 3.75, 3.73, 3.71, 3.69, 3.67, 3.66, 3.65
+    };
+
+    /** The 99.9% quantile of the normal distribution, for more degrees
+     *  of freedom. */
+    private static final double Z_999 = 3.29;
+
+    /** A result line, as written by result(). */
+    private static final Pattern RESULT = Pattern.compile(
+        "\"benchmark\":\"([^\"]+)\".*\"params\":\\{\"commits\":\"(\\d+)\","
+        + "\"files\":\"(\\d+)\"\\}.*\"score\":([0-9.Ee+-]+),"
+        + "\"scoreError\":\"?([0-9.Ee+-]+|NaN)");
+
+    /** Runs the benchmarks as described by ARGS; see the class
+     *  comment. */
+    public static void main(String... args) throws IOException,
+        InterruptedException {
+        HashMap<String, String> options = new HashMap<>();
+        options.put("--commits", COMMITS);
+        options.put("--files", FILES);
+        options.put("--warmup", Integer.toString(WARMUP));
+        options.put("--iterations", Integer.toString(ITERATIONS));
+        options.put("--out", OUT);
+        if (args.length == 5 && args[0].equals("--fork")) {
+            new Benchmark(Integer.parseInt(args[1]),
+                          Integer.parseInt(args[2]),
+                          Integer.parseInt(args[3]),
+                          Integer.parseInt(args[4])).run();
+            return;
+        }
+        try {
+            parse(args, options);
+        } catch (GitletException excp) {
+            System.exit(2);
+        }
+        List<String> results = new ArrayList<>();
+        for (String commits : options.get("--commits").split(",")) {
+            for (String files : options.get("--files").split(",")) {
+                results.addAll(fork(commits, files, options.get("--warmup"),
+                                    options.get("--iterations")));
+            }
+        }
+        Files.writeString(new File(options.get("--out")).toPath(),
+                          "[\n" + String.join(",\n", results) + "\n]\n");
+        for (String line : results) {
+            Matcher m = RESULT.matcher(line);
+            if (m.find()) {
+                System.out.printf("%-34s %7s commits %6s files %12.3f"
+                                  + " ms/op%n", m.group(1), m.group(2),
+                                  m.group(3), Double.parseDouble(m.group(4)));
+            }
+        }
+        if (options.containsKey("--baseline")
+            && !compare(results, new File(options.get("--baseline")))) {
+            System.exit(1);
+        }
+    }
+
+    /** Puts the options given in ARGS, as pairs of a name and a value,
+     *  into OPTIONS, which holds the default of every option but
+     *  --baseline. */
+    private static void parse(String[] args, HashMap<String, String> options) {
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length || !options.containsKey(args[i])
+                && !args[i].equals("--baseline")) {
+                Utils.message("Incorrect operands.");
+                throw new GitletException();
+            }
+            options.put(args[i], args[i + 1]);
+        }
+    }
+
+    /** Runs the benchmarks on a repository of COMMITS commits and FILES
+     *  files, with WARMUP warmup and ITERATIONS measured iterations, in a
+     *  forked JVM and a temporary directory.  Returns the result
+     *  lines. */
+    private static List<String> fork(String commits, String files,
+                                     String warmup, String iterations)
+        throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("gitlet-bench");
+        Process child = new ProcessBuilder(
+                Utils.javaCommand("gitlet.Benchmark", "--fork", commits,
+                                  files, warmup, iterations))
+            .directory(dir.toFile())
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        List<String> results = new ArrayList<>();
+        try (BufferedReader in =
+                 new BufferedReader(new InputStreamReader(
+                     child.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                results.add(line);
+            }
+        }
+        int status = child.waitFor();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder())
+                .forEach(p -> p.toFile().delete());
+        }
+        if (status != 0) {
+            throw new IllegalStateException("benchmark fork failed for "
+                                            + commits + " commits, "
+                                            + files + " files");
+        }
+        return results;
+    }
+
+    /** Compares RESULTS with the results in BASELINE, printing each
+     *  benchmark more than REGRESSION percent slower, less its error.
+     *  Returns true iff there is none. */
+    private static boolean compare(List<String> results, File baseline)
+        throws IOException {
+        HashMap<String, Double> before = new HashMap<>();
+        for (String line : Files.readAllLines(baseline.toPath())) {
+            Matcher m = RESULT.matcher(line);
+            if (m.find()) {
+                before.put(m.group(1) + " " + m.group(2) + " " + m.group(3),
+                           Double.parseDouble(m.group(4)));
+            }
+        }
+        boolean ok = true;
+        for (String line : results) {
+            Matcher m = RESULT.matcher(line);
+            if (!m.find()) {
+                continue;
+            }
+            String key = m.group(1) + " " + m.group(2) + " " + m.group(3);
+            double score = Double.parseDouble(m.group(4));
+            double error = m.group(5).equals("NaN") ? 0
+                : Double.parseDouble(m.group(5));
+            Double old = before.get(key);
+            if (old != null
+                && score - error > old * (1 + REGRESSION / 100)) {
+                System.out.printf("REGRESSION %s: %.3f -> %.3f ms/op%n",
+                                  key, old, score);
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    /** A benchmark run of a repository of COMMITS commits and FILES
+     *  files, with WARMUP warmup and ITERATIONS measured iterations. */
+    private Benchmark(int commits, int files, int warmup, int iterations) {
+        _commits = commits;
+        _files = Math.max(files, 2);
+        _warmup = warmup;
+        _iterations = iterations;
+    }
+
+    /** Builds the repository in the working directory, runs every
+     *  benchmark and prints a result line for each. */
+    private void run() throws IOException {
+        _results = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long start = System.nanoTime();
+        generate();
+        System.err.printf("generated %d commits of %d files in %.1f s%n",
+                          _commits, _files,
+                          (System.nanoTime() - start) / NANOS_PER_MS / 1000);
+        String head = find("head");
+        String side = find("side");
+        String middle = _middle;
+
+        measure("status", () -> command("status"), null);
+        measure("log", () -> command("log"), null);
+        measure("find", () -> command("find", middle), null);
+        measure("splitPoint", () ->
+                _git.splitPoint(_git.getCommit(head), _git.getCommit(side)),
+                null);
+        boolean[] onOld = {false};
+        measure("checkout", () -> {
+            command("checkout", onOld[0] ? "master" : "old");
+            onOld[0] = !onOld[0];
+        }, null);
+        if (onOld[0]) {
+            command("checkout", "master");
+        }
+        measure("merge", () -> command("merge", "side"),
+                () -> command("reset", head));
+        measure("add", () -> command("add", "."), () -> edit(false));
+        measure("commit", () -> command("commit", "bench " + _edits),
+                () -> {
+                    edit(false);
+                    command("add", ".");
+                });
+    }
+
+    /** Builds the synthetic repository. */
+    private void generate() throws IOException {
+        _git.init();
+        _git.save();
+        for (int i = 0; i < _files; i += 1) {
+            File f = file(i);
+            f.getParentFile().mkdirs();
+            StringBuilder text = new StringBuilder();
+            for (int j = 0; j < LINES; j += 1) {
+                text.append("file ").append(i).append(" line ").append(j)
+                    .append('\n');
+            }
+            Files.writeString(f.toPath(), text);
+        }
+        command("add", ".");
+        _message = "files";
+        command("commit", _message);
+        int made = 1, topics = 0;
+        while (made < _commits) {
+            if (made >= _commits / 2 && !_marked) {
+                mark();
+            }
+            if (made % TOPIC_EVERY == 0
+                && made + TOPIC_LENGTH + 2 <= _commits) {
+                String topic = "topic-" + topics++;
+                command("branch", topic);
+                commit(false);
+                command("checkout", topic);
+                for (int k = 0; k < TOPIC_LENGTH; k += 1) {
+                    commit(true);
+                }
+                command("checkout", "master");
+                command("merge", topic);
+                command("rm-branch", topic);
+                made += TOPIC_LENGTH + 2;
+            } else {
+                commit(false);
+                made += 1;
+            }
+        }
+        if (!_marked) {
+            mark();
+        }
+        command("checkout", "side");
+        Files.writeString(Path.of("side.txt"), "side\n");
+        command("add", "side.txt");
+        command("commit", "side");
+        command("checkout", "master");
+        edit(false);
+        command("add", ".");
+        command("commit", "head");
+    }
+
+    /** Makes the branches old and side at the head commit, roughly
+     *  halfway through the history. */
+    private void mark() {
+        command("branch", "old");
+        command("branch", "side");
+        _middle = _message;
+        _marked = true;
+    }
+
+    /** Makes a commit that edits EDITS files, on a topic branch iff
+     *  TOPIC. */
+    private void commit(boolean topic) {
+        for (int k = 0; k < EDITS; k += 1) {
+            edit(topic);
+        }
+        command("add", ".");
+        _message = "commit " + _edits;
+        command("commit", _message);
+    }
+
+    /** Appends a line to a random file: one edited only on topic
+     *  branches iff TOPIC. */
+    private void edit(boolean topic) {
+        int i;
+        do {
+            i = _random.nextInt(_files);
+        } while ((i % TOPIC_SHARE == 0) != topic);
+        _edits += 1;
+        try {
+            Files.writeString(file(i).toPath(), "edit " + _edits + "\n",
+                              StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the Ith file of the repository. */
+    private static File file(int i) {
+        return new File("d" + i / DIR_SIZE, "f" + i + ".txt");
+    }
+
+    /** Runs the gitlet command ARGS and writes the repository back, as
+     *  Main does. */
+    private void command(String... args) {
+        Main.execute(_git, args);
+        _git.save();
+        StatCache.flush();
+    }
+
+    /** Returns the id of the last commit with MESSAGE. */
+    private String find(String message) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream found = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(found, true));
+        try {
+            command("find", message);
+        } finally {
+            System.setOut(out);
+        }
+        String[] ids = found.toString().trim().split("\\s+");
+        return ids[ids.length - 1];
+    }
+
+    /** Times OP over the warmup and measured iterations, running SETUP,
+     *  untimed, before each if it is not null, and prints the result as
+     *  the benchmark NAME. */
+    private void measure(String name, Runnable op, Runnable setup) {
+        double[] times = new double[_iterations];
+        for (int i = -_warmup; i < _iterations; i += 1) {
+            if (setup != null) {
+                setup.run();
+            }
+            long start = System.nanoTime();
+            op.run();
+            long elapsed = System.nanoTime() - start;
+            if (i >= 0) {
+                times[i] = elapsed / NANOS_PER_MS;
+            }
+        }
+        _results.println(result(name, times));
+        _results.flush();
+    }
+
+    /** Returns the JSON result of the benchmark NAME, whose measured
+     *  iterations took TIMES milliseconds. */
+    private String result(String name, double[] times) {
+        int n = times.length;
+        double mean = 0;
+        for (double t : times) {
+            mean += t / n;
+        }
+        double var = 0;
+        for (double t : times) {
+            var += (t - mean) * (t - mean) / Math.max(n - 1, 1);
+        }
+        double error = n < 2 ? Double.NaN
+            : (n - 1 <= T_999.length ? T_999[n - 2] : Z_999)
+            * Math.sqrt(var / n);
+        StringBuilder raw = new StringBuilder();
+        for (double t : times) {
+            raw.append(raw.length() == 0 ? "" : ",")
+                .append(String.format(Locale.ROOT, "%.6f", t));
+        }
+        return String.format(Locale.ROOT,
+                             "{\"benchmark\":\"gitlet.Benchmark.%s\","
+                             + "\"mode\":\"avgt\",\"threads\":1,\"forks\":1,"
+                             + "\"warmupIterations\":%d,"
+                             + "\"measurementIterations\":%d,"
+                             + "\"params\":{\"commits\":\"%d\","
+                             + "\"files\":\"%d\"},"
+                             + "\"primaryMetric\":{\"score\":%.6f,"
+                             + "\"scoreError\":%s,\"scoreUnit\":\"ms/op\","
+                             + "\"rawData\":[[%s]]}}",
+                             name, _warmup, n, _commits, _files, mean,
+                             Double.isNaN(error) ? "\"NaN\""
+                             : String.format(Locale.ROOT, "%.6f", error),
+                             raw);
+    }
+
+    /** Number of commits to build. */
+    private final int _commits;
+
+    /** Number of files to build. */
+    private final int _files;
+
+    /** Number of warmup iterations. */
+    private final int _warmup;
+
+    /** Number of measured iterations. */
+    private final int _iterations;
+
+    /** The repository. */
+    private final Gitlet _git = new Gitlet();
+
+    /** Source of the edits. */
+    private final Random _random = new Random(SEED);
+
+    /** Number of edits made, which numbers commit messages and edit
+     *  lines. */
+    private int _edits;
+
+    /** Message of the last mainline or topic commit. */
+    private String _message;
+
+    /** Message of the commit at which old and side were made. */
+    private String _middle;
+
+    /** True once the branches old and side have been made. */
+    private boolean _marked;
+
+    /** Where result lines go. */
+    private PrintStream _results;
+}
@@ -0,0 +1,364 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/** A compressed set of non-negative ints, after Roaring bitmaps.  The
+ *  ints are grouped by their high 16 bits, and each group is kept in a
+ *  container of its own: a sorted array of the low 16 bits while it has
+ *  at most ARRAY_MAX members, and otherwise a plain bitmap of 2^16 bits.
+ *  Sparse sets cost two bytes a member and dense ones an eighth of a
+ *  byte, and a union works a container at a time.
+ *
+ *  On disk each container is written in whichever of three forms is
+ *  smallest: the array, the bitmap, or a list of runs of consecutive
+ *  members, which is how the dense, mostly unbroken ranges of commit
+ *  positions that reachability produces take only a few bytes.
+ *  @author Matt Chorlian
+ */
+class Bitmap {
+
+    /** Most members a container keeps as an array. */
+    private static final int ARRAY_MAX = 4096;
+
+    /** Words in a bitmap container. */
+    private static final int WORDS = (1 << Character.SIZE) / Long.SIZE;
+
+    /** On-disk form of a container: a sorted array. */
+    private static final byte ARRAY = 0;
+
+    /** On-disk form of a container: a bitmap. */
+    private static final byte BITS = 1;
+
+    /** On-disk form of a container: runs of consecutive members. */
+    private static final byte RUNS = 2;
+
+    /** An empty set. */
+    Bitmap() {
+    }
+
+    /** Adds X to this set. */
+    void add(int x) {
+        int k = find((char) (x >>> Character.SIZE));
+        if (k < 0) {
+            k = -k - 1;
+            insert(k, (char) (x >>> Character.SIZE), new Container());
+        }
+        _containers[k].add((char) x);
+    }
+
+    /** Returns true iff X is in this set. */
+    boolean contains(int x) {
+        if (x < 0) {
+            return false;
+        }
+        int k = find((char) (x >>> Character.SIZE));
+        return k >= 0 && _containers[k].contains((char) x);
+    }
+
+    /** Adds every member of OTHER to this set. */
+    void or(Bitmap other) {
+        for (int j = 0; j < other._size; j += 1) {
+            int k = find(other._keys[j]);
+            if (k < 0) {
+                insert(-k - 1, other._keys[j], other._containers[j].copy());
+            } else {
+                _containers[k].or(other._containers[j]);
+            }
+        }
+    }
+
+    /** Returns the number of members. */
+    int cardinality() {
+        int result = 0;
+        for (int k = 0; k < _size; k += 1) {
+            result += _containers[k]._cardinality;
+        }
+        return result;
+    }
+
+    /** Calls ACTION on each member, in increasing order. */
+    void forEach(IntConsumer action) {
+        for (int k = 0; k < _size; k += 1) {
+            int high = _keys[k] << Character.SIZE;
+            Container c = _containers[k];
+            if (c._words == null) {
+                for (int i = 0; i < c._cardinality; i += 1) {
+                    action.accept(high | c._array[i]);
+                }
+            } else {
+                for (int w = 0; w < WORDS; w += 1) {
+                    for (long word = c._words[w]; word != 0;
+                         word &= word - 1) {
+                        action.accept(high | w * Long.SIZE
+                                      + Long.numberOfTrailingZeros(word));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Writes this set to OUT. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(_size);
+        for (int k = 0; k < _size; k += 1) {
+            out.writeChar(_keys[k]);
+            _containers[k].write(out);
+        }
+    }
+
+    /** Returns the set written by write() that IN holds next. */
+    static Bitmap read(DataInputStream in) throws IOException {
+        Bitmap result = new Bitmap();
+        int n = in.readInt();
+        result._keys = new char[n];
+        result._containers = new Container[n];
+        for (int k = 0; k < n; k += 1) {
+            result._keys[k] = in.readChar();
+            result._containers[k] = Container.read(in);
+            if (k > 0 && result._keys[k] <= result._keys[k - 1]) {
+                throw new IOException("bitmap keys out of order");
+            }
+        }
+        result._size = n;
+        return result;
+    }
+
+    /** Returns the index of the container for the high bits KEY, or
+     *  -(where it would go) - 1 if there is none. */
+    private int find(char key) {
+        return Arrays.binarySearch(_keys, 0, _size, key);
+    }
+
+    /** Puts container C for the high bits KEY at index K. */
+    private void insert(int k, char key, Container c) {
+        if (_size == _keys.length) {
+            int n = Math.max(4, 2 * _size);
+            _keys = Arrays.copyOf(_keys, n);
+            _containers = Arrays.copyOf(_containers, n);
+        }
+        System.arraycopy(_keys, k, _keys, k + 1, _size - k);
+        System.arraycopy(_containers, k, _containers, k + 1, _size - k);
+        _keys[k] = key;
+        _containers[k] = c;
+        _size += 1;
+    }
+
+    /** The members sharing one value of the high 16 bits. */
+    private static class Container {
+
+        /** Adds LOW. */
+        void add(char low) {
+            if (_words != null) {
+                long bit = 1L << low;
+                if ((_words[low >>> 6] & bit) == 0) {
+                    _words[low >>> 6] |= bit;
+                    _cardinality += 1;
+                }
+                return;
+            }
+            int i = Arrays.binarySearch(_array, 0, _cardinality, low);
+            if (i >= 0) {
+                return;
+            }
+            i = -i - 1;
+            if (_cardinality == ARRAY_MAX) {
+                toBits();
+                add(low);
+                return;
+            }
+            if (_cardinality == _array.length) {
+                _array = Arrays.copyOf(_array, Math.max(4, 2 * _cardinality));
+            }
+            System.arraycopy(_array, i, _array, i + 1, _cardinality - i);
+            _array[i] = low;
+            _cardinality += 1;
+        }
+
+        /** Returns true iff LOW is a member. */
+        boolean contains(char low) {
+            if (_words != null) {
+                return (_words[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(_array, 0, _cardinality, low) >= 0;
+        }
+
+        /** Adds the members of OTHER. */
+        void or(Container other) {
+            if (_words == null && other._words == null
+                && _cardinality + other._cardinality <= ARRAY_MAX) {
+                char[] merged = new char[_cardinality + other._cardinality];
+                int i = 0, j = 0, n = 0;
+                while (i < _cardinality || j < other._cardinality) {
+                    if (j == other._cardinality || i < _cardinality
+                        && _array[i] < other._array[j]) {
+                        merged[n++] = _array[i++];
+                    } else if (i == _cardinality
+                               || other._array[j] < _array[i]) {
+                        merged[n++] = other._array[j++];
+                    } else {
+                        merged[n++] = _array[i++];
+                        j += 1;
+                    }
+                }
+                _array = merged;
+                _cardinality = n;
+                return;
+            }
+            toBits();
+            if (other._words == null) {
+                for (int j = 0; j < other._cardinality; j += 1) {
+                    add(other._array[j]);
+                }
+                return;
+            }
+            int n = 0;
+            for (int w = 0; w < WORDS; w += 1) {
+                _words[w] |= other._words[w];
+                n += Long.bitCount(_words[w]);
+            }
+            _cardinality = n;
+        }
+
+        /** Returns a copy of this container. */
+        Container copy() {
+            Container result = new Container();
+            result._array = _array.clone();
+            result._words = _words == null ? null : _words.clone();
+            result._cardinality = _cardinality;
+            return result;
+        }
+
+        /** Switches to the bitmap form, if not already in it. */
+        private void toBits() {
+            if (_words != null) {
+                return;
+            }
+            _words = new long[WORDS];
+            for (int i = 0; i < _cardinality; i += 1) {
+                _words[_array[i] >>> 6] |= 1L << _array[i];
+            }
+            _array = new char[0];
+        }
+
+        /** Returns the runs of consecutive members, as (first, length - 1)
+         *  pairs. */
+        private char[] runs() {
+            char[] result = new char[8];
+            int n = 0;
+            for (int low = next(0); low >= 0;) {
+                int start = low, end = low;
+                for (low = next(low + 1); low == end + 1;
+                     low = next(low + 1)) {
+                    end = low;
+                }
+                if (n + 2 > result.length) {
+                    result = Arrays.copyOf(result, 2 * result.length);
+                }
+                result[n++] = (char) start;
+                result[n++] = (char) (end - start);
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        /** Returns the smallest member at least FROM, or -1. */
+        private int next(int from) {
+            if (from > Character.MAX_VALUE) {
+                return -1;
+            }
+            if (_words == null) {
+                int i = Arrays.binarySearch(_array, 0, _cardinality,
+                                            (char) from);
+                i = i < 0 ? -i - 1 : i;
+                return i == _cardinality ? -1 : _array[i];
+            }
+            for (int w = from >>> 6; w < WORDS; w += 1) {
+                long word = _words[w];
+                if (w == from >>> 6) {
+                    word &= -1L << from;
+                }
+                if (word != 0) {
+                    return w * Long.SIZE + Long.numberOfTrailingZeros(word);
+                }
+            }
+            return -1;
+        }
+
+        /** Writes this container to OUT in its smallest form. */
+        void write(DataOutputStream out) throws IOException {
+            char[] runs = runs();
+            int arrayBytes = 2 * _cardinality, bitBytes = WORDS * Long.BYTES,
+                runBytes = 2 * runs.length;
+            if (runBytes < arrayBytes && runBytes < bitBytes) {
+                out.writeByte(RUNS);
+                out.writeChar(runs.length / 2);
+                for (char c : runs) {
+                    out.writeChar(c);
+                }
+            } else if (arrayBytes <= bitBytes) {
+                out.writeByte(ARRAY);
+                out.writeChar(_cardinality - 1);
+                for (int low = next(0); low >= 0; low = next(low + 1)) {
+                    out.writeChar(low);
+                }
+            } else {
+                toBits();
+                out.writeByte(BITS);
+                for (long word : _words) {
+                    out.writeLong(word);
+                }
+            }
+        }
+
+        /** Returns the container write() wrote, read from IN. */
+        static Container read(DataInputStream in) throws IOException {
+            Container result = new Container();
+            switch (in.readByte()) {
+            case RUNS:
+                for (int n = in.readChar(); n > 0; n -= 1) {
+                    int start = in.readChar(), length = in.readChar() + 1;
+                    for (int i = 0; i < length; i += 1) {
+                        result.add((char) (start + i));
+                    }
+                }
+                break;
+            case ARRAY:
+                for (int n = in.readChar() + 1; n > 0; n -= 1) {
+                    result.add(in.readChar());
+                }
+                break;
+            case BITS:
+                result._words = new long[WORDS];
+                for (int w = 0; w < WORDS; w += 1) {
+                    result._words[w] = in.readLong();
+                    result._cardinality += Long.bitCount(result._words[w]);
+                }
+                break;
+            default:
+                throw new IOException("bad bitmap container");
+            }
+            return result;
+        }
+
+        /** The members, in order, while in the array form. */
+        private char[] _array = new char[0];
+
+        /** The bitmap, or null while in the array form. */
+        private long[] _words;
+
+        /** Number of members. */
+        private int _cardinality;
+    }
+
+    /** High 16 bits of the containers, in increasing order. */
+    private char[] _keys = new char[0];
+
+    /** Containers, by index. */
+    private Container[] _containers = new Container[0];
+
+    /** Number of containers. */
+    private int _size;
+}
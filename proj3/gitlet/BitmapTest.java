@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Bitmap, against a TreeSet holding the same members.
+ *  @author Matt Chorlian
+ */
+public class BitmapTest {
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Adds each of VALUES to both SET and EXPECTED. */
+    private static void addAll(Bitmap set, TreeSet<Integer> expected,
+                               Iterable<Integer> values) {
+        for (int x : values) {
+            set.add(x);
+            expected.add(x);
+        }
+    }
+
+    /** Returns N random ints in [LOW, LOW + RANGE), from a generator
+     *  seeded with SEED. */
+    private static List<Integer> random(int n, int low, int range,
+                                        long seed) {
+        Random r = new Random(seed);
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            result.add(low + r.nextInt(range));
+        }
+        return result;
+    }
+
+    /** Returns the ints in [LOW, HIGH). */
+    private static List<Integer> range(int low, int high) {
+        List<Integer> result = new ArrayList<>();
+        for (int x = low; x < high; x += 1) {
+            result.add(x);
+        }
+        return result;
+    }
+
+    /** Checks that SET has exactly the members of EXPECTED, and yields
+     *  them in increasing order. */
+    private static void check(Bitmap set, TreeSet<Integer> expected) {
+        assertEquals(expected.size(), set.cardinality());
+        List<Integer> members = new ArrayList<>();
+        set.forEach(members::add);
+        assertEquals(new ArrayList<>(expected), members);
+        for (int x : expected) {
+            assertTrue(set.contains(x));
+            assertEquals(expected.contains(x + 1), set.contains(x + 1));
+        }
+    }
+
+    /** Returns SET after writing it out and reading it back. */
+    private static Bitmap roundTrip(Bitmap set) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        set.write(out);
+        out.close();
+        return Bitmap.read(new DataInputStream(
+                               new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    /** Returns the number of bytes SET takes when written. */
+    private static int writtenSize(Bitmap set) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            set.write(out);
+        }
+        return bytes.size();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void emptyTest() throws IOException {
+        Bitmap set = new Bitmap();
+        check(set, new TreeSet<>());
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(-1));
+        check(roundTrip(set), new TreeSet<>());
+    }
+
+    @Test
+    public void sparseTest() throws IOException {
+        Bitmap set = new Bitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        addAll(set, expected, random(1000, 0, 1 << 24, 1));
+        addAll(set, expected, List.of(0, 65535, 65536, Integer.MAX_VALUE));
+        check(set, expected);
+        check(roundTrip(set), expected);
+    }
+
+    @Test
+    public void denseTest() throws IOException {
+        Bitmap set = new Bitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        addAll(set, expected, random(30000, 1 << 16, 1 << 16, 2));
+        check(set, expected);
+        check(roundTrip(set), expected);
+        assertTrue(writtenSize(set) <= (1 << 13) + 16);
+    }
+
+    @Test
+    public void runsTest() throws IOException {
+        Bitmap set = new Bitmap();
+        TreeSet<Integer> expected = new TreeSet<>();
+        addAll(set, expected, range(0, 1 << 16));
+        addAll(set, expected, range(100000, 110000));
+        addAll(set, expected, range(120000, 120003));
+        check(set, expected);
+        check(roundTrip(set), expected);
+        assertTrue(writtenSize(set) < 64);
+    }
+
+    @Test
+    public void orTest() {
+        int[][] sizes = { {10, 10}, {3000, 3000}, {10, 20000},
+                          {20000, 10}, {20000, 20000} };
+        for (int[] size : sizes) {
+            Bitmap a = new Bitmap(), b = new Bitmap();
+            TreeSet<Integer> expectedA = new TreeSet<>();
+            TreeSet<Integer> expectedB = new TreeSet<>();
+            addAll(a, expectedA, random(size[0], 0, 1 << 17, size[0]));
+            addAll(b, expectedB, random(size[1], 1 << 16, 1 << 17, size[1]));
+            a.or(b);
+            expectedA.addAll(expectedB);
+            check(a, expectedA);
+            check(b, expectedB);
+        }
+    }
+
+    @Test
+    public void orCopiesTest() {
+        Bitmap a = new Bitmap(), b = new Bitmap();
+        b.add(1 << 20);
+        a.or(b);
+        a.add((1 << 20) + 1);
+        assertTrue(a.contains((1 << 20) + 1));
+        assertFalse(b.contains((1 << 20) + 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void badContainerTest() throws IOException {
+        byte[] bytes = { 0, 0, 0, 1, 0, 0, 9 };
+        Bitmap.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+}
@@ -0,0 +1,234 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** For each commit in the commit graph, a Bloom filter of the paths it
+ *  changed relative to its first parent, so that a path-limited log can
+ *  pass over a commit without reading it or its trees when the filter
+ *  says the path is not among them.  The directories above each changed
+ *  file are added too, so directories can be asked about as well.
+ *
+ *  .gitlet/commit-graph-paths holds a header and then one record per
+ *  commit, in commit-graph order: the commit's binary id, the size of
+ *  its filter in bytes (or TOO_MANY if it changed too many paths to be
+ *  worth a filter) and the filter.  Records are added when commits are
+ *  written and, for commits that have none yet, when first needed; a
+ *  record whose id does not match the graph is dropped with everything
+ *  after it.
+ *  @author Matt Chorlian
+ */
+class ChangedPaths {
+
+    /** The filter file. */
+    static final File PATHS = new File(".gitlet/commit-graph-paths");
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x474c4250;
+
+    /** Format version. */
+    private static final int VERSION = 1;
+
+    /** Size of the header: magic and version. */
+    private static final int HEADER = 8;
+
+    /** Size of the raw form of an id. */
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+
+    /** Filter size recorded for a commit that changed more than
+     *  MAX_PATHS paths: every path may have changed. */
+    private static final int TOO_MANY = -1;
+
+    /** Most paths put in one filter. */
+    private static final int MAX_PATHS = 512;
+
+    /** Bits of filter per path. */
+    private static final int BITS_PER_PATH = 10;
+
+    /** Number of bits set per path. */
+    private static final int HASHES = 7;
+
+    /** Smallest filter, in bytes. */
+    private static final int MIN_BYTES = 8;
+
+    /** Returns the filters of this repository. */
+    static ChangedPaths get() {
+        if (_paths == null) {
+            _paths = new ChangedPaths();
+        }
+        return _paths;
+    }
+
+    /** Forgets the filters read so far, so that get() reads them
+     *  again. */
+    static void reset() {
+        _paths = null;
+    }
+
+    /** Deletes the filter file, for when commit-graph positions
+     *  change. */
+    static void clear() {
+        PATHS.delete();
+        _paths = null;
+    }
+
+    /** Filters read from PATHS, keeping those that match the commit
+     *  graph. */
+    private ChangedPaths() {
+        if (!PATHS.exists()) {
+            return;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Utils.readContents(PATHS));
+        if (data.remaining() < HEADER || data.getInt() != MAGIC
+            || data.getInt() != VERSION) {
+            PATHS.delete();
+            return;
+        }
+        CommitGraph graph = CommitGraph.get();
+        byte[] id = new byte[ID_SIZE];
+        int valid = HEADER;
+        while (data.remaining() >= ID_SIZE + 4) {
+            data.get(id);
+            int n = data.getInt();
+            int pos = _filters.size();
+            if (n > data.remaining() || pos >= graph.size()
+                || !graph.idAt(pos).equals(Utils.sha1Hex(id, 0))) {
+                break;
+            }
+            byte[] filter = null;
+            if (n != TOO_MANY) {
+                filter = new byte[n];
+                data.get(filter);
+            }
+            _filters.add(filter);
+            valid = data.position();
+        }
+        if (valid < data.limit()) {
+            truncate(valid);
+        }
+    }
+
+    /** Returns false if the commit at commit-graph position POS certainly
+     *  did not change PATH (a file or a directory), and true if it may
+     *  have. */
+    boolean mayHaveChanged(int pos, String path) {
+        byte[] filter = filter(pos);
+        if (filter == null) {
+            return true;
+        }
+        if (filter.length == 0) {
+            return false;
+        }
+        int bits = filter.length * Byte.SIZE;
+        int[] h = hashes(path);
+        for (int i = 0; i < HASHES; i += 1) {
+            int bit = Math.floorMod(h[0] + i * h[1], bits);
+            if ((filter[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the filter of the commit at position POS, or null if it
+     *  has none, computing and storing filters up to POS if needed. */
+    byte[] filter(int pos) {
+        while (_filters.size() <= pos) {
+            append(_filters.size());
+        }
+        return _filters.get(pos);
+    }
+
+    /** Computes the filter of the commit at position POS, which must be
+     *  the next without one, and appends it to PATHS. */
+    private void append(int pos) {
+        CommitGraph graph = CommitGraph.get();
+        Commit c = ObjectStore.readCommit(graph.idAt(pos));
+        int[] parents = graph.parents(pos);
+        String before = parents.length == 0 ? null
+            : ObjectStore.readCommit(graph.idAt(parents[0])).getTree();
+        HashMap<String, String> changes = new HashMap<>();
+        Tree.diff(before, c.getTree(), "", changes);
+        Set<String> paths = new HashSet<>();
+        for (String path : changes.keySet()) {
+            for (int slash = path.indexOf(Tree.SEPARATOR); slash >= 0;
+                 slash = path.indexOf(Tree.SEPARATOR, slash + 1)) {
+                paths.add(path.substring(0, slash));
+            }
+            paths.add(path);
+        }
+        byte[] filter = null;
+        if (paths.size() <= MAX_PATHS) {
+            filter = new byte[paths.isEmpty() ? 0
+                              : Math.max(MIN_BYTES, (paths.size()
+                                                     * BITS_PER_PATH + 7)
+                                         / Byte.SIZE)];
+            int bits = filter.length * Byte.SIZE;
+            for (String path : paths) {
+                int[] h = hashes(path);
+                for (int i = 0; i < HASHES; i += 1) {
+                    int bit = Math.floorMod(h[0] + i * h[1], bits);
+                    filter[bit >>> 3] |= 1 << (bit & 7);
+                }
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (!PATHS.exists()) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.write(Utils.sha1Bytes(c.getSha1()));
+            out.writeInt(filter == null ? TOO_MANY : filter.length);
+            if (filter != null) {
+                out.write(filter);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (FileOutputStream out = new FileOutputStream(PATHS, true)) {
+            out.write(bytes.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        _filters.add(filter);
+    }
+
+    /** Returns the two base hashes of PATH, the second odd, from which
+     *  the bits of PATH are derived by double hashing. */
+    private static int[] hashes(String path) {
+        int fnv = 0x811c9dc5;
+        int murmur = 0x9747b28c;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            fnv = (fnv ^ (b & 0xff)) * 0x01000193;
+            murmur = Integer.rotateLeft(murmur ^ (b & 0xff) * 0xcc9e2d51, 15)
+                * 0x1b873593;
+        }
+        murmur ^= murmur >>> 16;
+        return new int[] {fnv, murmur | 1};
+    }
+
+    /** Cuts PATHS down to its first LENGTH bytes. */
+    private static void truncate(int length) {
+        byte[] data = Utils.readContents(PATHS);
+        byte[] kept = new byte[length];
+        System.arraycopy(data, 0, kept, 0, length);
+        Utils.writeContents(PATHS, (Object) kept);
+    }
+
+    /** Filters by commit-graph position; null where there is none. */
+    private final List<byte[]> _filters = new ArrayList<>();
+
+    /** The filters read so far, or null. */
+    private static ChangedPaths _paths;
+}
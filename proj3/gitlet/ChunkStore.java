@@ -0,0 +1,347 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Storage for large blobs as lists of content-defined chunks.  A file
+ *  of at least THRESHOLD bytes is cut where a rolling gear hash of its
+ *  contents (FastCDC, with normalized chunking) has its top bits clear,
+ *  so the cuts depend only on the bytes near them: appending to a file,
+ *  or editing it in the middle, changes the chunks around the edit and
+ *  leaves every other chunk, and so every other stored byte, as it was.
+ *
+ *  Each chunk is kept once, in .gitlet/chunks under the SHA-1 of its
+ *  bytes.  The blob itself is a list in .gitlet/chunked, under the
+ *  blob's usual id (the SHA-1 of the whole file): a header, the file's
+ *  length and the number of chunks, then each chunk's binary id and
+ *  length.  Chunks are written before the list that names them, each
+ *  renamed into place once complete, so a list never names a missing
+ *  chunk; chunks that no list names are removed by sweep().
+ *  @author Matt Chorlian
+ */
+class ChunkStore {
+
+    /** Directory of chunk lists, by blob id. */
+    static final File LISTS = new File(".gitlet/chunked");
+
+    /** Directory of chunks, by chunk id. */
+    static final File CHUNKS = new File(".gitlet/chunks");
+
+    /** Files at least this long are stored as chunks; 0 turns chunking
+     *  off.  Set with -Dgitlet.chunkThreshold=BYTES. */
+    static final long THRESHOLD =
+        Long.getLong("gitlet.chunkThreshold", 4L << 20);
+
+    /** Magic number at the start of a chunk list. */
+    private static final int MAGIC = 0x474c434c;
+
+    /** Chunk list format version. */
+    private static final int VERSION = 1;
+
+    /** Smallest chunk, except at the end of a file. */
+    static final int MIN_SIZE = 16 << 10;
+
+    /** Log2 of the size chunks are normalized towards. */
+    private static final int AVG_BITS = 16;
+
+    /** The size chunks are normalized towards. */
+    private static final int AVG_SIZE = 1 << AVG_BITS;
+
+    /** Largest chunk. */
+    static final int MAX_SIZE = 256 << 10;
+
+    /** Mask tested before AVG_SIZE: harder to match, so that short
+     *  chunks are rare. */
+    private static final long MASK_SMALL = -1L << (64 - AVG_BITS - 2);
+
+    /** Mask tested after AVG_SIZE: easier to match, so that long chunks
+     *  are rare. */
+    private static final long MASK_LARGE = -1L << (64 - AVG_BITS + 2);
+
+    /** Size of the buffer files are read through. */
+    private static final int BUFFER_SIZE = 4 * MAX_SIZE;
+
+    /** Seed of the gear table. */
+    private static final long SEED = 0x6769746c6574L;
+
+    /** Size of the raw form of an id. */
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+
+    /** Returns true iff SOURCE is large enough to be stored as chunks. */
+    static boolean shouldChunk(File source) {
+        return THRESHOLD > 0 && source.length() >= THRESHOLD;
+    }
+
+    /** Returns true iff the blob SHA is stored as chunks. */
+    static boolean contains(String sha) {
+        return listFile(sha).exists();
+    }
+
+    /** Returns the chunk list of the blob SHA. */
+    static File listFile(String sha) {
+        return ObjectStore.looseFile(LISTS, sha);
+    }
+
+    /** Returns the file of the chunk ID. */
+    static File chunkFile(String id) {
+        return ObjectStore.looseFile(CHUNKS, id);
+    }
+
+    /** Stores SOURCE, whose SHA-1 is SHA, as chunks, writing only the
+     *  chunks not already stored.  The file is read once, a buffer at a
+     *  time. */
+    static void store(String sha, File source) {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        long length = 0;
+        int count = 0;
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(source);
+             DataOutputStream list = new DataOutputStream(entries)) {
+            int start = 0, end = 0;
+            boolean eof = false;
+            while (true) {
+                if (!eof && end - start < MAX_SIZE) {
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    int n = 0;
+                    while (end < buf.length
+                           && (n = in.read(buf, end, buf.length - end)) > 0) {
+                        end += n;
+                    }
+                    eof = n < 0;
+                }
+                if (start == end) {
+                    break;
+                }
+                int size = cut(buf, start, end - start);
+                list.write(Utils.sha1Bytes(writeChunk(buf, start, size)));
+                list.writeInt(size);
+                start += size;
+                length += size;
+                count += 1;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeInt(count);
+            entries.writeTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File list = ObjectStore.newLooseFile(LISTS, sha);
+        File temp = Utils.tempFile(list);
+        Utils.writeContents(temp, (Object) bytes.toByteArray());
+        rename(temp.toPath(), list.toPath());
+        Journal.written(list);
+    }
+
+    /** Writes the blob SHA, stored as chunks, to DEST by copying the
+     *  chunks in order. */
+    static void copy(String sha, File dest) {
+        Path temp = null;
+        try {
+            temp = Utils.tempFile(dest).toPath();
+            try (FileChannel out =
+                     FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                for (String id : chunks(sha)) {
+                    try (FileChannel in =
+                             FileChannel.open(chunkFile(id).toPath(),
+                                              StandardOpenOption.READ)) {
+                        long size = in.size();
+                        for (long pos = 0; pos < size;) {
+                            pos += in.transferTo(pos, size - pos, out);
+                        }
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        rename(temp, dest.toPath());
+    }
+
+    /** Writes the blob SHA, stored as chunks, to OUT a chunk at a
+     *  time. */
+    static void copy(String sha, OutputStream out) throws IOException {
+        for (String id : chunks(sha)) {
+            Files.copy(chunkFile(id).toPath(), out);
+        }
+    }
+
+    /** Returns the contents of the blob SHA, stored as chunks. */
+    static byte[] read(String sha) {
+        long length = length(sha);
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("blob too large to read: "
+                                               + sha);
+        }
+        byte[] result = new byte[(int) length];
+        int pos = 0;
+        for (String id : chunks(sha)) {
+            byte[] chunk = Utils.readContents(chunkFile(id));
+            System.arraycopy(chunk, 0, result, pos, chunk.length);
+            pos += chunk.length;
+        }
+        return result;
+    }
+
+    /** Returns the length of the blob SHA, stored as chunks. */
+    static long length(String sha) {
+        try (DataInputStream in =
+                 new DataInputStream(new FileInputStream(listFile(sha)))) {
+            header(in, sha);
+            return in.readLong();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt chunk list " + sha);
+        }
+    }
+
+    /** Returns the ids of the chunks of the blob SHA, in order. */
+    static List<String> chunks(String sha) {
+        List<String> result = new ArrayList<>();
+        byte[] id = new byte[ID_SIZE];
+        try (DataInputStream in =
+                 new DataInputStream(new FileInputStream(listFile(sha)))) {
+            header(in, sha);
+            in.readLong();
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                in.readFully(id);
+                in.readInt();
+                result.add(Utils.sha1Hex(id, 0));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt chunk list " + sha);
+        }
+        return result;
+    }
+
+    /** Deletes every chunk that no chunk list names.  Returns the number
+     *  of chunks deleted. */
+    static int sweep() {
+        Set<String> live = new HashSet<>();
+        for (String sha : ObjectStore.looseIds(LISTS)) {
+            live.addAll(chunks(sha));
+        }
+        int deleted = 0;
+        for (String id : ObjectStore.looseIds(CHUNKS)) {
+            if (!live.contains(id)) {
+                chunkFile(id).delete();
+                deleted += 1;
+            }
+        }
+        return deleted;
+    }
+
+    /** Returns the length of the chunk that starts at OFF in BUF, of
+     *  which LEN bytes are available.  LEN must be at least MAX_SIZE
+     *  unless the file ends within it. */
+    static int cut(byte[] buf, int off, int len) {
+        if (len <= MIN_SIZE) {
+            return len;
+        }
+        int limit = Math.min(len, MAX_SIZE);
+        int normal = Math.min(limit, AVG_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[buf[off + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[buf[off + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /** Stores bytes [OFF, OFF + LEN) of BUF as a chunk, unless it is
+     *  already stored, and returns its id. */
+    private static String writeChunk(byte[] buf, int off, int len)
+        throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("SHA-1 is not supported");
+        }
+        md.update(buf, off, len);
+        String id = Utils.sha1Hex(md.digest(), 0);
+        File f = chunkFile(id);
+        if (!f.exists()) {
+            f = ObjectStore.newLooseFile(CHUNKS, id);
+            Path temp = Files.createTempFile(f.getParentFile().toPath(),
+                                             "tmp-", null);
+            try (OutputStream out = new FileOutputStream(temp.toFile())) {
+                out.write(buf, off, len);
+            }
+            rename(temp, f.toPath());
+            Journal.written(f);
+        }
+        return id;
+    }
+
+    /** Checks the header of the chunk list of SHA, read from IN. */
+    private static void header(DataInputStream in, String sha)
+        throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IllegalArgumentException("corrupt chunk list " + sha);
+        }
+    }
+
+    /** Renames SOURCE to DEST atomically, replacing DEST. */
+    private static void rename(Path source, Path dest) {
+        try {
+            Files.move(source, dest, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            source.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Random values for the gear hash, one per byte value, the same in
+     *  every run (splitmix64 from SEED). */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long x = SEED;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            x += 0x9e3779b97f4a7c15L;
+            long z = x;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the content-defined cut points of ChunkStore.
+ *  @author Matt Chorlian
+ */
+public class ChunkStoreTest {
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Returns N random bytes, from a generator seeded with SEED. */
+    private static byte[] randomBytes(int n, long seed) {
+        byte[] result = new byte[n];
+        new Random(seed).nextBytes(result);
+        return result;
+    }
+
+    /** Returns the offsets at which DATA is cut into chunks, ending with
+     *  its length, checking the size of each chunk. */
+    private static List<Integer> cuts(byte[] data) {
+        List<Integer> result = new ArrayList<>();
+        for (int start = 0; start < data.length;) {
+            int len = ChunkStore.cut(data, start, data.length - start);
+            assertTrue(len > 0 && len <= ChunkStore.MAX_SIZE);
+            assertTrue(len >= ChunkStore.MIN_SIZE
+                       || start + len == data.length);
+            start += len;
+            result.add(start);
+        }
+        return result;
+    }
+
+    /** Returns the contents of the chunks of DATA, as strings. */
+    private static Set<String> chunks(byte[] data) {
+        Set<String> result = new HashSet<>();
+        int start = 0;
+        for (int end : cuts(data)) {
+            result.add(Arrays.toString(Arrays.copyOfRange(data, start, end)));
+            start = end;
+        }
+        return result;
+    }
+
+    /** Returns the number of members of A that are not in B. */
+    private static int missing(Set<String> a, Set<String> b) {
+        Set<String> result = new HashSet<>(a);
+        result.removeAll(b);
+        return result.size();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void shortTest() {
+        byte[] data = randomBytes(ChunkStore.MIN_SIZE, 1);
+        assertEquals(ChunkStore.MIN_SIZE,
+                     ChunkStore.cut(data, 0, data.length));
+        assertEquals(10, ChunkStore.cut(data, 5, 10));
+        assertEquals(0, ChunkStore.cut(data, 0, 0));
+    }
+
+    @Test
+    public void sizesTest() {
+        byte[] data = randomBytes(8 << 20, 2);
+        List<Integer> cuts = cuts(data);
+        int average = data.length / cuts.size();
+        assertTrue(average > ChunkStore.MIN_SIZE);
+        assertTrue(average < ChunkStore.MAX_SIZE / 2);
+    }
+
+    @Test
+    public void uniformTest() {
+        byte[] data = new byte[3 * ChunkStore.MAX_SIZE];
+        for (int end : cuts(data)) {
+            assertTrue(end % ChunkStore.MAX_SIZE == 0 || end == data.length);
+        }
+    }
+
+    @Test
+    public void offsetTest() {
+        byte[] data = randomBytes(2 << 20, 3);
+        int off = 12345;
+        byte[] copy = Arrays.copyOfRange(data, off, data.length);
+        assertEquals(ChunkStore.cut(copy, 0, copy.length),
+                     ChunkStore.cut(data, off, data.length - off));
+    }
+
+    @Test
+    public void insertTest() {
+        byte[] data = randomBytes(4 << 20, 4);
+        byte[] edited = new byte[data.length + 100];
+        int at = data.length / 2;
+        System.arraycopy(data, 0, edited, 0, at);
+        System.arraycopy(randomBytes(100, 5), 0, edited, at, 100);
+        System.arraycopy(data, at, edited, at + 100, data.length - at);
+        Set<String> before = chunks(data), after = chunks(edited);
+        assertTrue(before.size() > 10);
+        assertTrue(missing(after, before) <= 2);
+        assertTrue(missing(before, after) <= 2);
+    }
+
+    @Test
+    public void prependTest() {
+        byte[] data = randomBytes(4 << 20, 6);
+        byte[] edited = new byte[data.length + 7];
+        System.arraycopy(data, 0, edited, 7, data.length);
+        assertTrue(missing(chunks(data), chunks(edited)) <= 1);
+    }
+
+}
@@ -1,28 +1,42 @@
 package gitlet;
 
 import java.io.Serializable;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.TimeZone;
 
 /** @author Matt Chorlian. **/
 public class Commit implements Serializable {
 
+    /** fixed so that commits written before trees still read. **/
+    private static final long serialVersionUID = -7041907786760311832L;
 
     /** date format for commits. **/
     private static final SimpleDateFormat FORMAT =
             new SimpleDateFormat("EEE MMM d HH:mm:ss YYYY Z");
 
+    /** milliseconds in a second. **/
+    private static final long MILLIS = 1000;
+
     /** the commit message. **/
     private String _message;
 
     /** the timestamp of this commit. **/
     private String _timestamp;
 
-    /** the files of this commit. **/
+    /** the files of a commit written before trees, else null. **/
     private HashMap<String, String> _files;
 
+    /** the id of the root tree of this commit, or null if it has no
+     * files (or was written before trees). **/
+    private String _tree;
+
+    /** the files of this commit by path, once flattened. **/
+    private transient HashMap<String, String> _flat;
+
     /** the _parent(s) of this commit. **/
     private String[] _parent;
 
@@ -32,26 +46,75 @@ public class Commit implements Serializable {
     /** COMMIT CONSTRUCTOR.
      * @param message
      * the commit message
-     * @param map
-     * the file map
+     * @param tree
+     * the id of the root tree, or null if there are no files
      * @param parent
      * the parent of this commit
      * @param initial
      * true if this is the first commit
      * **/
-    public Commit(String message, HashMap<String,
-            String> map, String[] parent, Boolean initial) {
+    public Commit(String message, String tree, String[] parent,
+                  Boolean initial) {
         if (initial) {
             _timestamp = "Wed Dec 31 16:00:00 1969 -0800";
         } else {
             Date date = new Date();
             _timestamp = FORMAT.format(date);
         }
-        _files = map;
+        _tree = tree;
+        _parent = parent;
+        _message = message;
+        _sha1ID = hashCommit();
+
+    }
+
+    /** COMMIT CONSTRUCTOR.
+     * A commit made at a given time, as an import makes them.
+     * @param message
+     * the commit message
+     * @param tree
+     * the id of the root tree, or null if there are no files
+     * @param parent
+     * the parent of this commit
+     * @param timestamp
+     * the time of the commit, formatted as by time()
+     * **/
+    public Commit(String message, String tree, String[] parent,
+                  String timestamp) {
+        _timestamp = timestamp;
+        _tree = tree;
         _parent = parent;
         _message = message;
         _sha1ID = hashCommit();
+    }
 
+    /** TIME.
+     * @param seconds
+     * seconds since the epoch
+     * @param zone
+     * the time zone to show the time in
+     * @return the time formatted as in a commit
+     * **/
+    public static String time(long seconds, TimeZone zone) {
+        SimpleDateFormat format = new SimpleDateFormat(FORMAT.toPattern());
+        format.setTimeZone(zone);
+        return format.format(new Date(seconds * MILLIS));
+    }
+
+    /** SECONDS.
+     * @param timestamp
+     * a time formatted as in a commit
+     * @return the seconds since the epoch it stands for, or -1 if it
+     * cannot be read
+     * **/
+    public static long seconds(String timestamp) {
+        SimpleDateFormat format =
+            new SimpleDateFormat(FORMAT.toPattern().replace('Y', 'y'));
+        try {
+            return format.parse(timestamp).getTime() / MILLIS;
+        } catch (ParseException excp) {
+            return -1;
+        }
     }
 
     /** GET PARENTS SHA1.
@@ -66,11 +129,15 @@ public class Commit implements Serializable {
     }
 
     /** HASH THIS COMMIT.
+     * Covers the root tree's id rather than every file, so it costs the
+     * same however many files there are.
      * @return String
      * **/
     public String hashCommit() {
         String files;
-        if (_files == null) {
+        if (_tree != null) {
+            files = _tree;
+        } else if (_files == null) {
             files = "";
         } else {
             files = _files.toString();
@@ -109,10 +176,42 @@ public class Commit implements Serializable {
         return _parent;
     }
 
-    /** get this commit's files.
+    /** GET TREE.
+     * A commit written before trees gets its tree built (and stored)
+     * from its file map.
+     * @return the id of the root tree, or null if there are no files
+     * **/
+    public String getTree() {
+        if (_tree == null && _files != null && !_files.isEmpty()) {
+            _tree = Tree.fromFiles(_files);
+        }
+        return _tree;
+    }
+
+    /** STORED TREE.
+     * Unlike getTree(), never builds a tree for a commit written before
+     * trees.
+     * @return the id of the root tree as stored, or null
+     * **/
+    public String storedTree() {
+        return _tree;
+    }
+
+    /** get this commit's files, by path.  Reads every tree of the commit
+     * the first time; prefer getTree() with Tree.lookup or Tree.diff.
      * @return HashMap
      * **/
     public HashMap<String, String> getFiles() {
-        return _files;
+        if (_files != null) {
+            return _files;
+        }
+        if (_tree == null) {
+            return null;
+        }
+        if (_flat == null) {
+            _flat = new HashMap<>();
+            Tree.flatten(_tree, "", _flat);
+        }
+        return _flat;
     }
 }
@@ -0,0 +1,177 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Reachability bitmaps for the branch tips, beside the commit graph.
+ *  The bitmap of a commit is the set of commit-graph positions of the
+ *  commits reachable from it, itself included, so "is A an ancestor of
+ *  B" is one lookup in B's bitmap and "which commits does any branch
+ *  reach" is the union of the tips' bitmaps.
+ *
+ *  .gitlet/commit-bitmaps holds a header, the size of the commit graph
+ *  when it was written, and then for each tip its binary id and its
+ *  bitmap (see Bitmap).  Bitmaps are made when asked for by update(),
+ *  which gets each tip's by walking the commit graph down from it only
+ *  until it meets commits whose bitmaps are already kept, usually the
+ *  tip the branch had before, and ORing those in, so keeping them up
+ *  to date costs about one step per new commit.  Commit-graph positions
+ *  change only when the graph is rebuilt, which deletes the file.
+ *  @author Matt Chorlian
+ */
+class CommitBitmaps {
+
+    /** The bitmap file. */
+    static final File BITMAPS = new File(".gitlet/commit-bitmaps");
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x474c424d;
+
+    /** Format version. */
+    private static final int VERSION = 1;
+
+    /** Size of the raw form of an id. */
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+
+    /** Returns the bitmaps of this repository. */
+    static CommitBitmaps get() {
+        if (_bitmaps == null) {
+            _bitmaps = new CommitBitmaps();
+        }
+        return _bitmaps;
+    }
+
+    /** Forgets the bitmaps read so far, so that get() reads them again. */
+    static void reset() {
+        _bitmaps = null;
+    }
+
+    /** Deletes the bitmap file, for when commit-graph positions
+     *  change. */
+    static void clear() {
+        BITMAPS.delete();
+        _bitmaps = null;
+    }
+
+    /** Bitmaps read from BITMAPS, unless it was written for a different
+     *  commit graph. */
+    private CommitBitmaps() {
+        if (!BITMAPS.exists()) {
+            return;
+        }
+        CommitGraph graph = CommitGraph.get();
+        try (DataInputStream in = new DataInputStream(
+                 new ByteArrayInputStream(Utils.readContents(BITMAPS)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                || in.readInt() > graph.size()) {
+                return;
+            }
+            byte[] id = new byte[ID_SIZE];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                in.readFully(id);
+                String sha = Utils.sha1Hex(id, 0);
+                Bitmap bitmap = Bitmap.read(in);
+                if (graph.contains(sha)
+                    && bitmap.contains(graph.position(sha))) {
+                    _kept.put(graph.position(sha), bitmap);
+                }
+            }
+        } catch (IOException excp) {
+            _kept.clear();
+        }
+    }
+
+    /** Returns the bitmap kept for the commit at commit-graph position
+     *  POS, or null if there is none.  It must not be modified. */
+    Bitmap kept(int pos) {
+        return _kept.get(pos);
+    }
+
+    /** Makes sure a bitmap is kept for each commit in TIPS, and for no
+     *  others, writing the file if that changes what it holds. */
+    void update(Collection<String> tips) {
+        CommitGraph graph = CommitGraph.get();
+        Set<Integer> positions = new LinkedHashSet<>();
+        for (String tip : tips) {
+            positions.add(graph.position(tip));
+        }
+        if (positions.equals(_kept.keySet())) {
+            return;
+        }
+        Map<Integer, Bitmap> fresh = new HashMap<>();
+        for (int pos : positions) {
+            fresh.put(pos, reachable(pos));
+        }
+        _kept.clear();
+        _kept.putAll(fresh);
+        write(graph);
+    }
+
+    /** Returns the positions of the commits reachable from the commit at
+     *  position POS, using the kept bitmaps of any commits met. */
+    Bitmap reachable(int pos) {
+        Bitmap kept = _kept.get(pos);
+        Bitmap result = new Bitmap();
+        if (kept != null) {
+            result.or(kept);
+            return result;
+        }
+        CommitGraph graph = CommitGraph.get();
+        List<Integer> stack = new ArrayList<>(List.of(pos));
+        while (!stack.isEmpty()) {
+            int c = stack.remove(stack.size() - 1);
+            if (result.contains(c)) {
+                continue;
+            }
+            kept = _kept.get(c);
+            if (kept != null) {
+                result.or(kept);
+                continue;
+            }
+            result.add(c);
+            for (int p : graph.parents(c)) {
+                stack.add(p);
+            }
+        }
+        return result;
+    }
+
+    /** Writes the kept bitmaps, for the commit graph GRAPH. */
+    private void write(CommitGraph graph) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(graph.size());
+            out.writeInt(_kept.size());
+            for (Map.Entry<Integer, Bitmap> e : _kept.entrySet()) {
+                out.write(Utils.sha1Bytes(graph.idAt(e.getKey())));
+                e.getValue().write(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File temp = Utils.tempFile(BITMAPS);
+        Utils.writeContents(temp, (Object) bytes.toByteArray());
+        if (!temp.renameTo(BITMAPS)) {
+            throw new IllegalArgumentException("cannot install " + BITMAPS);
+        }
+    }
+
+    /** Bitmaps kept, by commit-graph position. */
+    private final Map<Integer, Bitmap> _kept = new HashMap<>();
+
+    /** The bitmaps read so far, or null. */
+    private static CommitBitmaps _bitmaps;
+}
@@ -0,0 +1,63 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache of deserialized commits, shared by everything that
+ *  reads commits during a command, so that each commit is read and
+ *  deserialized at most once while it stays among the CAPACITY most
+ *  recently used.  Commits are treated as immutable once cached.
+ *  @author Matt Chorlian
+ */
+class CommitCache {
+
+    /** Default number of commits kept, which may be overridden by the
+     *  gitlet.commitCache system property. */
+    static final int DEFAULT_CAPACITY = 4096;
+
+    /** Returns the cache shared by this process. */
+    static CommitCache get() {
+        if (_cache == null) {
+            _cache = new CommitCache(Integer.getInteger("gitlet.commitCache",
+                                                        DEFAULT_CAPACITY));
+        }
+        return _cache;
+    }
+
+    /** A cache holding at most CAPACITY commits. */
+    CommitCache(int capacity) {
+        _capacity = Math.max(capacity, 1);
+        _commits = new LinkedHashMap<String, Commit>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,
+                                                Commit> eldest) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** Returns the cached commit SHA, or null.  Hits and misses are
+     *  counted by the caller's trace (see ObjectStore.readCommit). */
+    synchronized Commit lookup(String sha) {
+        return _commits.get(sha);
+    }
+
+    /** Caches commit C. */
+    synchronized void put(Commit c) {
+        _commits.put(c.getSha1(), c);
+    }
+
+    /** Forgets every commit. */
+    synchronized void clear() {
+        _commits.clear();
+    }
+
+    /** Largest number of commits kept. */
+    private final int _capacity;
+
+    /** Cached commits by id, least recently used first. */
+    private final LinkedHashMap<String, Commit> _commits;
+
+    /** The cache shared by this process, or null. */
+    private static CommitCache _cache;
+}
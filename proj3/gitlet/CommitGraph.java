@@ -0,0 +1,344 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/** The shape of the commit history, kept apart from the commits
+ *  themselves.  .gitlet/commit-graph holds a header followed by one
+ *  fixed-width record per commit, in the order the commits were added
+ *  (so every parent precedes its children): the commit's binary id, the
+ *  positions of its first and second parents (or -1), and its generation
+ *  number, which is one more than the largest generation of its parents.
+ *  Ancestry questions are answered from this table alone, and from the
+ *  reachability bitmaps of CommitBitmaps where it keeps them.
+ *  @author Matt Chorlian
+ */
+class CommitGraph {
+
+    /** The commit-graph file. */
+    static final File GRAPH = new File(".gitlet/commit-graph");
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x474c4347;
+
+    /** Format version. */
+    private static final int VERSION = 1;
+
+    /** Size of the raw form of an id. */
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+
+    /** Size of the header: magic, version. */
+    private static final int HEADER = 8;
+
+    /** Size of a record: id, two parents, generation. */
+    private static final int RECORD = ID_SIZE + 4 + 4 + 4;
+
+    /** Paint flag: reachable from the first commit. */
+    private static final int FROM_A = 1;
+
+    /** Paint flag: reachable from the second commit. */
+    private static final int FROM_B = 2;
+
+    /** Returns the commit graph of this repository. */
+    static CommitGraph get() {
+        if (_graph == null) {
+            _graph = new CommitGraph(GRAPH);
+        }
+        return _graph;
+    }
+
+    /** Forgets the graph read so far, so that get() reads it again. */
+    static void reset() {
+        _graph = null;
+    }
+
+    /** Rewrites the graph to hold exactly the commits in the store. */
+    static void rebuild() {
+        File temp = Utils.tempFile(GRAPH);
+        temp.delete();
+        CommitGraph graph = new CommitGraph(temp);
+        for (String id : ObjectStore.commitIds()) {
+            graph.position(id);
+        }
+        if (graph.size() == 0) {
+            GRAPH.delete();
+        } else if (!temp.renameTo(GRAPH)) {
+            throw new IllegalArgumentException("cannot install " + GRAPH);
+        }
+        _graph = null;
+        ChangedPaths.clear();
+        CommitBitmaps.clear();
+    }
+
+    /** A graph read from FILE, which need not exist yet.  A record torn
+     *  by a crash while it was appended is cut off, so that the next one
+     *  is written where it belongs. */
+    CommitGraph(File file) {
+        _file = file;
+        if (file.exists()) {
+            ByteBuffer table = ByteBuffer.wrap(Utils.readContents(file));
+            if (table.remaining() < HEADER) {
+                file.delete();
+                return;
+            }
+            if (table.getInt() != MAGIC || table.getInt() != VERSION) {
+                throw new IllegalArgumentException("bad commit-graph");
+            }
+            byte[] id = new byte[ID_SIZE];
+            while (table.remaining() >= RECORD) {
+                table.get(id);
+                append(Utils.sha1Hex(id, 0), table.getInt(), table.getInt(),
+                       table.getInt());
+            }
+            if (table.hasRemaining()) {
+                truncate(table.position());
+            }
+        }
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return _size;
+    }
+
+    /** Returns true iff the commit SHA is in the graph. */
+    boolean contains(String sha) {
+        return _positions.containsKey(sha);
+    }
+
+    /** Returns the id of the commit at position POS. */
+    String idAt(int pos) {
+        return _ids[pos];
+    }
+
+    /** Returns the generation number of the commit at position POS. */
+    int generation(int pos) {
+        return _generation[pos];
+    }
+
+    /** Returns the parent positions of the commit at POS, first parent
+     *  first. */
+    int[] parents(int pos) {
+        if (_parent1[pos] < 0) {
+            return new int[0];
+        } else if (_parent2[pos] < 0) {
+            return new int[] {_parent1[pos]};
+        }
+        return new int[] {_parent1[pos], _parent2[pos]};
+    }
+
+    /** Returns the position of the commit SHA, adding it (and any of its
+     *  ancestors that are missing) from the object store if needed. */
+    int position(String sha) {
+        Integer pos = _positions.get(sha);
+        if (pos != null) {
+            return pos;
+        }
+        Commit c = ObjectStore.readCommit(sha);
+        if (c == null) {
+            throw new IllegalArgumentException("missing commit " + sha);
+        }
+        return add(c);
+    }
+
+    /** Adds commit C to the graph, if it is not there already, and
+     *  returns its position. */
+    int add(Commit c) {
+        Integer pos = _positions.get(c.getSha1());
+        if (pos != null) {
+            return pos;
+        }
+        int p1 = -1, p2 = -1, gen = 1;
+        String[] parents = c.getParent();
+        if (parents != null && parents.length > 0 && parents[0] != null) {
+            p1 = position(parents[0]);
+            gen = _generation[p1] + 1;
+        }
+        if (parents != null && parents.length > 1 && parents[1] != null) {
+            p2 = position(parents[1]);
+            gen = Math.max(gen, _generation[p2] + 1);
+        }
+        int result = append(c.getSha1(), p1, p2, gen);
+        write(result);
+        return result;
+    }
+
+    /** Returns the id of the latest common ancestor of commits A and B,
+     *  or null if they have none.  Both parents of merge commits are
+     *  followed; commits are visited in decreasing generation, so the
+     *  first commit reached from both A and B is the answer.  If either
+     *  has a kept reachability bitmap, only the other's ancestors are
+     *  walked, to the first one in that bitmap. */
+    String mergeBase(String a, String b) {
+        int posA = position(a), posB = position(b);
+        Bitmap keptA = kept(posA), keptB = kept(posB);
+        if (keptA != null && keptA.contains(posB)) {
+            return b;
+        } else if (keptB != null && keptB.contains(posA)) {
+            return a;
+        } else if (keptA != null || keptB != null) {
+            Bitmap reach = keptA != null ? keptA : keptB;
+            int start = keptA != null ? posB : posA;
+            boolean[] seen = new boolean[_size];
+            PriorityQueue<Integer> queue = byGeneration();
+            queue.add(start);
+            seen[start] = true;
+            while (!queue.isEmpty()) {
+                int c = queue.poll();
+                if (reach.contains(c)) {
+                    return _ids[c];
+                }
+                for (int p : parents(c)) {
+                    if (!seen[p]) {
+                        seen[p] = true;
+                        queue.add(p);
+                    }
+                }
+            }
+            return null;
+        }
+        int[] flags = new int[_size];
+        PriorityQueue<Integer> queue = byGeneration();
+        flags[posA] |= FROM_A;
+        flags[posB] |= FROM_B;
+        queue.add(posA);
+        if (posB != posA) {
+            queue.add(posB);
+        }
+        while (!queue.isEmpty()) {
+            int c = queue.poll();
+            if (flags[c] == (FROM_A | FROM_B)) {
+                return _ids[c];
+            }
+            for (int p : parents(c)) {
+                if ((flags[p] & flags[c]) != flags[c]) {
+                    if (flags[p] == 0) {
+                        queue.add(p);
+                    }
+                    flags[p] |= flags[c];
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns true iff commit A is an ancestor of (or is) commit B.  No
+     *  commit with a smaller generation than A's is visited, nor any
+     *  ancestor of a commit with a kept reachability bitmap, which
+     *  answers for all of them. */
+    boolean isAncestor(String a, String b) {
+        int posA = position(a), posB = position(b);
+        int limit = _generation[posA];
+        boolean[] seen = new boolean[_size];
+        PriorityQueue<Integer> queue = byGeneration();
+        queue.add(posB);
+        seen[posB] = true;
+        while (!queue.isEmpty()) {
+            int c = queue.poll();
+            Bitmap kept = kept(c);
+            if (c == posA || kept != null && kept.contains(posA)) {
+                return true;
+            } else if (kept != null) {
+                continue;
+            }
+            for (int p : parents(c)) {
+                if (!seen[p] && _generation[p] >= limit) {
+                    seen[p] = true;
+                    queue.add(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the reachability bitmap kept for the commit at POS, or
+     *  null if there is none (or this is not the repository's graph). */
+    private Bitmap kept(int pos) {
+        return this == _graph ? CommitBitmaps.get().kept(pos) : null;
+    }
+
+    /** Returns an empty queue of positions, highest generation first. */
+    private PriorityQueue<Integer> byGeneration() {
+        return new PriorityQueue<>((x, y) ->
+            Integer.compare(_generation[y], _generation[x]));
+    }
+
+    /** Adds a record for commit SHA with parent positions P1 and P2 and
+     *  generation GEN to the in-memory table, returning its position. */
+    private int append(String sha, int p1, int p2, int gen) {
+        if (_size == _ids.length) {
+            int n = Math.max(16, 2 * _size);
+            _ids = Arrays.copyOf(_ids, n);
+            _parent1 = Arrays.copyOf(_parent1, n);
+            _parent2 = Arrays.copyOf(_parent2, n);
+            _generation = Arrays.copyOf(_generation, n);
+        }
+        _ids[_size] = sha;
+        _parent1[_size] = p1;
+        _parent2[_size] = p2;
+        _generation[_size] = gen;
+        _positions.put(sha, _size);
+        _size += 1;
+        return _size - 1;
+    }
+
+    /** Appends the record at position POS to the file. */
+    private void write(int pos) {
+        boolean fresh = !_file.exists();
+        try (DataOutputStream out = new DataOutputStream(
+                 new FileOutputStream(_file, true))) {
+            if (fresh) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            out.write(Utils.sha1Bytes(_ids[pos]));
+            out.writeInt(_parent1[pos]);
+            out.writeInt(_parent2[pos]);
+            out.writeInt(_generation[pos]);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.written(_file);
+    }
+
+    /** Cuts the file down to its first SIZE bytes. */
+    private void truncate(long size) {
+        try (RandomAccessFile f = new RandomAccessFile(_file, "rw")) {
+            f.setLength(size);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.written(_file);
+    }
+
+    /** The commit-graph file. */
+    private final File _file;
+
+    /** Number of commits in the table. */
+    private int _size;
+
+    /** Commit ids, by position. */
+    private String[] _ids = new String[0];
+
+    /** First-parent positions, by position. */
+    private int[] _parent1 = new int[0];
+
+    /** Second-parent positions, by position. */
+    private int[] _parent2 = new int[0];
+
+    /** Generation numbers, by position. */
+    private int[] _generation = new int[0];
+
+    /** Positions, by commit id. */
+    private final HashMap<String, Integer> _positions = new HashMap<>();
+
+    /** The graph read so far, or null. */
+    private static CommitGraph _graph;
+}
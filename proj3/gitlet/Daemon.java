@@ -0,0 +1,298 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/** A long-running server that runs gitlet commands for one repository,
+ *  keeping the repository state, the commit cache, the indexes and the
+ *  stat cache in memory between commands.  It listens on the Unix-domain
+ *  socket .gitlet/daemon.sock, and while it is up, Main hands every
+ *  command to it instead of running it itself.
+ *
+ *  A request is the client's working directory followed by the command's
+ *  arguments (an int count, then each as UTF).  The reply is a status
+ *  (OK, or NOT_SERVED if the client should run the command itself),
+ *  then the command's output as an int length and that many bytes.
+ *
+ *  Commands run one at a time, and each is written through to disk,
+ *  exactly as Main would write it, before its reply is sent, so a crash
+ *  of the daemon loses no command that a client saw finish.
+ *
+ *  Other processes may write to the repository while the daemon is up:
+ *  commands run with --trace, imports, pushes into it and fetches by
+ *  it, or any other JVM.  Those that can tell it to reload, but so that
+ *  it never writes back state that is out of date, the daemon also
+ *  notes the size and modification time of the files that every change
+ *  rewrites (the state journal, the pack directory, the indexes) after
+ *  each command, and discards what it holds if any differ before the
+ *  next.
+ *  @author Matt Chorlian
+ */
+class Daemon {
+
+    /** The socket the daemon listens on. */
+    static final File SOCKET = new File(".gitlet/daemon.sock");
+
+    /** Reply status: the command ran. */
+    static final int OK = 0;
+
+    /** Reply status: the daemon did not run the command. */
+    static final int NOT_SERVED = 1;
+
+    /** Files one of which any change to the repository rewrites. */
+    private static final File[] WATCHED = {
+        new File(RepoState.DIR, Journal.NAME), ObjectStore.PACKS,
+        ObjectIndex.LOG, CommitGraph.GRAPH, MessageIndex.MESSAGES,
+        MessageIndex.TERMS, StatCache.INDEX, ObjectStore.FAN_OUT
+    };
+
+    /** Serves commands until told to stop.  ARGS are the operands of the
+     *  daemon command: none to serve, "stop" to stop a running daemon,
+     *  or "reload" to have it reread the repository (which, if there is
+     *  a daemon, Main has already forwarded). */
+    static void main(String... args) {
+        if (args.length > 0) {
+            if (args[0].equals("reload")) {
+                return;
+            } else if (args[0].equals("stop")) {
+                Utils.message("No daemon is running.");
+            } else {
+                Utils.message("Incorrect operands.");
+            }
+            throw new GitletException();
+        }
+        new Daemon().serve();
+    }
+
+    /** Runs the command ARGS in a running daemon and prints its output,
+     *  returning false if there is no daemon to run it. */
+    static boolean forward(String... args) {
+        byte[] output = send(args);
+        if (output == null) {
+            return false;
+        }
+        System.out.write(output, 0, output.length);
+        System.out.flush();
+        return true;
+    }
+
+    /** Tells a running daemon, if there is one, to discard what it holds
+     *  in memory, because another process has changed the repository. */
+    static void reload() {
+        send("daemon", "reload");
+    }
+
+    /** Runs the command ARGS in a running daemon, returning its output,
+     *  or null if there is no daemon to run it. */
+    private static byte[] send(String... args) {
+        if (!SOCKET.exists()) {
+            return null;
+        }
+        UnixDomainSocketAddress address =
+            UnixDomainSocketAddress.of(SOCKET.toPath());
+        try (SocketChannel channel =
+                 SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(address);
+            DataOutputStream out =
+                new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeUTF(new File("").getAbsolutePath());
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            DataInputStream in =
+                new DataInputStream(Channels.newInputStream(channel));
+            if (in.readInt() != OK) {
+                return null;
+            }
+            byte[] output = new byte[in.readInt()];
+            in.readFully(output);
+            return output;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Returns true iff a daemon is listening on SOCKET. */
+    private static boolean running() {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        try (SocketChannel channel =
+                 SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Accepts and runs commands until a "daemon stop" arrives. */
+    private void serve() {
+        _dir = new File("").getAbsolutePath();
+        if (running()) {
+            Utils.message("A daemon is already running.");
+            throw new GitletException();
+        }
+        SOCKET.delete();
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            SOCKET.deleteOnExit();
+            while (!_stopping) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            try {
+                Files.deleteIfExists(SOCKET.toPath());
+            } catch (IOException excp) {
+                SOCKET.delete();
+            }
+        }
+    }
+
+    /** Reads one request from CLIENT, runs it and sends the reply. */
+    private void handle(SocketChannel client) throws IOException {
+        DataInputStream in =
+            new DataInputStream(Channels.newInputStream(client));
+        String dir = in.readUTF();
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream out =
+            new DataOutputStream(Channels.newOutputStream(client));
+        if (!dir.equals(_dir) || args.length > 0 && args[0].equals("init")) {
+            out.writeInt(NOT_SERVED);
+            out.flush();
+            return;
+        }
+        byte[] output = run(args);
+        out.writeInt(OK);
+        out.writeInt(output.length);
+        out.write(output);
+        out.flush();
+    }
+
+    /** Runs the command ARGS, returning what it printed. */
+    private byte[] run(String... args) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(output, true));
+        Trace.begin();
+        boolean ok = false;
+        try {
+            if (args.length == 0) {
+                Utils.message("Please enter a command.");
+                throw new GitletException();
+            }
+            if (args[0].equals("daemon")) {
+                control(args);
+            } else {
+                if (!stamp().equals(_stamp)) {
+                    forget();
+                }
+                _served += 1;
+                Main.execute(_git, args);
+                _git.save();
+                StatCache.flush();
+            }
+            ok = true;
+        } catch (GitletException excp) {
+            _git = new Gitlet();
+        } catch (RuntimeException excp) {
+            System.out.println("Daemon error: " + excp);
+            forget();
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+            _stamp = stamp();
+        }
+        Trace.finish(args, ok);
+        return output.toByteArray();
+    }
+
+    /** Runs the daemon command ARGS sent by a client. */
+    private void control(String... args) {
+        if (args.length == 2 && args[1].equals("stop")) {
+            _stopping = true;
+            System.out.printf("Daemon stopped after %d commands.%n",
+                              _served);
+        } else if (args.length == 2 && args[1].equals("reload")) {
+            forget();
+        } else if (args.length == 1) {
+            Utils.message("A daemon is already running.");
+            throw new GitletException();
+        } else {
+            Utils.message("Incorrect operands.");
+            throw new GitletException();
+        }
+    }
+
+    /** Returns the sizes and modification times of the WATCHED files. */
+    private static String stamp() {
+        StringBuilder result = new StringBuilder();
+        for (File f : WATCHED) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(
+                    f.toPath(), BasicFileAttributes.class);
+                result.append(attrs.size()).append('@')
+                    .append(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+            } catch (IOException excp) {
+                result.append('-');
+            }
+            result.append(' ');
+        }
+        return result.toString();
+    }
+
+    /** Discards everything held in memory, so that the next command reads
+     *  the repository afresh. */
+    private void forget() {
+        _git = new Gitlet();
+        CommitCache.get().clear();
+        Tree.clearCache();
+        CommitGraph.reset();
+        CommitBitmaps.reset();
+        ChangedPaths.reset();
+        ObjectIndex.reset();
+        MessageIndex.reset();
+        ObjectStore.resetPacks();
+        ObjectStore.resetLayout();
+        StatCache.reset();
+    }
+
+    /** The repository, kept between commands. */
+    private Gitlet _git = new Gitlet();
+
+    /** The absolute path of the repository's working directory. */
+    private String _dir;
+
+    /** The stamp() of the repository after the last command, or null. */
+    private String _stamp;
+
+    /** Number of commands run. */
+    private int _served;
+
+    /** True once a client has asked the daemon to stop. */
+    private boolean _stopping;
+}
@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/** Copy/insert delta encoding of one byte array against another, used to
+ *  store successive versions of a file compactly in a pack.
+ *  A delta starts with the lengths of the base and the result, followed by
+ *  instructions that either copy a range of the base or insert literal
+ *  bytes.
+ *  @author Matt Chorlian
+ */
+class Delta {
+
+    /** Size of the blocks of the base that are indexed for matching. */
+    static final int BLOCK = 16;
+
+    /** Largest number of literal bytes carried by one insert op. */
+    private static final int MAX_INSERT = 0x7f;
+
+    /** Flag bit marking a copy op. */
+    private static final int COPY = 0x80;
+
+    /** Multiplier of the rolling block hash. */
+    private static final int BASE = 31;
+
+    /** Returns a delta that turns BASE into TARGET, or null if BASE is too
+     *  small to be worth matching against. */
+    static byte[] create(byte[] base, byte[] target) {
+        if (base.length < BLOCK || target.length < BLOCK) {
+            return null;
+        }
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int drop = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            drop *= BASE;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        int i = 0;
+        int h = hash(target, 0);
+        while (i < target.length) {
+            Integer match = i + BLOCK <= target.length ? blocks.get(h) : null;
+            int len = match == null ? 0 : matchLength(base, match, target, i);
+            if (len >= BLOCK) {
+                flushInsert(out, pending);
+                out.write(COPY);
+                writeVarint(out, match);
+                writeVarint(out, len);
+                i += len;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                pending.write(target[i]);
+                if (i + BLOCK < target.length) {
+                    h = (h - (target[i] & 0xff) * drop) * BASE
+                        + (target[i + BLOCK] & 0xff);
+                }
+                i += 1;
+            }
+        }
+        flushInsert(out, pending);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = new int[] {0};
+        int baseLen = readVarint(delta, pos);
+        if (baseLen != base.length) {
+            throw new IllegalArgumentException("delta base length mismatch");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int n = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]] & 0xff;
+            pos[0] += 1;
+            if ((op & COPY) != 0) {
+                int offset = readVarint(delta, pos);
+                int len = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, n, len);
+                n += len;
+            } else {
+                System.arraycopy(delta, pos[0], result, n, op);
+                pos[0] += op;
+                n += op;
+            }
+        }
+        if (n != result.length) {
+            throw new IllegalArgumentException("corrupt delta");
+        }
+        return result;
+    }
+
+    /** Returns the hash of the BLOCK bytes of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK && i < data.length; i += 1) {
+            h = h * BASE + (data[i] & 0xff);
+        }
+        return h;
+    }
+
+    /** Returns how many bytes of BASE starting at B match those of TARGET
+     *  starting at T. */
+    private static int matchLength(byte[] base, int b, byte[] target, int t) {
+        int len = 0;
+        while (b + len < base.length && t + len < target.length
+               && base[b + len] == target[t + len]) {
+            len += 1;
+        }
+        return len;
+    }
+
+    /** Writes the bytes in PENDING to OUT as insert ops and clears it. */
+    private static void flushInsert(ByteArrayOutputStream out,
+                                    ByteArrayOutputStream pending) {
+        byte[] bytes = pending.toByteArray();
+        for (int i = 0; i < bytes.length; i += MAX_INSERT) {
+            int len = Math.min(MAX_INSERT, bytes.length - i);
+            out.write(len);
+            out.write(bytes, i, len);
+        }
+        pending.reset();
+    }
+
+    /** Writes the non-negative VALUE to OUT, seven bits at a time. */
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while (value >= COPY) {
+            out.write((value & MAX_INSERT) | COPY);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Reads a value written by writeVarint from DATA at POS[0], advancing
+     *  POS[0] past it. */
+    static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            value |= (b & MAX_INSERT) << shift;
+            if ((b & COPY) == 0) {
+                return value;
+            }
+        }
+    }
+}
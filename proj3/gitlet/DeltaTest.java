@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of the Delta encoding and of the packs that store deltas.
+ *  @author Matt Chorlian
+ */
+public class DeltaTest {
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Returns N random bytes, from a generator seeded with SEED. */
+    private static byte[] randomBytes(int n, long seed) {
+        byte[] result = new byte[n];
+        new Random(seed).nextBytes(result);
+        return result;
+    }
+
+    /** Returns the concatenation of PARTS. */
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    /** Checks that the delta from BASE to TARGET rebuilds TARGET, and
+     *  returns it. */
+    private static byte[] checkRoundTrip(byte[] base, byte[] target) {
+        byte[] delta = Delta.create(base, target);
+        assertNotNull(delta);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        return delta;
+    }
+
+    /** Returns an empty directory for a pack. */
+    private static File tempDir() throws IOException {
+        return Files.createTempDirectory("gitlet-pack").toFile();
+    }
+
+    /** Deletes DIR and the files in it. */
+    private static void deleteDir(File dir) {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void identicalTest() {
+        byte[] base = randomBytes(4096, 1);
+        byte[] delta = checkRoundTrip(base, base.clone());
+        assertTrue(delta.length < 16);
+    }
+
+    @Test
+    public void editsTest() {
+        byte[] base = randomBytes(8192, 2);
+        byte[] head = Arrays.copyOfRange(base, 0, 3000);
+        byte[] tail = Arrays.copyOfRange(base, 3000, base.length);
+        byte[] insert = randomBytes(500, 3);
+        byte[] delta = checkRoundTrip(base, concat(head, insert, tail));
+        assertTrue(delta.length < 700);
+        checkRoundTrip(base, concat(head, Arrays.copyOfRange(base, 3100,
+                                                             base.length)));
+        checkRoundTrip(base, concat(base, insert));
+        checkRoundTrip(base, concat(insert, base));
+        checkRoundTrip(base, concat(tail, head));
+    }
+
+    @Test
+    public void unrelatedTest() {
+        byte[] base = randomBytes(1000, 4);
+        byte[] target = randomBytes(1000, 5);
+        checkRoundTrip(base, target);
+        checkRoundTrip(base, Arrays.copyOf(target, Delta.BLOCK));
+    }
+
+    @Test
+    public void tooSmallTest() {
+        byte[] small = randomBytes(Delta.BLOCK - 1, 6);
+        byte[] large = randomBytes(100, 7);
+        assertNull(Delta.create(small, large));
+        assertNull(Delta.create(large, small));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongBaseTest() {
+        byte[] base = randomBytes(100, 8);
+        byte[] delta = Delta.create(base, randomBytes(100, 9));
+        Delta.apply(Arrays.copyOf(base, 99), delta);
+    }
+
+    @Test
+    public void varintTest() {
+        int[] values = { 0, 1, 0x7f, 0x80, 0x3fff, 0x4000, Integer.MAX_VALUE };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int v : values) {
+            Delta.writeVarint(out, v);
+        }
+        byte[] data = out.toByteArray();
+        int[] pos = new int[] {0};
+        for (int v : values) {
+            assertEquals(v, Delta.readVarint(data, pos));
+        }
+        assertEquals(data.length, pos[0]);
+    }
+
+    @Test
+    public void packRoundTripTest() throws IOException {
+        File dir = tempDir();
+        try {
+            byte[] v1 = randomBytes(10000, 10);
+            byte[] v2 = concat(v1, "one more line\n".getBytes());
+            byte[] v3 = concat(Arrays.copyOf(v1, 5000), v2);
+            byte[] tree = "f.txt\n".getBytes();
+            String s1 = Utils.sha1(v1), s2 = Utils.sha1(v2),
+                s3 = Utils.sha1(v3), s4 = Utils.sha1(tree);
+            PackFile.Writer writer = new PackFile.Writer(dir);
+            writer.add(s1, PackFile.BLOB, v1, null, null);
+            writer.add(s2, PackFile.BLOB, v2, s1, v1);
+            writer.add(s3, PackFile.BLOB, v3, s2, v2);
+            writer.add(s4, PackFile.TREE, tree, null, null);
+            writer.add(s1, PackFile.BLOB, v1, null, null);
+            assertEquals(4, writer.size());
+            PackFile pack = writer.finish();
+            assertEquals(4, pack.size());
+            assertTrue(pack.packFile().length() < 2 * v1.length);
+            assertArrayEquals(v1, pack.read(s1));
+            assertArrayEquals(v2, pack.read(s2));
+            assertArrayEquals(v3, pack.read(s3));
+            assertArrayEquals(tree, pack.read(s4));
+            assertEquals(PackFile.BLOB, pack.typeOf(s3));
+            assertEquals(PackFile.TREE, pack.typeOf(s4));
+            String missing = Utils.sha1("missing");
+            assertFalse(pack.contains(missing));
+            assertNull(pack.read(missing));
+            assertEquals(0, pack.typeOf(missing));
+            assertEquals(3, pack.ids(PackFile.BLOB).size());
+            assertEquals(Arrays.asList(s4), pack.ids(PackFile.TREE));
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void emptyPackTest() throws IOException {
+        File dir = tempDir();
+        try {
+            assertNull(new PackFile.Writer(dir).finish());
+            assertEquals(0, dir.list().length);
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/** A dump of history as a stream in the format Importer reads, so that
+ *  importing it into an empty repository gives back the same commits,
+ *  ids and all.  Commits are found through the commit graph, without
+ *  being read, and written in order of generation, so each comes after
+ *  its parents.  Each goes on the first branch, by name, that reaches
+ *  it, preceded by the blobs it is the first to use, and with only its
+ *  changes against its first parent; then each branch is pointed at
+ *  its commit.
+ *
+ *  The time of a commit goes on its committer line, as git expects,
+ *  and on a date line too when the committer line would not give back
+ *  exactly the same timestamp.  Commits with the initial commit as
+ *  their parent start from an empty branch, which git and Importer both
+ *  read as a commit on top of nothing.
+ *
+ *  Blob contents are copied from the object store to the stream as they
+ *  are written; what is kept is a mark number per object written.
+ *  @author Matt Chorlian
+ */
+class Exporter {
+
+    /** Committer written on every commit, which gitlet does not record. */
+    static final String COMMITTER = "gitlet <gitlet>";
+
+    /** Mode written for every file. */
+    static final String MODE = "100644";
+
+    /** An exporter of the branches BRANCHES, whose initial commit is
+     *  INITIAL. */
+    Exporter(Map<String, String> branches, String initial) {
+        _branches = new TreeMap<>(branches);
+        _initial = initial;
+    }
+
+    /** Writes the stream to OUT. */
+    void run(OutputStream out) {
+        _out = out;
+        CommitGraph graph = CommitGraph.get();
+        Map<String, Integer> tips = new TreeMap<>();
+        for (Map.Entry<String, String> e : _branches.entrySet()) {
+            tips.put(e.getKey(), graph.position(e.getValue()));
+        }
+        String[] owners = new String[graph.size()];
+        List<Integer> order = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : tips.entrySet()) {
+            List<Integer> stack = new ArrayList<>(List.of(e.getValue()));
+            while (!stack.isEmpty()) {
+                int pos = stack.remove(stack.size() - 1);
+                if (owners[pos] == null) {
+                    owners[pos] = e.getKey();
+                    order.add(pos);
+                    for (int parent : graph.parents(pos)) {
+                        stack.add(parent);
+                    }
+                }
+            }
+        }
+        order.sort(Comparator.comparingInt(graph::generation)
+                   .thenComparingInt(pos -> pos));
+        try {
+            for (int pos : order) {
+                String id = graph.idAt(pos);
+                if (!id.equals(_initial)) {
+                    commit(ObjectStore.readCommit(id), owners[pos]);
+                }
+            }
+            for (Map.Entry<String, String> e : _branches.entrySet()) {
+                write("reset " + Importer.HEADS + e.getKey() + "\n"
+                      + "from " + ref(e.getValue()) + "\n\n");
+            }
+            write("done\n");
+            _out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes C, on BRANCH, and the blobs it is the first to use. */
+    private void commit(Commit c, String branch) throws IOException {
+        String[] parents = c.getParent();
+        String first = parents == null ? _initial : parents[0];
+        Map<String, String> changes = new TreeMap<>();
+        Tree.diff(ObjectStore.readCommit(first).getTree(), c.getTree(), "",
+                  changes);
+        for (String blob : changes.values()) {
+            if (blob != null && !_marks.containsKey(blob)) {
+                int mark = mark(blob);
+                write("blob\nmark :" + mark + "\n");
+                ObjectStore.copyBlob(blob, _out, n -> bytes("data " + n
+                                                            + "\n"));
+                write("\n");
+            }
+        }
+        if (first.equals(_initial)) {
+            write("reset " + Importer.HEADS + branch + "\n");
+        }
+        write("commit " + Importer.HEADS + branch + "\n");
+        write("mark :" + mark(c.getSha1()) + "\n");
+        committer(c.getTime());
+        byte[] message = bytes(c.getMessage() + "\n");
+        write("data " + message.length + "\n");
+        _out.write(message);
+        if (!first.equals(_initial)) {
+            write("from " + ref(first) + "\n");
+        }
+        for (int i = 1; parents != null && i < parents.length; i += 1) {
+            if (parents[i] != null) {
+                write("merge " + ref(parents[i]) + "\n");
+            }
+        }
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            if (e.getValue() == null) {
+                write("D " + quote(e.getKey()) + "\n");
+            } else {
+                write("M " + MODE + " " + ref(e.getValue()) + " "
+                      + quote(e.getKey()) + "\n");
+            }
+        }
+        write("\n");
+    }
+
+    /** Writes the committer line for a commit made at TIMESTAMP, and a
+     *  date line if that does not say exactly when. */
+    private void committer(String timestamp) throws IOException {
+        long seconds = Commit.seconds(timestamp);
+        String zone = timestamp.substring(timestamp.lastIndexOf(' ') + 1);
+        if (seconds < 0 || !zone.matches("[+-]\\d{4}")) {
+            write("committer " + COMMITTER + " 0 +0000\n");
+            write("date " + timestamp + "\n");
+            return;
+        }
+        write("committer " + COMMITTER + " " + seconds + " " + zone + "\n");
+        String gmt = "GMT" + zone.substring(0, 3) + ":" + zone.substring(3);
+        if (!Commit.time(seconds, TimeZone.getTimeZone(gmt))
+            .equals(timestamp)) {
+            write("date " + timestamp + "\n");
+        }
+    }
+
+    /** Returns how the stream refers to the object ID: by its mark, or
+     *  by its id if it was not written (as for the initial commit). */
+    private String ref(String id) {
+        Integer mark = _marks.get(id);
+        return mark == null ? id : ":" + mark;
+    }
+
+    /** Gives the object ID the next mark, and returns it. */
+    private int mark(String id) {
+        int mark = _marks.size() + 1;
+        _marks.put(id, mark);
+        return mark;
+    }
+
+    /** Returns PATH quoted as git quotes paths that could not otherwise
+     *  be read back, or PATH itself if it needs no quoting. */
+    static String quote(String path) {
+        if (!path.startsWith("\"") && path.indexOf('\n') < 0) {
+            return path;
+        }
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : path.toCharArray()) {
+            switch (c) {
+            case '\n':
+                result.append("\\n");
+                break;
+            case '"':
+            case '\\':
+                result.append('\\').append(c);
+                break;
+            default:
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /** Writes TEXT to the stream. */
+    private void write(String text) throws IOException {
+        _out.write(bytes(text));
+    }
+
+    /** Returns TEXT in UTF-8. */
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The branches, by name. */
+    private final TreeMap<String, String> _branches;
+
+    /** The id of the initial commit. */
+    private final String _initial;
+
+    /** Marks of the objects written so far, by id. */
+    private final Map<String, Integer> _marks = new HashMap<>();
+
+    /** The stream being written. */
+    private OutputStream _out;
+}
@@ -0,0 +1,66 @@
+package gitlet;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Hashes many working files at once, splitting the work across a
+ *  fork-join pool.  Hashes go through the stat cache, so unchanged files
+ *  are not read at all.
+ *  @author Matt Chorlian
+ */
+class FileHasher extends RecursiveAction {
+
+    /** Tasks are never serialized; fixed to keep the compiler quiet. */
+    private static final long serialVersionUID = 1L;
+
+    /** Largest number of files hashed by one task without splitting. */
+    private static final int LEAF_SIZE = 16;
+
+    /** Returns the SHA-1s of the contents of the working files NAMES, in
+     *  the same order. */
+    static String[] hashAll(List<String> names) {
+        String[] result = new String[names.size()];
+        StatCache.get();
+        ForkJoinPool pool = new ForkJoinPool(Materializer.workers());
+        try {
+            pool.invoke(new FileHasher(names, result, 0, names.size()));
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /** A task hashing NAMES[LO .. HI-1] into RESULT. */
+    private FileHasher(List<String> names, String[] result, int lo, int hi) {
+        _names = names;
+        _result = result;
+        _lo = lo;
+        _hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+        if (_hi - _lo <= LEAF_SIZE) {
+            for (int i = _lo; i < _hi; i += 1) {
+                _result[i] = StatCache.get().hash(_names.get(i));
+            }
+        } else {
+            int mid = (_lo + _hi) >>> 1;
+            invokeAll(new FileHasher(_names, _result, _lo, mid),
+                      new FileHasher(_names, _result, mid, _hi));
+        }
+    }
+
+    /** The names of all files being hashed. */
+    private final List<String> _names;
+
+    /** Where hashes are stored, in the order of _names. */
+    private final String[] _result;
+
+    /** First index hashed by this task. */
+    private final int _lo;
+
+    /** One past the last index hashed by this task. */
+    private final int _hi;
+}
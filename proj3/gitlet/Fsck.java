@@ -0,0 +1,282 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A check of every stored object: each loose, packed or chunked object
+ *  is read back and rehashed, and the id it hashes to compared with the
+ *  one it is stored under; each commit's parents and tree, and each
+ *  tree's subtrees and blobs, must be stored with the right type; and
+ *  so must every commit a branch names and every blob staged.
+ *
+ *  The objects are listed first, which costs only directory listings
+ *  and pack indexes, and then checked on a fork-join pool, the list
+ *  being split in halves until the pieces are small, so that the
+ *  rehashing, which is most of the work, uses every core.  Blobs stored
+ *  as chunks are hashed whole, a chunk at a time, which checks each
+ *  chunk they use.
+ *  @author Matt Chorlian
+ */
+class Fsck {
+
+    /** Fewest objects checked by one task without splitting it. */
+    private static final int SPLIT_THRESHOLD = 64;
+
+    /** Bytes in a megabyte, for reporting throughput. */
+    private static final double MEGABYTE = 1 << 20;
+
+    /** Nanoseconds in a second. */
+    private static final double NANOS = 1e9;
+
+    /** A check of the objects of a repository whose branches are
+     *  BRANCHES and whose staged files are STAGE. */
+    Fsck(Map<String, String> branches, Map<String, String> stage) {
+        _branches = branches;
+        _stage = stage;
+    }
+
+    /** Checks everything, printing each problem found and then a
+     *  summary, and returns the number of problems. */
+    int run() {
+        long start = System.nanoTime();
+        List<Runnable> checks = new ArrayList<>();
+        list(checks);
+        int workers = Materializer.workers();
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            pool.invoke(new Checks(checks, 0, checks.size()));
+        } finally {
+            pool.shutdown();
+        }
+        for (Map.Entry<String, String> e : _branches.entrySet()) {
+            refer(e.getValue(), PackFile.COMMIT, "branch " + e.getKey());
+        }
+        for (Map.Entry<String, String> e : _stage.entrySet()) {
+            refer(e.getValue(), PackFile.BLOB, "staged " + e.getKey());
+        }
+        List<String> problems = new ArrayList<>(_problems);
+        problems.sort(null);
+        for (String problem : problems) {
+            System.out.println(problem);
+        }
+        double seconds = (System.nanoTime() - start) / NANOS;
+        double megabytes = _bytes.sum() / MEGABYTE;
+        System.out.printf("Checked %d commits, %d trees and %d blobs "
+                          + "(%.1f MB) in %.2f s: %.1f MB/s on %d "
+                          + "threads.%n",
+                          _ids.get(PackFile.COMMIT).size(),
+                          _ids.get(PackFile.TREE).size(),
+                          _ids.get(PackFile.BLOB).size(), megabytes,
+                          seconds, megabytes / Math.max(seconds, 1e-3),
+                          workers);
+        return problems.size();
+    }
+
+    /** Adds to CHECKS a check of each stored object, noting its id. */
+    private void list(List<Runnable> checks) {
+        loose(checks, ObjectStore.COMMITS, PackFile.COMMIT);
+        loose(checks, ObjectStore.TREES, PackFile.TREE);
+        loose(checks, ObjectStore.BLOBS, PackFile.BLOB);
+        loose(checks, ObjectStore.STAGE, PackFile.BLOB);
+        for (String id : ObjectStore.looseIds(ChunkStore.LISTS)) {
+            if (_ids.get(PackFile.BLOB).add(id)) {
+                checks.add(guard(PackFile.BLOB, id, () -> chunked(id)));
+            }
+        }
+        for (PackFile pack : ObjectStore.packs()) {
+            for (int type : TYPES) {
+                for (String id : pack.ids(type)) {
+                    if (_ids.get(type).add(id)) {
+                        checks.add(guard(type, id, () ->
+                            verify(id, type, pack.read(id))));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Adds to CHECKS a check of each loose object of type TYPE in
+     *  DIR. */
+    private void loose(List<Runnable> checks, File dir, int type) {
+        for (String id : ObjectStore.looseIds(dir)) {
+            if (_ids.get(type).add(id)) {
+                File f = ObjectStore.looseFile(dir, id);
+                checks.add(guard(type, id, () -> {
+                    if (type == PackFile.BLOB) {
+                        _bytes.add(f.length());
+                        expect(id, Utils.sha1File(f), type);
+                    } else {
+                        verify(id, type, Utils.readContents(f));
+                    }
+                }));
+            }
+        }
+    }
+
+    /** Returns CHECK, of the object ID of type TYPE, recording instead
+     *  of throwing any failure to read the object. */
+    private Runnable guard(int type, String id, Runnable check) {
+        return () -> {
+            try {
+                check.run();
+            } catch (RuntimeException excp) {
+                _problems.add(name(type) + " " + id + " is unreadable ("
+                              + excp.getMessage() + ")");
+            }
+        };
+    }
+
+    /** Checks the blob ID, stored as chunks, by hashing them in order. */
+    private void chunked(String id) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("SHA-1 is not supported");
+        }
+        try (OutputStream out = new DigestOutputStream(
+                 OutputStream.nullOutputStream(), md)) {
+            ChunkStore.copy(id, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("missing chunk: "
+                                               + excp.getMessage());
+        }
+        _bytes.add(ChunkStore.length(id));
+        expect(id, Utils.sha1Hex(md.digest(), 0), PackFile.BLOB);
+    }
+
+    /** Checks that DATA is the object ID of type TYPE, and that the
+     *  objects it names exist. */
+    private void verify(String id, int type, byte[] data) {
+        _bytes.add(data.length);
+        if (type == PackFile.BLOB) {
+            expect(id, Utils.sha1((Object) data), type);
+        } else if (type == PackFile.TREE) {
+            if (expect(id, Utils.sha1((Object) data), type)) {
+                for (Map.Entry<String, String> e
+                         : Tree.parse(data).entrySet()) {
+                    refer(e.getValue(), e.getKey().endsWith(Tree.SEPARATOR)
+                          ? PackFile.TREE : PackFile.BLOB, "tree " + id);
+                }
+            }
+        } else {
+            Commit c = Utils.deserialize(data, Commit.class);
+            if (!expect(id, c.hashCommit(), type)) {
+                return;
+            }
+            for (String parent : c.getParent() == null ? new String[0]
+                     : c.getParent()) {
+                refer(parent, PackFile.COMMIT, "commit " + id);
+            }
+            if (c.storedTree() != null) {
+                refer(c.storedTree(), PackFile.TREE, "commit " + id);
+            } else if (c.getFiles() != null) {
+                for (String blob : c.getFiles().values()) {
+                    refer(blob, PackFile.BLOB, "commit " + id);
+                }
+            }
+        }
+    }
+
+    /** Returns true iff ACTUAL, the hash of the object ID of type TYPE,
+     *  is ID, and otherwise records that it is corrupt. */
+    private boolean expect(String id, String actual, int type) {
+        if (id.equals(actual)) {
+            return true;
+        }
+        _problems.add(name(type) + " " + id + " is corrupt (hashes to "
+                      + actual + ")");
+        return false;
+    }
+
+    /** Records a problem if the object ID, of type TYPE, named by WHERE,
+     *  is not stored. */
+    private void refer(String id, int type, String where) {
+        if (id != null && !_ids.get(type).contains(id)) {
+            _problems.add(name(type) + " " + id + " is missing (named by "
+                          + where + ")");
+        }
+    }
+
+    /** Returns the name of the object type TYPE. */
+    private static String name(int type) {
+        switch (type) {
+        case PackFile.COMMIT:
+            return "commit";
+        case PackFile.TREE:
+            return "tree";
+        default:
+            return "blob";
+        }
+    }
+
+    /** The checks in [_from, _to) of a list, splitting themselves. */
+    private static class Checks extends RecursiveAction {
+
+        /** Tasks are never serialized; fixed to keep the compiler
+         *  quiet. */
+        private static final long serialVersionUID = 1L;
+
+        /** The checks in [FROM, TO) of CHECKS. */
+        Checks(List<Runnable> checks, int from, int to) {
+            _checks = checks;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from <= SPLIT_THRESHOLD) {
+                for (int i = _from; i < _to; i += 1) {
+                    _checks.get(i).run();
+                }
+                return;
+            }
+            int mid = (_from + _to) >>> 1;
+            invokeAll(new Checks(_checks, _from, mid),
+                      new Checks(_checks, mid, _to));
+        }
+
+        /** All the checks. */
+        private final List<Runnable> _checks;
+
+        /** Bounds of the checks done by this task. */
+        private final int _from, _to;
+    }
+
+    /** The object types. */
+    private static final int[] TYPES = {
+        PackFile.COMMIT, PackFile.TREE, PackFile.BLOB
+    };
+
+    /** The branches, by name. */
+    private final Map<String, String> _branches;
+
+    /** The staged files, by path. */
+    private final Map<String, String> _stage;
+
+    /** Ids of the stored objects, by type, filled before checking. */
+    private final Map<Integer, Set<String>> _ids = Map.of(
+        PackFile.COMMIT, new HashSet<>(), PackFile.TREE, new HashSet<>(),
+        PackFile.BLOB, new HashSet<>());
+
+    /** Problems found so far. */
+    private final Queue<String> _problems = new ConcurrentLinkedQueue<>();
+
+    /** Bytes of objects checked. */
+    private final LongAdder _bytes = new LongAdder();
+}
@@ -0,0 +1,324 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Removes objects that no branch can reach.  Commits reachable from a
+ *  branch, their trees, the blobs those hold and the blobs staged for
+ *  addition are live; everything else in .gitlet/commits, .gitlet/trees,
+ *  .gitlet/blobs, .gitlet/stage and .gitlet/chunked is deleted, as are
+ *  the chunks no remaining chunk list names, and live loose objects
+ *  other than chunked blobs are packed.
+ *
+ *  repack() packs the same way but keeps every object, live or not, and
+ *  rewrites every pack.
+ *
+ *  Collection is incremental: a pack is rewritten only when at least
+ *  1/GARBAGE_DIVISOR of it is garbage, or when there are more than
+ *  MAX_PACKS packs, so a repeated gc does little work.
+ *
+ *  Collection is safe to interrupt.  The new pack is renamed into place
+ *  before anything is deleted, and only garbage and objects that are
+ *  then stored twice are deleted, so no live object is ever missing.
+ *  The indexes are rebuilt last; PENDING exists from the first deletion
+ *  until they are, and recover() finishes the job if it is found.
+ *  @author Matt Chorlian
+ */
+class GarbageCollector {
+
+    /** Present while a collection may have left the indexes stale. */
+    static final File PENDING = new File(".gitlet/gc-pending");
+
+    /** A pack is rewritten if at least 1/GARBAGE_DIVISOR of its objects
+     *  are garbage. */
+    static final int GARBAGE_DIVISOR = 4;
+
+    /** Largest number of packs left alone. */
+    static final int MAX_PACKS = 8;
+
+    /** Types of the objects in packs. */
+    private static final int[] TYPES = {
+        PackFile.COMMIT, PackFile.TREE, PackFile.BLOB
+    };
+
+    /** Rebuilds the indexes if a collection was interrupted before it
+     *  could. */
+    static void recover() {
+        if (PENDING.exists()) {
+            rebuildIndexes();
+            PENDING.delete();
+        }
+    }
+
+    /** A collector keeping the commits HISTORY, each listed after its
+     *  parents, and the blobs they track, plus the blobs STAGED. */
+    GarbageCollector(List<String> history, Collection<String> staged) {
+        _history = history;
+        _staged = staged;
+    }
+
+    /** Collects garbage, returning the number of objects deleted. */
+    int collect() {
+        mark();
+        List<PackFile> rewrite = new ArrayList<>();
+        List<PackFile> packs = ObjectStore.packs();
+        for (PackFile pack : packs) {
+            int garbage = 0;
+            for (int type : TYPES) {
+                for (String id : pack.ids(type)) {
+                    if (!_live.contains(id)) {
+                        garbage += 1;
+                    }
+                }
+            }
+            if (packs.size() > MAX_PACKS
+                || garbage > 0 && garbage * GARBAGE_DIVISOR >= pack.size()) {
+                rewrite.add(pack);
+            }
+        }
+        return rewrite(rewrite);
+    }
+
+    /** Moves every object, live or not, into one new pack, rewriting
+     *  all the packs there are, except blobs too big to pack and chunked
+     *  blobs.  Nothing is deleted that the new pack does not hold. */
+    void repack() {
+        _all = true;
+        rewrite(new ArrayList<>(ObjectStore.packs()));
+    }
+
+    /** Packs the live loose objects and the live objects of the packs
+     *  REWRITE, then deletes those packs, the loose copies of what was
+     *  packed and the garbage, returning the number of objects
+     *  deleted. */
+    private int rewrite(List<PackFile> rewrite) {
+        pack(rewrite);
+        if (!_all) {
+            Utils.writeContents(PENDING, "");
+        }
+        int deleted = 0;
+        for (PackFile pack : rewrite) {
+            for (int type : TYPES) {
+                for (String id : pack.ids(type)) {
+                    if (!live(id)) {
+                        deleted += 1;
+                    }
+                }
+            }
+            pack.indexFile().delete();
+            pack.packFile().delete();
+        }
+        ObjectStore.resetPacks();
+        for (File dir : new File[] {ObjectStore.COMMITS, ObjectStore.TREES,
+                                    ObjectStore.BLOBS, ObjectStore.STAGE,
+                                    ChunkStore.LISTS}) {
+            for (String id : ObjectStore.looseIds(dir)) {
+                boolean live = live(id);
+                if (!live || packed(id, rewrite)) {
+                    ObjectStore.looseFile(dir, id).delete();
+                    deleted += live ? 0 : 1;
+                }
+            }
+        }
+        ChunkStore.sweep();
+        for (File dir : new File[] {ObjectStore.COMMITS, ObjectStore.TREES,
+                                    ObjectStore.BLOBS, ObjectStore.STAGE,
+                                    ChunkStore.LISTS, ChunkStore.CHUNKS}) {
+            ObjectStore.deleteTemps(dir);
+        }
+        File[] temps = ObjectStore.PACKS.listFiles((d, name) ->
+            name.startsWith("tmp-"));
+        for (File temp : temps == null ? new File[0] : temps) {
+            temp.delete();
+        }
+        if (!_all) {
+            rebuildIndexes();
+            PENDING.delete();
+        }
+        return deleted;
+    }
+
+    /** Returns true iff the object ID is kept. */
+    private boolean live(String id) {
+        return _all || _live.contains(id);
+    }
+
+    /** Marks every commit in _history, its trees and the blobs they
+     *  hold, and the staged blobs as live. */
+    private void mark() {
+        for (String id : _history) {
+            _live.add(id);
+            Tree.mark(ObjectStore.readCommit(id).getTree(), _live);
+        }
+        _live.addAll(_staged);
+    }
+
+    /** Writes a pack of the live loose objects and the live objects of
+     *  the packs REWRITE, if there are any.  Blobs are added in history
+     *  order, from the diff of each commit's tree against its first
+     *  parent's, so that each version of a file can be a delta against
+     *  the one before; when every object is kept, those no commit
+     *  reaches follow. */
+    private void pack(List<PackFile> rewrite) {
+        ObjectStore.PACKS.mkdir();
+        PackFile.Writer writer = new PackFile.Writer(ObjectStore.PACKS);
+        for (String id : _history) {
+            byte[] data = movable(id, PackFile.COMMIT, rewrite);
+            if (data != null) {
+                writer.add(id, PackFile.COMMIT, data, null, null);
+            }
+            Commit c = ObjectStore.readCommit(id);
+            packTree(writer, c.getTree(), rewrite);
+            String[] parents = c.getParent();
+            String parentTree = parents == null || parents[0] == null ? null
+                : ObjectStore.readCommit(parents[0]).getTree();
+            HashMap<String, String> changes = new HashMap<>();
+            Tree.diff(parentTree, c.getTree(), "", changes);
+            for (String name : changes.keySet()) {
+                String blob = changes.get(name);
+                if (blob == null) {
+                    continue;
+                }
+                String base = parentTree == null ? null
+                    : Tree.lookup(parentTree, name);
+                data = writer.contains(blob) ? null
+                    : movable(blob, PackFile.BLOB, rewrite);
+                if (data != null) {
+                    writer.add(blob, PackFile.BLOB, data, base,
+                               writer.contains(base)
+                               ? ObjectStore.readBlob(base) : null);
+                }
+            }
+        }
+        for (String blob : _staged) {
+            byte[] data = movable(blob, PackFile.BLOB, rewrite);
+            if (data != null) {
+                writer.add(blob, PackFile.BLOB, data, null, null);
+            }
+        }
+        if (_all) {
+            packRest(writer, rewrite);
+        }
+        writer.finish();
+        Journal.sync();
+        ObjectStore.resetPacks();
+    }
+
+    /** Adds to WRITER the objects of the packs REWRITE and the loose
+     *  objects that the walk of the history did not reach. */
+    private void packRest(PackFile.Writer writer, List<PackFile> rewrite) {
+        for (PackFile pack : rewrite) {
+            for (int type : TYPES) {
+                for (String id : pack.ids(type)) {
+                    packRemaining(writer, id, type, rewrite);
+                }
+            }
+        }
+        for (String id : ObjectStore.looseIds(ObjectStore.COMMITS)) {
+            packRemaining(writer, id, PackFile.COMMIT, rewrite);
+        }
+        for (String id : ObjectStore.looseIds(ObjectStore.TREES)) {
+            packRemaining(writer, id, PackFile.TREE, rewrite);
+        }
+        for (File dir : new File[] {ObjectStore.BLOBS, ObjectStore.STAGE}) {
+            for (String id : ObjectStore.looseIds(dir)) {
+                packRemaining(writer, id, PackFile.BLOB, rewrite);
+            }
+        }
+    }
+
+    /** Adds the object ID of type TYPE to WRITER whole, if it is not
+     *  there yet and should go into the new pack. */
+    private void packRemaining(PackFile.Writer writer, String id, int type,
+                               List<PackFile> rewrite) {
+        byte[] data = writer.contains(id) ? null
+            : movable(id, type, rewrite);
+        if (data != null) {
+            writer.add(id, type, data, null, null);
+        }
+    }
+
+    /** Adds the tree ROOT and the trees below it to WRITER where they
+     *  should go into the new pack, visiting each tree once. */
+    private void packTree(PackFile.Writer writer, String root,
+                          List<PackFile> rewrite) {
+        if (root == null || !_visited.add(root)) {
+            return;
+        }
+        byte[] data = movable(root, PackFile.TREE, rewrite);
+        if (data != null) {
+            writer.add(root, PackFile.TREE, data, null, null);
+        }
+        for (String sub : Tree.subtrees(root)) {
+            packTree(writer, sub, rewrite);
+        }
+    }
+
+    /** Returns the contents of the object ID of type TYPE if it should
+     *  go into the new pack: that is, if it is loose and small enough to
+     *  pack, or is in one of the packs REWRITE.  Otherwise returns
+     *  null. */
+    private byte[] movable(String id, int type, List<PackFile> rewrite) {
+        File loose = type == PackFile.COMMIT ? ObjectStore.commitFile(id)
+            : type == PackFile.TREE ? ObjectStore.treeFile(id)
+            : ObjectStore.blobFile(id);
+        if (type == PackFile.BLOB && !loose.exists()) {
+            loose = new File(ObjectStore.STAGE, id);
+        }
+        if (loose.exists()) {
+            if (loose.length() > ObjectStore.BIG_FILE_THRESHOLD
+                || packed(id, rewrite)) {
+                return null;
+            }
+            return Utils.readContents(loose);
+        }
+        for (PackFile pack : rewrite) {
+            if (pack.contains(id)) {
+                return pack.read(id);
+            }
+        }
+        return null;
+    }
+
+    /** Returns true iff ID is in one of the current packs other than
+     *  those in REWRITE. */
+    private static boolean packed(String id, List<PackFile> rewrite) {
+        for (PackFile pack : ObjectStore.packs()) {
+            if (pack.contains(id) && !rewrite.contains(pack)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Rebuilds the object index, commit graph and message index from
+     *  the store, and forgets cached commits. */
+    private static void rebuildIndexes() {
+        ObjectStore.resetPacks();
+        CommitCache.get().clear();
+        Tree.clearCache();
+        ObjectIndex.rebuild();
+        CommitGraph.rebuild();
+        MessageIndex.rebuild();
+    }
+
+    /** The live commits, parents first. */
+    private final List<String> _history;
+
+    /** The blobs staged for addition. */
+    private final Collection<String> _staged;
+
+    /** Trees visited while packing. */
+    private final Set<String> _visited = new HashSet<>();
+
+    /** Ids of all live objects. */
+    private final Set<String> _live = new HashSet<>();
+
+    /** True iff every object is kept, live or not. */
+    private boolean _all;
+}
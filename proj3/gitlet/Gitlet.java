@@ -1,40 +1,51 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.Serializable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.ArrayList;
-import java.util.Objects;
 import java.util.Arrays;
+import java.util.Objects;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.HashSet;
-import java.util.Formatter;
+import java.util.TreeSet;
 
 /** @author Matt Chorlian. **/
-public class Gitlet implements Serializable {
+public class Gitlet {
 
-    /** points to the head commit. */
-    private String _head;
+    /** the current branch, the branches, and the staged and removed
+     * files, each read from disk only when first used. */
+    private RepoState _state = new RepoState();
 
-    /** a hashmap to track branches according to their name. */
-    private HashMap<String, String> _branches;
-
-    /** a hashamp to track staged files: adding or removing .*/
-    private HashMap<String, String> _stage;
-
-    /** a list to keep track of untracked files. */
-    private ArrayList<String> _untracked;
+    /** SAVE.
+     * Writes back whatever part of the state has changed.
+     * **/
+    public void save() {
+        _state.save();
+    }
 
     /** Helper method to get commit corresponding to given sha-1Id.
+     * Commits come from the shared commit cache when possible; the
+     * caller must not modify the commit it gets back.
      * @param sha1
      * the sha1 of the commit we are looking for
      * @return Commit
      * */
     public Commit getCommit(String sha1) {
-        File f = new File(".gitlet/commits/" + sha1);
-        if (f.exists()) {
-            return Utils.readObject(f, Commit.class);
+        long start = Trace.start();
+        Commit c = ObjectStore.readCommit(sha1);
+        Trace.record("getCommit", start, 0);
+        if (c != null) {
+            return c;
         } else {
             Utils.message("No commit with that id exists.");
             throw new GitletException();
@@ -56,56 +67,75 @@ public class Gitlet implements Serializable {
             stage.mkdir();
             File blobs = new File(".gitlet/blobs");
             blobs.mkdir();
+            Utils.writeContents(ObjectStore.FAN_OUT, "");
+            ObjectStore.resetLayout();
 
             Commit initialcommit = new Commit("initial commit",
                     null, null, true);
-            File initial = new File(".gitlet/commits/"
-                    + initialcommit.getSha1());
-            Utils.writeContents(initial,
-                    (Object) Utils.serialize(initialcommit));
+            ObjectStore.writeCommit(initialcommit);
 
-            _head = "master";
-            _branches = new HashMap<String, String>();
-            _branches.put("master", initialcommit.getSha1());
-            _stage = new HashMap<String, String>();
-            _untracked = new ArrayList<String>();
+            _state = RepoState.create(initialcommit.getSha1());
         }
 
     }
 
     /** add.
+     * Stages each named file; a directory stands for all the plain
+     * files below it.  The files are hashed in parallel and looked up
+     * in the head commit's tree, however many files there are.
      * @param args
-     * file to be added
+     * files and directories to be added
      * **/
-    public void add(String args) {
-        File f = new File(args);
-        if (!f.exists()) {
-            Utils.message("File does not exist.");
+    public void add(String... args) {
+        if (args.length == 0) {
+            Utils.message("Incorrect operands.");
             throw new GitletException();
-        } else {
-            Blob b = new Blob(f);
-            String blobcontents = Utils.readContentsAsString(f);
-
-            File blobfile = new File(".gitlet/blobs/"
-                    + Utils.sha1(blobcontents));
-            File stagedblob = new File(".gitlet/stage/"
-                    + Utils.sha1(blobcontents));
-
-            Commit head = getCommit(_branches.get(_head));
-            HashMap<String, String> headfiles = head.getFiles();
-
-            if (headfiles == null || !headfiles.containsKey(args)
-                || !headfiles.get(args).equals(Utils.sha1(blobcontents))) {
-                _stage.put(args, Utils.sha1(blobcontents));
-                Utils.writeContents(blobfile, (Object) blobcontents);
-                Utils.writeContents(stagedblob, (Object) blobcontents);
-            } else {
-                if (stagedblob.exists()) {
-                    _stage.remove(args);
+        }
+        ArrayList<String> names = new ArrayList<>();
+        for (String arg : args) {
+            File f = new File(arg);
+            String path = workingPath(arg);
+            if (f.isDirectory()) {
+                String prefix = path.isEmpty() ? "" : path + Tree.SEPARATOR;
+                for (String name : Utils.workingFiles(f)) {
+                    names.add(prefix + name);
                 }
-                _untracked.remove(args);
+            } else if (!f.exists() || path.isEmpty()) {
+                Utils.message("File does not exist.");
+                throw new GitletException();
+            } else {
+                names.add(path);
             }
         }
+
+        String[] hashes = FileHasher.hashAll(names);
+        String headTree =
+                getCommit(_state.branches().get(_state.head())).getTree();
+        HashMap<String, File> toStore = new HashMap<>();
+
+        for (int i = 0; i < names.size(); i += 1) {
+            String name = names.get(i);
+            String sha1 = hashes[i];
+            if (!sha1.equals(Tree.lookup(headTree, name))) {
+                _state.stage().put(name, sha1);
+                toStore.put(sha1, new File(name));
+            } else {
+                _state.stage().remove(name);
+                _state.removed().remove(name);
+            }
+        }
+        ObjectStore.writeBlobs(toStore);
+    }
+
+    /** WORKING PATH.
+     * @param name
+     * a file name as typed, relative to the working directory
+     * @return the path gitlet tracks it by: normalized, with '/'
+     * between names, and empty for the working directory itself
+     * **/
+    private static String workingPath(String name) {
+        String path = Paths.get(name).normalize().toString();
+        return path.replace(File.separatorChar, '/');
     }
 
     /** commit method.
@@ -113,41 +143,45 @@ public class Gitlet implements Serializable {
      * commit message
      * **/
     public void commit(String args) {
-        HashMap<String, String> parentfiles =
-                getCommit(_branches.get(_head)).getFiles();
+        commit(args, null);
+    }
+
+    /** commit method with a second parent.
+     * @param args
+     * commit message
+     * @param mergedID
+     * the id of the merged-in commit, or null for an ordinary commit
+     * **/
+    public void commit(String args, String mergedID) {
+        Commit parentCommit = getCommit(_state.branches().get(_state.head()));
 
         if (args.trim().length() == 0) {
             Utils.message("Please enter a commit message.");
             throw new GitletException();
         }
-        if (_stage.size() == 0 && _untracked.size() == 0) {
+        if (_state.stage().size() == 0 && _state.removed().size() == 0) {
             System.out.println("No changes add to the commit.");
             throw new GitletException();
-        } else {
-            if (parentfiles == null) {
-                parentfiles = new HashMap<String, String>();
-            }
-            for (String file : _stage.keySet()) {
-                parentfiles.put(file, _stage.get(file));
-            }
-            for (String untracked : _untracked) {
-                parentfiles.remove(untracked);
-            }
         }
+        HashMap<String, String> changes =
+                new HashMap<String, String>(_state.stage());
+        for (String untracked : _state.removed()) {
+            changes.put(untracked, null);
+        }
+        String tree = Tree.update(parentCommit.getTree(), changes);
 
-        _stage.clear();
-        _untracked.clear();
+        _state.stage().clear();
+        _state.removed().clear();
 
         String commitmsg = args;
-        String[] parent = new
-                String[]{getCommit(_branches.get(_head)).getSha1()};
-        Commit newest = new Commit(commitmsg,
-                parentfiles, parent, false);
-        File newcommit = new File(".gitlet/commits/"
-                + newest.getSha1());
-        Utils.writeObject(newcommit, newest);
+        String[] parent = new String[]{parentCommit.getSha1()};
+        if (mergedID != null) {
+            parent = new String[]{parent[0], mergedID};
+        }
+        Commit newest = new Commit(commitmsg, tree, parent, false);
+        ObjectStore.writeCommit(newest);
 
-        _branches.put(_head, newest.getSha1());
+        _state.branches().put(_state.head(), newest.getSha1());
     }
 
     /** remove fileName.
@@ -157,23 +191,24 @@ public class Gitlet implements Serializable {
     public void rm(String fileName) {
         Boolean removed = false;
         File f = new File(fileName);
-        String headID = _branches.get(_head);
-        Commit head = getCommit(headID);
-        HashMap<String, String> files = head.getFiles();
+        fileName = workingPath(fileName);
+        String headID = _state.branches().get(_state.head());
+        String tracked = Tree.lookup(getCommit(headID).getTree(), fileName);
 
-        if (!f.exists() && !files.containsKey(fileName)) {
+        if (!f.exists() && tracked == null) {
             Utils.message("File does not exist.");
             throw new GitletException();
         }
 
-        if (_stage.containsKey(fileName)) {
-            _stage.remove(fileName);
+        if (_state.stage().containsKey(fileName)) {
+            _state.stage().remove(fileName);
             removed = true;
         }
 
-        if (files != null && files.containsKey(fileName)) {
-            _untracked.add(fileName);
-            Utils.restrictedDelete(f);
+        if (tracked != null) {
+            _state.removed().add(fileName);
+            Utils.deleteWorkingFile(fileName);
+            StatCache.get().remove(fileName);
             removed = true;
         }
         if (removed) {
@@ -185,52 +220,108 @@ public class Gitlet implements Serializable {
 
     }
 
-    /** LOG. **/
-    public void log() {
-        String head = _branches.get(_head);
+    /** LOG.
+     * With -- PATH, shows only the commits that changed PATH (a file or
+     * a directory) relative to their first parent.
+     * @param args
+     * nothing, or -- and a path
+     * **/
+    public void log(String... args) {
+        if (args.length == 2 && args[0].equals("--")) {
+            pathLog(workingPath(args[1]));
+            return;
+        } else if (args.length != 0) {
+            Utils.message("Incorrect operands.");
+            throw new GitletException();
+        }
+        String head = _state.branches().get(_state.head());
         while (head != null) {
             Commit c = getCommit(head);
-            System.out.println("===");
-            System.out.println("commit " + c.getSha1());
-            System.out.println("Date: " + c.getTime());
-            System.out.println(c.getMessage());
-            System.out.println();
+            printLog(c);
             head = c.getParentsha1();
         }
     }
 
+    /** PATH LOG.
+     * Walks the first parents in the commit graph.  A commit whose
+     * changed-path filter rules the path out is passed over without
+     * being read; the others are checked by looking the path up in
+     * their trees and their parents'.
+     * @param path
+     * the path, as tracked
+     * **/
+    private void pathLog(String path) {
+        CommitGraph graph = CommitGraph.get();
+        ChangedPaths filters = ChangedPaths.get();
+        int pos = graph.position(_state.branches().get(_state.head()));
+        while (pos >= 0) {
+            int[] parents = graph.parents(pos);
+            int parent = parents.length == 0 ? -1 : parents[0];
+            if (filters.mayHaveChanged(pos, path)) {
+                Commit c = getCommit(graph.idAt(pos));
+                String before = parent < 0 ? null : Tree.idOf(
+                        getCommit(graph.idAt(parent)).getTree(), path);
+                if (!Objects.equals(before, Tree.idOf(c.getTree(), path))) {
+                    printLog(c);
+                }
+            }
+            pos = parent;
+        }
+    }
+
+    /** PRINT LOG.
+     * @param c
+     * the commit to show in a log
+     * **/
+    private void printLog(Commit c) {
+        System.out.println("===");
+        System.out.println("commit " + c.getSha1());
+        System.out.println("Date: " + c.getTime());
+        System.out.println(c.getMessage());
+        System.out.println();
+    }
+
     /** GLOBAL LOG.
+     * Answered from the message index.
      * @param args
      * not really needed
      * **/
     public void globalLog(String[] args) {
-        File commitcentral = new File(".gitlet/commits");
-        for (File file : Objects.requireNonNull(commitcentral.listFiles())) {
-            Commit c = getCommit(file.getName());
+        MessageIndex index = MessageIndex.get();
+        for (int k = 0; k < index.size(); k += 1) {
             System.out.println("===");
-            System.out.println("commit " + c.getSha1());
-            System.out.println("Date: " + c.getTime());
-            System.out.println(c.getMessage());
+            System.out.println("commit " + index.id(k));
+            System.out.println("Date: " + index.time(k));
+            System.out.println(index.message(k));
             System.out.println();
         }
 
     }
 
     /** FIND.
+     * Answered from the message index.  With --word, finds commits
+     * whose message contains the given word; with --grep, those whose
+     * message contains the given text.
      * @param args
-     * the commit message we search for
-     * **/
-    public void find(String args) {
-        Boolean found = false;
-        File c =  new File(".gitlet/commits");
-        for (File file : Objects.requireNonNull(c.listFiles())) {
-            Commit commit = getCommit(file.getName());
-            if (args.equals(commit.getMessage())) {
-                System.out.println(commit.getSha1());
-                found = true;
-            }
+     * the arguments to find: the commit message we search for, or
+     * --word WORD, or --grep TEXT
+     * **/
+    public void find(String... args) {
+        List<String> found;
+        if (args.length == 2 && args[0].equals("--word")) {
+            found = MessageIndex.get().findWord(args[1]);
+        } else if (args.length == 2 && args[0].equals("--grep")) {
+            found = MessageIndex.get().findSubstring(args[1]);
+        } else if (args.length == 1) {
+            found = MessageIndex.get().find(args[0]);
+        } else {
+            Utils.message("Incorrect operands.");
+            throw new GitletException();
+        }
+        for (String id : found) {
+            System.out.println(id);
         }
-        if (found) {
+        if (!found.isEmpty()) {
             return;
         }
         Utils.message("Found no commit with that message.");
@@ -240,11 +331,11 @@ public class Gitlet implements Serializable {
     /** STATUS. **/
     public void status() {
         System.out.println("=== Branches ===");
-        Object[] keys = _branches.keySet().toArray();
+        Object[] keys = _state.branches().keySet().toArray();
         Arrays.sort(keys);
         for (Object branch : keys) {
-            if (branch.equals(_head)) {
-                System.out.println("*" + _head);
+            if (branch.equals(_state.head())) {
+                System.out.println("*" + _state.head());
             } else {
                 System.out.println(branch);
             }
@@ -252,14 +343,14 @@ public class Gitlet implements Serializable {
         System.out.println();
 
         System.out.println("=== Staged Files ===");
-        Object[] files = _stage.keySet().toArray();
+        Object[] files = _state.stage().keySet().toArray();
         for (Object file : files) {
             System.out.println(file);
         }
         System.out.println();
 
         System.out.println("=== Removed Files ===");
-        Object[] removed = _untracked.toArray();
+        Object[] removed = _state.removed().toArray();
         for (Object remove : removed) {
             System.out.println(remove);
         }
@@ -274,48 +365,44 @@ public class Gitlet implements Serializable {
         ArrayList<String> modifiedFiles = new ArrayList<>();
         ArrayList<String> untrackedFiles = new ArrayList<>();
         File cwdirectory = new File(System.getProperty("user.dir"));
-        List<String> allFiles = Utils.plainFilenamesIn(cwdirectory);
-        Commit head = getCommit(_branches.get(_head));
+        List<String> allFiles = Utils.workingFiles(cwdirectory);
+        String headTree =
+                getCommit(_state.branches().get(_state.head())).getTree();
 
         if (allFiles != null) {
             for (String fileName : allFiles) {
-                File file = new File(fileName);
-                byte[] contents = Utils.readContents(file);
-                String sha1 = Utils.sha1((Object) contents);
-                if (_stage.containsKey(fileName)) {
-                    if (!_stage.get(fileName).equals(sha1)) {
+                String sha1 = StatCache.get().hash(fileName);
+                if (_state.stage().containsKey(fileName)) {
+                    if (!_state.stage().get(fileName).equals(sha1)) {
                         String s = fileName + " (modified)";
                         modifiedFiles.add(s);
                     }
-                } else {
-                    if (head.getFiles() != null) {
-                        if (head.getFiles().containsKey(fileName)) {
-                            if (!head.getFiles().get(fileName).equals(sha1)) {
-                                String s = fileName + " (modified)";
-                                modifiedFiles.add(s);
-                            }
-                        }
-                    } else {
-                        untrackedFiles.add(fileName);
+                } else if (headTree != null) {
+                    String tracked = Tree.lookup(headTree, fileName);
+                    if (tracked != null && !tracked.equals(sha1)) {
+                        String s = fileName + " (modified)";
+                        modifiedFiles.add(s);
                     }
+                } else {
+                    untrackedFiles.add(fileName);
                 }
             }
         }
-        for (String fileName : _stage.keySet()) {
+        for (String fileName : _state.stage().keySet()) {
             File f = new File(fileName);
             if (!f.exists()) {
                 String s = fileName + " (deleted)";
                 modifiedFiles.add(s);
             }
         }
-        if (head.getFiles() != null) {
-            for (String fileName : head.getFiles().keySet()) {
-                File f = new File(fileName);
-                if (!f.exists() && !modifiedFiles.contains(fileName)
-                        && !_untracked.contains(fileName)) {
-                    String s = fileName + " (deleted)";
-                    modifiedFiles.add(s);
-                }
+        HashSet<String> present = new HashSet<>();
+        if (allFiles != null) {
+            present.addAll(allFiles);
+        }
+        for (String fileName : deletedFiles(headTree, "", present)) {
+            if (!_state.removed().contains(fileName)) {
+                String s = fileName + " (deleted)";
+                modifiedFiles.add(s);
             }
         }
         for (String s : modifiedFiles) {
@@ -329,21 +416,47 @@ public class Gitlet implements Serializable {
         }
     }
 
+    /** DELETED FILES.
+     * Walks a tree of the head commit, reading only its own trees.
+     * @param tree
+     * the id of the tree, or null
+     * @param prefix
+     * the path of the tree's directory, ending in a separator, or ""
+     * @param present
+     * the files in the working directory
+     * @return the paths of the files in the tree that are not present
+     * **/
+    private List<String> deletedFiles(String tree, String prefix,
+                                      Set<String> present) {
+        List<String> result = new ArrayList<>();
+        if (tree == null) {
+            return result;
+        }
+        for (Map.Entry<String, String> e : Tree.entries(tree).entrySet()) {
+            String path = prefix + e.getKey();
+            if (path.endsWith(Tree.SEPARATOR)) {
+                result.addAll(deletedFiles(e.getValue(), path, present));
+            } else if (!present.contains(path)) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
     /** EXTEND SHA1.
+     * Binary-searches the object index for commits whose ids start
+     * with iD.
      * @param iD
      * the id which we are extending
      * @return String
      * **/
     public String extendSha1(String iD) {
-        File commits = new File(".gitlet/commits");
-        if (commits.listFiles() == null) {
-            Utils.message("Commit directory is empty");
-        } else {
-            for (File file : Objects.requireNonNull(commits.listFiles())) {
-                if (file.getName().contains(iD)) {
-                    return file.getName();
-                }
-            }
+        List<String> found = ObjectIndex.get().resolve(iD, PackFile.COMMIT);
+        if (found.size() > 1) {
+            Utils.message("Ambiguous commit id: " + iD);
+            throw new GitletException();
+        } else if (found.size() == 1) {
+            return found.get(0);
         }
         Utils.message("No commit with that id exists");
         throw new GitletException();
@@ -356,10 +469,10 @@ public class Gitlet implements Serializable {
      * **/
     public void checkout(String[] args) {
         if (Arrays.copyOfRange(args, 1, args.length).length == 1) {
-            if (!_branches.containsKey(args[1])) {
+            if (!_state.branches().containsKey(args[1])) {
                 Utils.message("No such branch exists");
                 throw new GitletException();
-            } else if (_head.equals(args[1])) {
+            } else if (_state.head().equals(args[1])) {
                 Utils.message("No need to checkout the current branch");
                 throw new GitletException();
             } else {
@@ -382,20 +495,8 @@ public class Gitlet implements Serializable {
      * **/
     public void checkoutFile(String fileName) {
 
-        String commitID = _branches.get(_head);
-        Commit c = getCommit(commitID);
-        HashMap<String, String> cFiles = c.getFiles();
-
-        if (cFiles.containsKey(fileName)) {
-            File checkFile = new File(fileName);
-            String blobFile = ".gitlet/stage/" + cFiles.get(fileName);
-            File f =  new File(blobFile);
-            Utils.writeContents(checkFile, Utils.readContentsAsString(f));
-
-        } else {
-            Utils.message("File does not exist in that commit");
-            throw new GitletException();
-        }
+        String commitID = _state.branches().get(_state.head());
+        checkoutPath(getCommit(commitID), fileName);
 
     }
 
@@ -407,13 +508,27 @@ public class Gitlet implements Serializable {
      * **/
     public void checkoutWithCommit(String commitID, String fileName) {
 
-        Commit c = getCommit(extendSha1(commitID));
-        HashMap<String, String> cFiles = c.getFiles();
-        if (cFiles.containsKey(fileName)) {
-            File checkFile = new File(fileName);
-            String blobFile = ".gitlet/stage/" + cFiles.get(fileName);
-            File f =  new File(blobFile);
-            Utils.writeContents(checkFile, Utils.readContentsAsString(f));
+        checkoutPath(getCommit(extendSha1(commitID)), fileName);
+    }
+
+    /** CHECKOUT PATH.
+     * Writes one file of a commit, found by walking its trees.
+     * @param c
+     * the commit holding the file
+     * @param fileName
+     * the name of the file
+     * **/
+    private void checkoutPath(Commit c, String fileName) {
+        String path = workingPath(fileName);
+        String blob = Tree.lookup(c.getTree(), path);
+        if (blob != null) {
+            File checkFile = new File(path);
+            File parent = checkFile.getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            ObjectStore.copyBlob(blob, checkFile);
+            StatCache.get().record(path, blob);
 
         } else {
             Utils.message("File does not exist in that commit");
@@ -426,57 +541,72 @@ public class Gitlet implements Serializable {
      * the name of the branch we are checking out
      * **/
     public void checkoutBranch(String branchName) {
-        String commitID = _branches.get(branchName);
-        HashMap<String, String> cFiles = getCommit(commitID).getFiles();
-        File cwdirectory = new File(System.getProperty("user.dir"));
-        HashMap<String, String> headFiles =
-                getCommit(_branches.get(_head)).getFiles();
+        String commitID = _state.branches().get(branchName);
+        Commit head = getCommit(_state.branches().get(_state.head()));
 
-        if (headFiles == null
-                && Objects.requireNonNull(cwdirectory.listFiles()).length > 1) {
-            Utils.message("There is an untracked file in the way; "
-                    + "delete it, or add and commit it first.");
-            throw new GitletException();
-        }
-
-        if (headFiles != null) {
-            for (File file : Objects.requireNonNull(cwdirectory.listFiles())) {
-                if (!headFiles.containsKey(file.getName())
-                        && !file.getName().equals(".gitlet")
-                        && !_stage.containsKey(file.getName())) {
-                    Utils.message("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    throw new GitletException();
-                }
-            }
-        }
+        materialize(getCommit(commitID), head);
 
+        _state.stage().clear();
+        _state.removed().clear();
+        _state.setHead(branchName);
 
+    }
 
-        for (File file : Objects.requireNonNull(cwdirectory.listFiles())) {
-            if (cFiles == null) {
-                Utils.restrictedDelete(file);
-            } else {
-                if (!cFiles.containsKey(file.getName())) {
-                    if (!file.getName().equals(".gitlet")) {
-                        Utils.restrictedDelete(file);
-                    }
-                }
+    /** MATERIALIZE.
+     * Replaces the files of the head commit in the working directory
+     * with those of another commit.  Only the files that differ between
+     * the two commits' trees, and tracked files that differ in the
+     * working directory from the head commit, are deleted or written,
+     * in parallel; subtrees the commits share are never read.
+     * @param target
+     * the commit being checked out
+     * @param head
+     * the head commit
+     * **/
+    private void materialize(Commit target, Commit head) {
+        HashMap<String, String> changes = new HashMap<>();
+        Tree.diff(head.getTree(), target.getTree(), "", changes);
+        for (String staged : _state.stage().keySet()) {
+            if (!changes.containsKey(staged)) {
+                changes.put(staged,
+                        Tree.lookup(target.getTree(), staged));
             }
         }
-
-        if (cFiles != null) {
-            for (String fileName : cFiles.keySet()) {
-                File f = new File(".gitlet/stage/" + cFiles.get(fileName));
-                String contents = Utils.readContentsAsString(f);
-                Utils.writeContents(new File(fileName), contents);
+        List<String> working =
+                Utils.workingFiles(new File(System.getProperty("user.dir")));
+        for (String path : working) {
+            String tracked = changes.containsKey(path)
+                    ? null : Tree.lookup(head.getTree(), path);
+            if (tracked != null
+                    && !tracked.equals(StatCache.get().hash(path))) {
+                changes.put(path, tracked);
             }
         }
+        for (String path : deletedFiles(head.getTree(), "",
+                                        new HashSet<>(working))) {
+            changes.putIfAbsent(path, Tree.lookup(target.getTree(), path));
+        }
 
-        _stage.clear();
-        _untracked.clear();
-        _head = branchName;
+        for (String path : changes.keySet()) {
+            if (changes.get(path) != null && new File(path).exists()
+                    && Tree.lookup(head.getTree(), path) == null
+                    && !_state.stage().containsKey(path)) {
+                Utils.message("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                throw new GitletException();
+            }
+        }
 
+        ArrayList<File> stale = new ArrayList<>();
+        HashMap<String, String> cFiles = new HashMap<>();
+        for (String path : changes.keySet()) {
+            if (changes.get(path) == null) {
+                stale.add(new File(path));
+            } else {
+                cFiles.put(path, changes.get(path));
+            }
+        }
+        Materializer.materialize(stale, cFiles);
     }
 
 
@@ -485,11 +615,12 @@ public class Gitlet implements Serializable {
      * the name of the branch we are creating
      * **/
     public void branch(String branchName) {
-        if (_branches.containsKey(branchName)) {
+        if (_state.branches().containsKey(branchName)) {
             Utils.message("A branch with that name already exists.");
             throw new GitletException();
         } else {
-            _branches.put(branchName, _branches.get(_head));
+            _state.branches().put(branchName,
+                    _state.branches().get(_state.head()));
         }
     }
 
@@ -498,14 +629,14 @@ public class Gitlet implements Serializable {
      * the branch we are removing
      * **/
     public void rmBranch(String branchName) {
-        if (!_branches.containsKey(branchName)) {
+        if (!_state.branches().containsKey(branchName)) {
             Utils.message("A branch with that name does not exist.");
             throw new GitletException();
-        } else if (branchName.equals(_head)) {
+        } else if (branchName.equals(_state.head())) {
             Utils.message("Cannot remove the current branch.");
             throw new GitletException();
         } else {
-            _branches.remove(branchName);
+            _state.branches().remove(branchName);
         }
 
     }
@@ -516,73 +647,35 @@ public class Gitlet implements Serializable {
      * **/
     public void reset(String id) {
         id = extendSha1(id);
-        HashMap<String, String> cFiles = getCommit(id).getFiles();
-        HashMap<String, String> headFiles =
-                getCommit(_branches.get(_head)).getFiles();
-        File cwdirectory = new File(System.getProperty("user.dir"));
-
-        if (headFiles.isEmpty()
-                && Objects.requireNonNull(cwdirectory.listFiles()).length > 1) {
-            Utils.message("There is an untracked file in the way; "
-                                + "delete it, or add and commit it first.");
-            throw new GitletException();
-        }
-
-        if (!headFiles.isEmpty()) {
-            for (File file : Objects.requireNonNull(cwdirectory.listFiles())) {
-                if (!headFiles.containsKey(file.getName())
-                        && !file.getName().equals(".gitlet")
-                        && !_stage.containsKey(file.getName())) {
-                    Utils.message("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    throw new GitletException();
-                }
-            }
-        }
-
-
-
-        for (File file : Objects.requireNonNull(cwdirectory.listFiles())) {
-            if (cFiles.isEmpty()) {
-                Utils.restrictedDelete(file);
-            } else {
-                if (!cFiles.containsKey(file.getName())) {
-                    if (!file.getName().equals(".gitlet")) {
-                        Utils.restrictedDelete(file);
-                    }
-                }
-            }
-        }
-
-        for (String fileName : cFiles.keySet()) {
-            File f = new File(".gitlet/stage/" + cFiles.get(fileName));
-            String contents = Utils.readContentsAsString(f);
-            Utils.writeContents(new File(fileName), contents);
-        }
+        Commit head = getCommit(_state.branches().get(_state.head()));
 
+        materialize(getCommit(id), head);
 
-        _stage.clear();
-        _branches.put(_head, id);
+        _state.stage().clear();
+        _state.branches().put(_state.head(), id);
     }
 
 
     /** MERGE.
+     * When the current branch is an ancestor of the given one, it is
+     * fast-forwarded: moved to the given commit, whose files are
+     * checked out, and the command succeeds, so the move is saved.
      * @param branchName
      * the branch we are merging with
      * **/
     public void merge(String branchName) {
         checkmergeError(branchName);
-        Commit current = getCommit(_branches.get(_head));
-        Commit given = getCommit(_branches.get(branchName));
+        Commit current = getCommit(_state.branches().get(_state.head()));
+        Commit given = getCommit(_state.branches().get(branchName));
 
         Commit split =  splitPoint(current, given);
-        if (split.equals(current)) {
-            checkoutBranch(branchName);
-            Utils.message("Current branch fast-forwarded.");
-            throw new GitletException();
-        } else if (split.equals(given)) {
+        if (split.getSha1().equals(given.getSha1())) {
             Utils.message("Given branch is an ancestor of the current branch.");
             throw new GitletException();
+        } else if (split.getSha1().equals(current.getSha1())) {
+            reset(given.getSha1());
+            Utils.message("Current branch fast-forwarded.");
+            return;
         }
 
         mergeHelper(branchName, current, split, given);
@@ -601,24 +694,23 @@ public class Gitlet implements Serializable {
      * **/
     public void mergeHelper(String branchName,
                             Commit current, Commit split, Commit given) {
-        Set<String> allFiles = new HashSet<>();
-        allFiles.addAll(split.getFiles().keySet());
-        allFiles.addAll(current.getFiles().keySet());
-        allFiles.addAll(given.getFiles().keySet());
+        HashMap<String, String> givenChanges = new HashMap<>();
+        Tree.diff(split.getTree(), given.getTree(), "", givenChanges);
 
         String sFile, cFile, gFile;
-        for (String file : allFiles) {
-            sFile = split.getFiles().get(file);
-            cFile = current.getFiles().get(file);
-            gFile = given.getFiles().get(file);
-            boolean conflict = false;
+        boolean conflict = false;
+        for (String file : new TreeSet<>(givenChanges.keySet())) {
+            sFile = Tree.lookup(split.getTree(), file);
+            cFile = Tree.lookup(current.getTree(), file);
+            gFile = givenChanges.get(file);
+            boolean fileConflict = false;
 
             if (sFile == null) {
                 if (gFile != null && cFile == null) {
                     checkoutWithCommit(given.getSha1(), file);
                     add(file);
                 } else if (gFile != null && !gFile.equals(cFile)) {
-                    conflict = true;
+                    fileConflict = true;
                 }
             } else {
                 if (sFile.equals(cFile)) {
@@ -628,29 +720,31 @@ public class Gitlet implements Serializable {
                         checkoutWithCommit(given.getSha1(), file);
                         add(file);
                     }
+                } else if (sFile.equals(gFile)) {
+                    fileConflict = false;
                 } else if (gFile == null) {
                     if (cFile != null) {
-                        conflict = true;
+                        fileConflict = true;
                     }
                 } else if (cFile == null) {
                     if (!gFile.equals(sFile)) {
-                        conflict = true;
+                        fileConflict = true;
                     }
                 } else if (gFile.equals(cFile)) {
-                    conflict = false;
+                    fileConflict = false;
                 } else if (!gFile.equals(cFile)) {
-                    conflict = true;
+                    fileConflict = true;
                 }
             }
-            if (conflict) {
-                conflictResolver(file, gFile, cFile);
+            if (fileConflict && conflictResolver(file, sFile, gFile, cFile)) {
+                conflict = true;
             }
+        }
 
-            String message = "Merged " + branchName + " into " + _head + ".";
-            commit(message);
-            if (conflict) {
-                Utils.message("Encountered a merge conflict");
-            }
+        String message = "Merged " + branchName + " into " + _state.head() + ".";
+        commit(message, given.getSha1());
+        if (conflict) {
+            Utils.message("Encountered a merge conflict");
         }
     }
 
@@ -661,38 +755,28 @@ public class Gitlet implements Serializable {
     public void checkmergeError(String branchName) {
 
         File cwdirectory = new File(System.getProperty("user.dir"));
-        HashMap<String, String> headFiles =
-                getCommit(_branches.get(_head)).getFiles();
-
-        if (headFiles == null
-                && Objects.requireNonNull(cwdirectory.listFiles()).length > 1) {
-            Utils.message("There is an untracked file in the way; "
-                    + "delete it, or add and commit it first.");
-            throw new GitletException();
-        }
-
-        if (headFiles != null) {
-            for (File file : Objects.requireNonNull(cwdirectory.listFiles())) {
-                if (!headFiles.containsKey(file.getName())
-                        && !file.getName().equals(".gitlet")
-                        && !_stage.containsKey(file.getName())) {
-                    Utils.message("There is an untracked file in the way; "
-                            + "delete it, or add and commit it first.");
-                    throw new GitletException();
-                }
+        String headTree =
+                getCommit(_state.branches().get(_state.head())).getTree();
+
+        for (String path : Utils.workingFiles(cwdirectory)) {
+            if (Tree.lookup(headTree, path) == null
+                    && !_state.stage().containsKey(path)) {
+                Utils.message("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                throw new GitletException();
             }
         }
 
-        if (!_untracked.isEmpty() || !_stage.isEmpty()) {
+        if (!_state.removed().isEmpty() || !_state.stage().isEmpty()) {
             Utils.message("You have uncommitted changes.");
             throw new GitletException();
         }
 
-        if (!_branches.containsKey(branchName)) {
+        if (!_state.branches().containsKey(branchName)) {
             Utils.message("A branch with that name does not exist.");
             throw new GitletException();
         }
-        if (branchName.equals(_head)) {
+        if (branchName.equals(_state.head())) {
             Utils.message("Cannot merge a branch with itself.");
             throw new GitletException();
         }
@@ -700,42 +784,32 @@ public class Gitlet implements Serializable {
     }
 
     /** MERGE CONFLICT RESOLVER.
+     * Merges the two versions line by line against the split point,
+     * marking only the regions that changed differently on both sides,
+     * and stages the result.
      * @param name
      * name of given file
+     * @param sCode
+     * the sha1 of the file at the split point
      * @param gCode
      * the sha1 of the file in given commit
      * @param cCode
      * the sha1 of the file in the current commit
+     * @return boolean
+     * whether any region conflicted
      * **/
-    public void conflictResolver(String name, String gCode, String cCode) {
-        File branchFile = new File(System.getProperty("user.dir")
-                + "/.gitlet/blobs/" + gCode);
-        File headFile = new File(System.getProperty("user.dir")
-                + ".gitlet/blobs/" + cCode);
-        File f = new File(name);
-        Formatter result = new Formatter();
-        String gContents = "";
-        String cContents = "";
-
-        if (branchFile.exists()) {
-            gContents = Utils.readContentsAsString(branchFile);
-        }
-        if (headFile.exists()) {
-            cContents = Utils.readContentsAsString(headFile);
-        }
-
-        result.format("<<<<<<< HEAD\n");
-        result.format(cContents);
-        result.format("=======\n");
-        result.format(gContents);
-        result.format(">>>>>>>\n");
-        String s = result.toString();
-        Utils.writeContents(f, s);
+    public boolean conflictResolver(String name, String sCode,
+                                    String gCode, String cCode) {
+        boolean conflict = LineMerge.merge(sCode, cCode, gCode,
+                new File(name));
         add(name);
-
+        return conflict;
     }
 
     /** SPLIT FINDER.
+     * Asks the commit graph for the latest common ancestor, following
+     * both parents of merge commits, once the branches' reachability
+     * bitmaps are up to date.
      * @param current
      * the current commit
      * @param given
@@ -743,31 +817,260 @@ public class Gitlet implements Serializable {
      * @return Commit
      * **/
     public Commit splitPoint(Commit current, Commit given) {
-        ArrayList<String> currParents = new ArrayList<>();
-        ArrayList<String> givenParents = new ArrayList<>();
+        CommitBitmaps.get().update(_state.branches().values());
+        String split = CommitGraph.get().mergeBase(current.getSha1(),
+                given.getSha1());
+        if (split != null) {
+            return getCommit(split);
+        }
+        Utils.message("No split point");
+        throw new GitletException();
+    }
+
+    /** REPACK.
+     * Moves every commit, tree and blob, loose or packed, into one new
+     * pack, except blobs too big to be worth compressing in memory, and
+     * deletes nothing else (see GarbageCollector).
+     * **/
+    public void repack() {
+        new GarbageCollector(history(), _state.stage().values()).repack();
+    }
+
+    /** GC.
+     * Deletes every commit that no branch reaches and every blob that
+     * neither such a commit nor the staging area uses, and packs what
+     * remains loose.
+     * **/
+    public void gc() {
+        int deleted = new GarbageCollector(history(),
+                _state.stage().values()).collect();
+        System.out.println("Removed " + deleted + " unreachable objects.");
+    }
+
+    /** MIGRATE.
+     * Moves the loose objects of a repository made before fan-out
+     * directories into them.  Running it again does nothing.
+     * **/
+    public void migrate() {
+        int moved = ObjectStore.migrate();
+        System.out.println("Moved " + moved + " loose objects.");
+    }
 
-        currParents.add(current.getSha1());
-        while (current.getParent() != null) {
-            currParents.add(current.getParent()[0]);
-            current = getCommit(current.getParent()[0]);
+    /** ADD REMOTE.
+     * Records a remote: another repository on this filesystem.
+     * @param name
+     * the name of the remote
+     * @param dir
+     * the path of its .gitlet directory, with '/' between names
+     * **/
+    public void addRemote(String name, String dir) {
+        if (_state.remotes().containsKey(name)) {
+            Utils.message("A remote with that name already exists.");
+            throw new GitletException();
+        }
+        _state.remotes().put(name, dir.replace("/", File.separator));
+    }
+
+    /** RM REMOTE.
+     * @param name
+     * the name of the remote we are forgetting
+     * **/
+    public void rmRemote(String name) {
+        if (_state.remotes().remove(name) == null) {
+            Utils.message("A remote with that name does not exist.");
+            throw new GitletException();
+        }
+    }
+
+    /** PUSH.
+     * Makes a branch of a remote point at the head commit, sending the
+     * commits, trees and blobs it lacks.  The remote's branch must be
+     * an ancestor of the head commit.
+     * @param name
+     * the name of the remote
+     * @param branchName
+     * the remote branch to move
+     * **/
+    public void push(String name, String branchName) {
+        String error = Transfer.push(remoteDir(name), branchName,
+                _state.branches().get(_state.head()));
+        if (error != null) {
+            Utils.message(error);
+            throw new GitletException();
         }
-        givenParents.add(given.getSha1());
-        while (given.getParent() != null) {
-            givenParents.add(given.getParent()[0]);
-            given = getCommit(given.getParent()[0]);
+    }
+
+    /** FETCH.
+     * Copies a branch of a remote, and whatever it needs that is not
+     * here, into the branch NAME/BRANCHNAME.
+     * @param name
+     * the name of the remote
+     * @param branchName
+     * the remote branch to copy
+     * **/
+    public void fetch(String name, String branchName) {
+        String id = Transfer.fetch(remoteDir(name), branchName,
+                _state.branches().values());
+        if (id == null) {
+            Utils.message("That remote does not have that branch.");
+            throw new GitletException();
         }
+        _state.branches().put(name + "/" + branchName, id);
+    }
 
+    /** PULL.
+     * Fetches a branch of a remote and merges it into the current
+     * branch.
+     * @param name
+     * the name of the remote
+     * @param branchName
+     * the remote branch to pull
+     * **/
+    public void pull(String name, String branchName) {
+        fetch(name, branchName);
+        merge(name + "/" + branchName);
+    }
 
+    /** UPLOAD PACK.
+     * Serves a fetch from another repository over the standard input
+     * and output.
+     * **/
+    void uploadPack() {
+        Transfer.upload(_state.branches());
+    }
 
-        for (String currParent : currParents) {
-            for (String givenParent : givenParents) {
-                if (currParent.equals(givenParent)) {
-                    return getCommit(currParent);
-                }
+    /** RECEIVE PACK.
+     * Serves a push from another repository over the standard input
+     * and output, telling a running daemon when a branch moves.
+     * **/
+    void receivePack() {
+        Transfer.receive(_state.branches(), () -> {
+            save();
+            Daemon.reload();
+        });
+    }
+
+    /** IMPORT STREAM.
+     * Reads history in the fast-import format from a file or the
+     * standard input (see Importer), leaving the working files as they
+     * are, and tells a running daemon at each checkpoint and at the end.
+     * @param args
+     * the file holding the stream, if it is not the standard input
+     * **/
+    public void importStream(String... args) {
+        if (args.length > 1) {
+            Utils.message("Incorrect operands.");
+            throw new GitletException();
+        }
+        if (args.length == 1 && !new File(args[0]).isFile()) {
+            Utils.message("File does not exist.");
+            throw new GitletException();
+        }
+        String initial = new Commit("initial commit", null, null, true)
+                .getSha1();
+        Runnable checkpoint = () -> {
+            save();
+            Daemon.reload();
+        };
+        Importer importer = new Importer(_state.branches(), initial,
+                                         checkpoint);
+        if (args.length == 0) {
+            importer.run(System.in);
+        } else {
+            try (InputStream in = new FileInputStream(args[0])) {
+                importer.run(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
             }
         }
-        Utils.message("No split point");
-        throw new GitletException();
+        checkpoint.run();
+    }
+
+    /** EXPORT.
+     * Writes every branch and the history behind it to the standard
+     * output as a stream that import reads back (see Exporter).
+     * **/
+    public void export() {
+        String initial = new Commit("initial commit", null, null, true)
+                .getSha1();
+        new Exporter(_state.branches(), initial).run(standardOutput());
+    }
+
+    /** ARCHIVE.
+     * Writes the files of a commit to the standard output as a tar or
+     * zip archive, straight from the object store (see Archive).
+     * @param args
+     * a branch name or commit id, after --format=tar or --format=zip
+     * **/
+    public void archive(String... args) {
+        String format = Archive.FORMATS[0];
+        if (args.length == 2 && args[0].startsWith("--format=")) {
+            format = args[0].substring("--format=".length());
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length != 1
+            || !Arrays.asList(Archive.FORMATS).contains(format)) {
+            Utils.message("Incorrect operands.");
+            throw new GitletException();
+        }
+        String id = _state.branches().containsKey(args[0])
+            ? _state.branches().get(args[0]) : extendSha1(args[0]);
+        Commit c = getCommit(id);
+        long time = Math.max(Commit.seconds(c.getTime()), 0);
+        new Archive(format, time, standardOutput()).write(c.getTree());
+    }
+
+    /** FSCK.
+     * Rehashes every stored object and checks that every object, branch
+     * and staged file names only objects that are stored (see Fsck).
+     * **/
+    public void fsck() {
+        int problems = new Fsck(_state.branches(), _state.stage()).run();
+        if (problems > 0) {
+            Utils.message("Found %d problems.", problems);
+            throw new GitletException();
+        }
+    }
+
+    /** STANDARD OUTPUT.
+     * @return the standard output, as a buffered stream of bytes
+     * **/
+    private static OutputStream standardOutput() {
+        return new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out));
+    }
+
+    /** REMOTE DIR.
+     * @param name
+     * the name of a remote
+     * @return its .gitlet directory, which must exist
+     * **/
+    private File remoteDir(String name) {
+        String dir = _state.remotes().get(name);
+        if (dir == null || !new File(dir).isDirectory()) {
+            Utils.message("Remote directory not found.");
+            throw new GitletException();
+        }
+        return new File(dir);
+    }
+
+    /** HISTORY.
+     * The union of the branches' reachability bitmaps (see
+     * CommitBitmaps), read off in commit-graph order.
+     * @return the ids of all commits reachable from any branch, each
+     * after all of its parents.
+     * **/
+    public List<String> history() {
+        CommitGraph graph = CommitGraph.get();
+        CommitBitmaps bitmaps = CommitBitmaps.get();
+        bitmaps.update(_state.branches().values());
+        Bitmap reachable = new Bitmap();
+        for (String tip : _state.branches().values()) {
+            reachable.or(bitmaps.kept(graph.position(tip)));
+        }
+        List<String> result = new ArrayList<>(reachable.cardinality());
+        reachable.forEach(pos -> result.add(graph.idAt(pos)));
+        return result;
     }
 
 }
@@ -0,0 +1,551 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/** Bulk ingestion of history from a stream, in the format of git
+ *  fast-import, so that the output of git fast-export (or of gitlet
+ *  export) can be read as it is.  The commands understood are:
+ *
+ *    blob, mark :N, data N             a file's contents
+ *    commit BRANCH                     a commit on BRANCH (refs/heads/
+ *      mark :N                         is optional), whose time comes
+ *      author ...                      from the committer line or, if
+ *      committer NAME <EMAIL> SECS TZ  present, the date line (gitlet's
+ *      date TIMESTAMP                  own format, kept exactly), with
+ *      data N                          its message (less one final
+ *      from REF, merge REF             newline) and up to two parents,
+ *      M MODE REF PATH, M MODE inline  followed by the changes to its
+ *        PATH + data N,                first parent's files.
+ *      D PATH, deleteall
+ *    reset BRANCH, from REF            moving or (with no from) removing
+ *                                      a branch
+ *    checkpoint                        making all so far durable
+ *    progress TEXT                     printing TEXT
+ *    done, feature ..., option ...     accepted and ignored
+ *
+ *  where data N is followed by exactly N bytes (or data <<DELIM by lines
+ *  up to DELIM) and REF is :N, a commit id or a branch.  A commit with
+ *  no parent and no branch to follow gets the initial commit as its
+ *  parent, so that every history shares it.
+ *
+ *  Objects go into packs, ObjectStore's bulk mode, one pack per
+ *  FLUSH_OBJECTS objects, and commits are indexed as they are made, so
+ *  the import costs no file per object and no process per commit.
+ *  Branches move only at a checkpoint and at the end.  Marks are kept
+ *  as binary ids in one array.
+ *  @author Matt Chorlian
+ */
+class Importer {
+
+    /** Objects written to a pack before it is finished. */
+    static final int FLUSH_OBJECTS = 100_000;
+
+    /** Prefix of the names of branches in git. */
+    static final String HEADS = "refs/heads/";
+
+    /** Size of the raw form of an id. */
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+
+    /** Largest mark accepted. */
+    private static final int MAX_MARK = 1 << 26;
+
+    /** Modes of the files an import may hold. */
+    private static final String[] MODES = {
+        "644", "755", "100644", "100755", "120000"
+    };
+
+    /** An importer into a repository whose branches are BRANCHES, whose
+     *  initial commit is INITIAL, running SAVE to make the branches
+     *  durable at a checkpoint. */
+    Importer(Map<String, String> branches, String initial, Runnable save) {
+        _branches = branches;
+        _initial = initial;
+        _save = save;
+    }
+
+    /** Reads commands from IN until it ends or says done. */
+    void run(InputStream in) {
+        _in = new BufferedInputStream(in, BUFFER_SIZE);
+        ObjectStore.beginBulk();
+        try {
+            for (String line = readLine(); line != null
+                     && !line.equals("done"); line = readLine()) {
+                if (line.isEmpty() || line.startsWith("#")
+                    || line.startsWith("feature ")
+                    || line.startsWith("option ")) {
+                    continue;
+                } else if (line.equals("blob")) {
+                    blob();
+                } else if (line.startsWith("commit ")) {
+                    commit(branch(line.substring("commit ".length())));
+                } else if (line.startsWith("reset ")) {
+                    reset(branch(line.substring("reset ".length())));
+                } else if (line.equals("checkpoint")) {
+                    checkpoint();
+                } else if (line.startsWith("progress ")) {
+                    System.out.println(line);
+                } else {
+                    throw malformed(line);
+                }
+                if (ObjectStore.bulkSize() >= FLUSH_OBJECTS) {
+                    ObjectStore.flushBulk();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            ObjectStore.endBulk();
+        }
+        moveBranches();
+        System.out.printf("Imported %d commits and %d blobs.%n",
+                          _commits, _blobs);
+    }
+
+    /** Reads the rest of a blob command. */
+    private void blob() throws IOException {
+        int mark = mark(readLine());
+        String line = mark < 0 ? _pushback : readLine();
+        _pushback = null;
+        setMark(mark, data(line));
+        _blobs += 1;
+    }
+
+    /** Reads the rest of a commit command, on the branch BRANCH. */
+    private void commit(String branch) throws IOException {
+        String line = readLine();
+        int mark = mark(line);
+        line = mark < 0 ? _pushback : readLine();
+        _pushback = null;
+        String time = null;
+        while (line != null && (line.startsWith("author ")
+                                || line.startsWith("committer ")
+                                || line.startsWith("date "))) {
+            if (line.startsWith("date ")) {
+                time = line.substring("date ".length());
+            } else if (line.startsWith("committer ") && time == null) {
+                time = committerTime(line);
+            }
+            line = readLine();
+        }
+        if (time == null) {
+            time = Commit.time(System.currentTimeMillis() / 1000,
+                               TimeZone.getDefault());
+        }
+        String message = new String(dataBytes(line), StandardCharsets.UTF_8);
+        if (message.endsWith("\n")) {
+            message = message.substring(0, message.length() - 1);
+        }
+        String first = _tips.containsKey(branch) ? _tips.get(branch)
+            : _branches.get(branch);
+        String second = null;
+        line = readLine();
+        if (line != null && line.startsWith("from ")) {
+            first = commitRef(line.substring("from ".length()));
+            line = readLine();
+        }
+        if (line != null && line.startsWith("merge ")) {
+            second = commitRef(line.substring("merge ".length()));
+            line = readLine();
+            if (line != null && line.startsWith("merge ")) {
+                throw malformed(line);
+            }
+        }
+        if (first == null) {
+            first = _initial;
+        }
+        String tree = ObjectStore.readCommit(first).getTree();
+        Map<String, String> changes = new LinkedHashMap<>();
+        for (; line != null && !line.isEmpty(); line = readLine()) {
+            if (line.equals("deleteall")) {
+                tree = null;
+                changes.clear();
+            } else if (line.startsWith("M ")) {
+                modify(line, changes);
+            } else if (line.startsWith("D ")) {
+                delete(tree, unquote(line.substring(2)), changes);
+            } else {
+                _pushback = line;
+                break;
+            }
+        }
+        String[] parents = second == null ? new String[] {first}
+            : new String[] {first, second};
+        Commit c = new Commit(message, Tree.update(tree, changes), parents,
+                              time);
+        ObjectStore.writeCommit(c);
+        _tips.put(branch, c.getSha1());
+        setMark(mark, c.getSha1());
+        _commits += 1;
+    }
+
+    /** Applies the M command LINE to CHANGES. */
+    private void modify(String line, Map<String, String> changes)
+        throws IOException {
+        String[] parts = line.split(" ", 4);
+        if (parts.length < 4 || !Arrays.asList(MODES).contains(parts[1])) {
+            throw malformed(line);
+        }
+        String path = unquote(parts[3]);
+        if (parts[2].equals("inline")) {
+            changes.put(path, data(readLine()));
+            _blobs += 1;
+        } else if (parts[2].startsWith(":")) {
+            changes.put(path, markedId(parts[2], line));
+        } else if (parts[2].length() == Utils.UID_LENGTH
+                   && ObjectStore.hasBlob(parts[2])) {
+            changes.put(path, parts[2]);
+        } else {
+            throw malformed(line);
+        }
+    }
+
+    /** Adds to CHANGES the removal of PATH, a file or a directory, from
+     *  the tree TREE as changed by CHANGES. */
+    private static void delete(String tree, String path,
+                               Map<String, String> changes) {
+        String prefix = path + Tree.SEPARATOR;
+        changes.keySet().removeIf(p -> p.startsWith(prefix));
+        String id = tree == null ? null : Tree.idOf(tree, path);
+        if (id != null && Tree.lookup(tree, path) == null) {
+            Map<String, String> files = new HashMap<>();
+            Tree.flatten(id, prefix, files);
+            for (String file : files.keySet()) {
+                changes.put(file, null);
+            }
+        } else {
+            changes.put(path, null);
+        }
+    }
+
+    /** Reads the rest of a reset command, on the branch BRANCH. */
+    private void reset(String branch) throws IOException {
+        String line = readLine();
+        if (line != null && line.startsWith("from ")) {
+            _tips.put(branch, commitRef(line.substring("from ".length())));
+        } else {
+            _tips.put(branch, null);
+            _pushback = line;
+        }
+    }
+
+    /** Finishes the pack being written and moves the branches, so that
+     *  everything so far survives a crash. */
+    private void checkpoint() {
+        ObjectStore.flushBulk();
+        moveBranches();
+        _save.run();
+    }
+
+    /** Points each branch the import has moved at its new commit, or
+     *  removes it. */
+    private void moveBranches() {
+        for (Map.Entry<String, String> e : _tips.entrySet()) {
+            if (e.getValue() == null) {
+                _branches.remove(e.getKey());
+            } else {
+                _branches.put(e.getKey(), e.getValue());
+            }
+        }
+        _tips.clear();
+    }
+
+    /** Returns the mark set by LINE, or -1 if LINE is not a mark
+     *  command, in which case it is pushed back. */
+    private int mark(String line) {
+        if (line == null || !line.startsWith("mark :")) {
+            _pushback = line;
+            return -1;
+        }
+        try {
+            int mark = Integer.parseInt(line.substring("mark :".length()));
+            if (mark <= 0 || mark >= MAX_MARK) {
+                throw malformed(line);
+            }
+            return mark;
+        } catch (NumberFormatException excp) {
+            throw malformed(line);
+        }
+    }
+
+    /** Records that MARK (if not -1) stands for the object ID. */
+    private void setMark(int mark, String id) {
+        if (mark < 0) {
+            return;
+        }
+        if ((long) mark * ID_SIZE >= _marks.length) {
+            long size = Math.max((long) _marks.length * 2,
+                                 (long) (mark + 1) * ID_SIZE);
+            _marks = Arrays.copyOf(_marks, (int) Math.min(size,
+                                                          Integer.MAX_VALUE));
+        }
+        System.arraycopy(Utils.sha1Bytes(id), 0, _marks, mark * ID_SIZE,
+                         ID_SIZE);
+    }
+
+    /** Returns the id marked by REF, :N, in LINE. */
+    private String markedId(String ref, String line) {
+        int mark;
+        try {
+            mark = Integer.parseInt(ref.substring(1));
+        } catch (NumberFormatException excp) {
+            throw malformed(line);
+        }
+        if (mark <= 0 || (long) mark * ID_SIZE >= _marks.length
+            || isZero(mark * ID_SIZE)) {
+            throw malformed(line);
+        }
+        return Utils.sha1Hex(_marks, mark * ID_SIZE);
+    }
+
+    /** Returns true iff the id at OFF in _marks is unset. */
+    private boolean isZero(int off) {
+        for (int i = off; i < off + ID_SIZE; i += 1) {
+            if (_marks[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the commit named by REF: a mark, an id or a branch. */
+    private String commitRef(String ref) {
+        if (ref.startsWith(":")) {
+            return markedId(ref, ref);
+        }
+        String branch = branch(ref);
+        if (_tips.containsKey(branch)) {
+            return _tips.get(branch);
+        } else if (_branches.containsKey(branch)) {
+            return _branches.get(branch);
+        } else if (ref.length() == Utils.UID_LENGTH
+                   && ObjectStore.readCommit(ref) != null) {
+            return ref;
+        }
+        throw malformed("from " + ref);
+    }
+
+    /** Returns the branch named by REF, less any refs/heads/. */
+    private static String branch(String ref) {
+        return ref.startsWith(HEADS) ? ref.substring(HEADS.length()) : ref;
+    }
+
+    /** Returns the time of the commit whose committer line is LINE, as
+     *  Commit formats it. */
+    private String committerTime(String line) {
+        String[] parts = line.substring(line.lastIndexOf('>') + 1).trim()
+            .split(" ");
+        try {
+            return Commit.time(Long.parseLong(parts[0]),
+                               TimeZone.getTimeZone("GMT"
+                                                    + parts[1].substring(0, 3)
+                                                    + ":"
+                                                    + parts[1].substring(3)));
+        } catch (RuntimeException excp) {
+            throw malformed(line);
+        }
+    }
+
+    /** Reads the data whose header is LINE and stores it as a blob,
+     *  returning its id.  Data too large to pack is passed to the store
+     *  through a temporary file, never held in memory. */
+    private String data(String line) throws IOException {
+        long length = dataLength(line);
+        if (length < 0 || !isLarge(length)) {
+            byte[] contents = dataBytes(line);
+            String id = Utils.sha1((Object) contents);
+            ObjectStore.writeBlob(id, contents);
+            return id;
+        }
+        File temp = new File(".gitlet/import-" + System.nanoTime() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                byte[] buf = new byte[BUFFER_SIZE];
+                for (long left = length; left > 0;) {
+                    int n = _in.read(buf, 0, (int) Math.min(buf.length,
+                                                            left));
+                    if (n < 0) {
+                        throw malformed(line);
+                    }
+                    out.write(buf, 0, n);
+                    left -= n;
+                }
+            }
+            skipNewline();
+            String id = Utils.sha1File(temp);
+            ObjectStore.writeBlob(id, temp);
+            return id;
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /** Returns true iff a blob of LENGTH bytes is too large to pack. */
+    private static boolean isLarge(long length) {
+        return length > ObjectStore.BIG_FILE_THRESHOLD
+            || ChunkStore.THRESHOLD > 0 && length >= ChunkStore.THRESHOLD;
+    }
+
+    /** Returns the length given by the data header LINE, or -1 if the
+     *  data is delimited. */
+    private long dataLength(String line) {
+        if (line == null || !line.startsWith("data ")) {
+            throw malformed(line);
+        }
+        String rest = line.substring("data ".length());
+        if (rest.startsWith("<<")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(rest);
+        } catch (NumberFormatException excp) {
+            throw malformed(line);
+        }
+    }
+
+    /** Reads the data whose header is LINE into memory. */
+    private byte[] dataBytes(String line) throws IOException {
+        long length = dataLength(line);
+        if (length < 0) {
+            String delim = line.substring("data <<".length());
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            for (String l = readLine(); !delim.equals(l); l = readLine()) {
+                if (l == null) {
+                    throw malformed(line);
+                }
+                result.writeBytes((l + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            return result.toByteArray();
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw malformed(line);
+        }
+        byte[] result = _in.readNBytes((int) length);
+        if (result.length != length) {
+            throw malformed(line);
+        }
+        skipNewline();
+        return result;
+    }
+
+    /** Skips the newline that may follow data. */
+    private void skipNewline() throws IOException {
+        int c = _in.read();
+        if (c >= 0 && c != '\n') {
+            _peek = c;
+        }
+    }
+
+    /** Returns the next line, without its newline, or null at the end of
+     *  the stream. */
+    private String readLine() throws IOException {
+        if (_pushback != null) {
+            String line = _pushback;
+            _pushback = null;
+            return line;
+        }
+        _line.reset();
+        int c = _peek >= 0 ? _peek : _in.read();
+        _peek = -1;
+        if (c < 0) {
+            return null;
+        }
+        for (; c >= 0 && c != '\n'; c = _in.read()) {
+            _line.write(c);
+        }
+        _lines += 1;
+        return _line.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Returns PATH with git's quoting, if any, undone. */
+    private static String unquote(String path) {
+        if (!path.startsWith("\"") || !path.endsWith("\"")
+            || path.length() < 2) {
+            return path;
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] bytes = path.substring(1, path.length() - 1)
+            .getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += 1) {
+            if (bytes[i] != '\\' || i + 1 == bytes.length) {
+                result.write(bytes[i]);
+                continue;
+            }
+            i += 1;
+            switch (bytes[i]) {
+            case 'n':
+                result.write('\n');
+                break;
+            case 't':
+                result.write('\t');
+                break;
+            default:
+                if (bytes[i] >= '0' && bytes[i] <= '3'
+                    && i + 2 < bytes.length) {
+                    result.write(Integer.parseInt(new String(bytes, i, 3,
+                        StandardCharsets.US_ASCII), 8));
+                    i += 2;
+                } else {
+                    result.write(bytes[i]);
+                }
+            }
+        }
+        return result.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Reports that LINE, near the current line, cannot be imported. */
+    private GitletException malformed(String line) {
+        Utils.message("Bad import command at line %d: %s", _lines, line);
+        return new GitletException();
+    }
+
+    /** Size of the buffer large blobs are copied through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The branches of the repository. */
+    private final Map<String, String> _branches;
+
+    /** The id of the initial commit. */
+    private final String _initial;
+
+    /** Makes the branches durable. */
+    private final Runnable _save;
+
+    /** Branches moved (to null if removed) and not yet recorded. */
+    private final Map<String, String> _tips = new HashMap<>();
+
+    /** Binary ids of the marks, by mark number. */
+    private byte[] _marks = new byte[0];
+
+    /** The stream being read. */
+    private InputStream _in;
+
+    /** A line read and given back, or null. */
+    private String _pushback;
+
+    /** A byte read and given back, or -1. */
+    private int _peek = -1;
+
+    /** The current line being read. */
+    private final ByteArrayOutputStream _line = new ByteArrayOutputStream();
+
+    /** Number of lines read. */
+    private int _lines;
+
+    /** Number of commits imported. */
+    private int _commits;
+
+    /** Number of blobs imported. */
+    private int _blobs;
+}
@@ -0,0 +1,243 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/** Making what a command wrote survive a crash, of the process or of
+ *  the machine.
+ *
+ *  Objects are written under temporary names and renamed into place, so
+ *  none is ever seen half-written, and each new object file is noted
+ *  here.  Rather than being synced one at a time as it is written, they
+ *  are group-committed by sync(), which forces all of them at once (in
+ *  parallel, so the disk sees one batch) and then each directory they
+ *  were put in once.
+ *
+ *  Changes to the small files of the repository state (see RepoState)
+ *  go through a write-ahead journal, DIR/journal: commit() first syncs
+ *  the objects, so no branch can name a commit that is not on disk,
+ *  then writes every changed file, with a checksum, into one journal,
+ *  forces it and renames it into place, which is the moment the changes
+ *  happen all together; only then are the files themselves replaced by
+ *  rename, unforced.  The journal is left behind until the next commit,
+ *  which forces the files it names before replacing it, and recover()
+ *  reapplies it if a crash left the files behind it.
+ *
+ *  Syncing can be turned off with -Dgitlet.fsync=false, which keeps the
+ *  journal and the renames but not the flushes.
+ *  @author Matt Chorlian
+ */
+class Journal {
+
+    /** Name of the journal in the directory it covers. */
+    static final String NAME = "journal";
+
+    /** True iff files are flushed to the disk. */
+    static final boolean SYNC =
+        !"false".equals(System.getProperty("gitlet.fsync"));
+
+    /** Magic number at the start of a journal. */
+    private static final int MAGIC = 0x474c4a4e;
+
+    /** Journal format version. */
+    private static final int VERSION = 1;
+
+    /** Notes that the object file F has just been written, so that the
+     *  next sync() flushes it. */
+    static void written(File f) {
+        synchronized (PENDING) {
+            PENDING.add(f);
+        }
+    }
+
+    /** Flushes every object file written since the last sync, and then
+     *  the directories they are in. */
+    static void sync() {
+        List<File> files;
+        synchronized (PENDING) {
+            files = new ArrayList<>(PENDING);
+            PENDING.clear();
+        }
+        if (!SYNC || files.isEmpty()) {
+            return;
+        }
+        Set<File> dirs = new LinkedHashSet<>();
+        List<Runnable> tasks = new ArrayList<>();
+        for (File f : files) {
+            File parent = f.getAbsoluteFile().getParentFile();
+            dirs.add(parent);
+            dirs.add(parent.getParentFile());
+            tasks.add(() -> force(f));
+        }
+        Materializer.run(tasks);
+        for (File dir : dirs) {
+            force(dir);
+        }
+    }
+
+    /** Makes FILES, mapping names of files in DIR to their new contents,
+     *  the contents of those files, all at once, after syncing the
+     *  objects written so far. */
+    static void commit(File dir, Map<String, byte[]> files) {
+        sync();
+        if (files.isEmpty()) {
+            return;
+        }
+        File journal = new File(dir, NAME);
+        if (SYNC && journal.exists()) {
+            for (String name : read(journal).keySet()) {
+                force(new File(dir, name));
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(files.size());
+            for (Map.Entry<String, byte[]> e : files.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().length);
+                out.write(e.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        File temp = Utils.tempFile(journal);
+        Utils.writeContents(temp, bytes.toByteArray(),
+                            longBytes(crc.getValue()));
+        if (SYNC) {
+            force(temp);
+        }
+        rename(temp, journal);
+        if (SYNC) {
+            force(dir);
+        }
+        apply(dir, files);
+    }
+
+    /** Replays the journal of DIR, if there is one, over the files it
+     *  names, so that they hold what was last committed.  A journal
+     *  that does not check out was never committed, and is ignored. */
+    static void recover(File dir) {
+        File journal = new File(dir, NAME);
+        if (!journal.exists()) {
+            return;
+        }
+        Map<String, byte[]> files = read(journal);
+        Map<String, byte[]> stale = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> e : files.entrySet()) {
+            File f = new File(dir, e.getKey());
+            if (!f.exists()
+                || !Arrays.equals(Utils.readContents(f), e.getValue())) {
+                stale.put(e.getKey(), e.getValue());
+            }
+        }
+        apply(dir, stale);
+    }
+
+    /** Replaces each of FILES, mapping names of files in DIR to contents,
+     *  by writing a temporary file and renaming it. */
+    private static void apply(File dir, Map<String, byte[]> files) {
+        for (Map.Entry<String, byte[]> e : files.entrySet()) {
+            File temp = Utils.tempFile(new File(dir, e.getKey()));
+            Utils.writeContents(temp, (Object) e.getValue());
+            rename(temp, new File(dir, e.getKey()));
+        }
+    }
+
+    /** Returns the files in JOURNAL, mapping names to contents, or
+     *  nothing if its checksum is wrong. */
+    private static Map<String, byte[]> read(File journal) {
+        byte[] contents = Utils.readContents(journal);
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        int body = contents.length - Long.BYTES;
+        if (body < 0) {
+            return result;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(contents, 0, body);
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(contents));
+        try {
+            in.skipNBytes(body);
+            if (in.readLong() != crc.getValue()) {
+                return result;
+            }
+            in = new DataInputStream(new ByteArrayInputStream(contents, 0,
+                                                              body));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return result;
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                result.put(name, data);
+            }
+        } catch (IOException excp) {
+            result.clear();
+        }
+        return result;
+    }
+
+    /** Returns the eight bytes of V, most significant first. */
+    private static byte[] longBytes(long v) {
+        byte[] result = new byte[Long.BYTES];
+        for (int i = Long.BYTES - 1; i >= 0; i -= 1) {
+            result[i] = (byte) v;
+            v >>>= Byte.SIZE;
+        }
+        return result;
+    }
+
+    /** Renames SOURCE to DEST atomically, replacing DEST. */
+    private static void rename(File source, File dest) {
+        try {
+            Files.move(source.toPath(), dest.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            source.delete();
+            throw new IllegalArgumentException("cannot write " + dest);
+        }
+    }
+
+    /** Flushes the file or directory F to the disk, if it still exists
+     *  and the platform lets directories be flushed. */
+    private static void force(File f) {
+        long start = Trace.start();
+        try (FileChannel channel = FileChannel.open(f.toPath(),
+                                                    StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (NoSuchFileException excp) {
+            return;
+        } catch (IOException excp) {
+            if (!f.isDirectory()) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        Trace.record("fsync", start, 0);
+    }
+
+    /** Object files written and not yet synced. */
+    private static final Set<File> PENDING = new LinkedHashSet<>();
+}
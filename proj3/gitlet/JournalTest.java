@@ -0,0 +1,139 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Journal, simulating crashes by editing the files it leaves.
+ *  @author Matt Chorlian
+ */
+public class JournalTest {
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Returns an empty directory. */
+    private static File tempDir() throws IOException {
+        return Files.createTempDirectory("gitlet-journal").toFile();
+    }
+
+    /** Deletes DIR and the files in it. */
+    private static void deleteDir(File dir) {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /** Commits files A and B of DIR with the contents CONTENTSA and
+     *  CONTENTSB. */
+    private static void commit(File dir, String contentsA,
+                               String contentsB) {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("a", contentsA.getBytes());
+        files.put("b", contentsB.getBytes());
+        Journal.commit(dir, files);
+    }
+
+    /** Returns the contents of file NAME of DIR. */
+    private static String contents(File dir, String name) {
+        return Utils.readContentsAsString(new File(dir, name));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void commitTest() throws IOException {
+        File dir = tempDir();
+        try {
+            commit(dir, "a1", "b1");
+            assertEquals("a1", contents(dir, "a"));
+            assertEquals("b1", contents(dir, "b"));
+            commit(dir, "a2", "b2");
+            Journal.recover(dir);
+            assertEquals("a2", contents(dir, "a"));
+            assertEquals("b2", contents(dir, "b"));
+            assertFalse(new File(dir, "a.tmp").exists());
+            Journal.commit(dir, new LinkedHashMap<>());
+            assertEquals("a2", contents(dir, "a"));
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void replayTest() throws IOException {
+        File dir = tempDir();
+        try {
+            commit(dir, "a1", "b1");
+            commit(dir, "a2", "b2");
+            Utils.writeContents(new File(dir, "a"), "a1");
+            new File(dir, "b").delete();
+            Journal.recover(dir);
+            assertEquals("a2", contents(dir, "a"));
+            assertEquals("b2", contents(dir, "b"));
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void tornTest() throws IOException {
+        File dir = tempDir();
+        try {
+            commit(dir, "a1", "b1");
+            File journal = new File(dir, Journal.NAME);
+            try (RandomAccessFile f = new RandomAccessFile(journal, "rw")) {
+                f.setLength(f.length() - 3);
+            }
+            Utils.writeContents(new File(dir, "a"), "a0");
+            Journal.recover(dir);
+            assertEquals("a0", contents(dir, "a"));
+            assertEquals("b1", contents(dir, "b"));
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void corruptTest() throws IOException {
+        File dir = tempDir();
+        try {
+            commit(dir, "a1", "b1");
+            File journal = new File(dir, Journal.NAME);
+            try (RandomAccessFile f = new RandomAccessFile(journal, "rw")) {
+                f.seek(f.length() / 2);
+                int b = f.read();
+                f.seek(f.length() / 2);
+                f.write(b ^ 1);
+            }
+            Utils.writeContents(new File(dir, "a"), "a0");
+            Journal.recover(dir);
+            assertEquals("a0", contents(dir, "a"));
+            Utils.writeContents(journal, new byte[3]);
+            Journal.recover(dir);
+            assertEquals("a0", contents(dir, "a"));
+            commit(dir, "a2", "b2");
+            assertEquals("a2", contents(dir, "a"));
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    @Test
+    public void missingTest() throws IOException {
+        File dir = tempDir();
+        try {
+            Journal.recover(dir);
+            assertEquals(0, dir.list().length);
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+}
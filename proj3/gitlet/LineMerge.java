@@ -0,0 +1,345 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** A three-way merge of text files, line by line.  Each version is
+ *  diffed against the split-point version with Myers' linear-space
+ *  algorithm, and the two diffs are walked together as in diff3: runs of
+ *  lines that are the same in all three versions are kept, a region that
+ *  changed on only one side takes that side, and only a region changed
+ *  differently on both sides becomes a conflict.
+ *
+ *  Contents are never turned into Strings.  The blobs are mapped (or,
+ *  if packed, inflated) as ByteBuffers, each line is reduced to an int
+ *  that is the same for equal lines, and the result is written by
+ *  copying ranges of bytes from the buffers.
+ *  @author Matt Chorlian
+ */
+class LineMerge {
+
+    /** Marker opening a conflict. */
+    private static final byte[] OURS =
+        "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Marker between the two sides of a conflict. */
+    private static final byte[] SEPARATOR =
+        "=======\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Marker closing a conflict. */
+    private static final byte[] THEIRS =
+        ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Size of the pieces in which bytes are copied out of a buffer. */
+    private static final int COPY_SIZE = 1 << 16;
+
+    /** Merges the blobs CURRENT and GIVEN, which both descend from BASE,
+     *  into DEST.  A null id stands for an empty file.  Returns true iff
+     *  there was a conflict. */
+    static boolean merge(String base, String current, String given,
+                         File dest) {
+        LineMerge m = new LineMerge();
+        Text b = m.read(base);
+        Text c = m.read(current);
+        Text g = m.read(given);
+        int[] toCurrent = diff(b.ids, c.ids);
+        int[] toGiven = diff(b.ids, g.ids);
+        try (OutputStream out =
+                 new BufferedOutputStream(new FileOutputStream(dest))) {
+            return m.write(b, c, g, toCurrent, toGiven, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns, for each element of A, the index of the element of B it
+     *  is matched with in a shortest edit script from A to B, or -1 if it
+     *  is deleted. */
+    static int[] diff(int[] a, int[] b) {
+        int[] match = new int[a.length];
+        Arrays.fill(match, -1);
+        int size = 2 * (a.length + b.length) + 2;
+        new Myers(a, b, match, new int[size], new int[size])
+            .compare(0, a.length, 0, b.length);
+        return match;
+    }
+
+    /** Writes the merge of C and G, matched against B by TOC and TOG, to
+     *  OUT.  Returns true iff there was a conflict. */
+    private boolean write(Text b, Text c, Text g, int[] toC, int[] toG,
+                          OutputStream out) throws IOException {
+        boolean conflict = false;
+        int i = 0, j = 0, k = 0;
+        while (i < b.size() || j < c.size() || k < g.size()) {
+            int run = i;
+            while (run < b.size() && toC[run] == j + run - i
+                   && toG[run] == k + run - i) {
+                run += 1;
+            }
+            if (run > i) {
+                copy(b, i, run, out);
+                j += run - i;
+                k += run - i;
+                i = run;
+                continue;
+            }
+            int i2 = i;
+            while (i2 < b.size() && (toC[i2] < 0 || toG[i2] < 0)) {
+                i2 += 1;
+            }
+            int j2 = i2 < b.size() ? toC[i2] : c.size();
+            int k2 = i2 < b.size() ? toG[i2] : g.size();
+            if (same(b, i, i2, c, j, j2)) {
+                copy(g, k, k2, out);
+            } else if (same(b, i, i2, g, k, k2) || same(c, j, j2, g, k, k2)) {
+                copy(c, j, j2, out);
+            } else {
+                conflict = true;
+                out.write(OURS);
+                terminate(c, j, j2, out);
+                out.write(SEPARATOR);
+                terminate(g, k, k2, out);
+                out.write(THEIRS);
+            }
+            i = i2;
+            j = j2;
+            k = k2;
+        }
+        return conflict;
+    }
+
+    /** Returns true iff lines [XLO, XHI) of X equal lines [YLO, YHI) of
+     *  Y. */
+    private static boolean same(Text x, int xLo, int xHi,
+                                Text y, int yLo, int yHi) {
+        if (xHi - xLo != yHi - yLo) {
+            return false;
+        }
+        for (int n = 0; n < xHi - xLo; n += 1) {
+            if (x.ids[xLo + n] != y.ids[yLo + n]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Copies lines [LO, HI) of T to OUT, ending them with a newline if
+     *  the last has none, so that a conflict marker can follow. */
+    private static void terminate(Text t, int lo, int hi, OutputStream out)
+        throws IOException {
+        copy(t, lo, hi, out);
+        int end = t.starts[hi];
+        if (hi > lo && t.buf.get(end - 1) != '\n') {
+            out.write('\n');
+        }
+    }
+
+    /** Copies lines [LO, HI) of T to OUT. */
+    private static void copy(Text t, int lo, int hi, OutputStream out)
+        throws IOException {
+        byte[] piece = new byte[COPY_SIZE];
+        for (int p = t.starts[lo]; p < t.starts[hi]; p += COPY_SIZE) {
+            int n = Math.min(COPY_SIZE, t.starts[hi] - p);
+            t.buf.get(p, piece, 0, n);
+            out.write(piece, 0, n);
+        }
+    }
+
+    /** Returns the lines of the blob SHA, or no lines if SHA is null. */
+    private Text read(String sha) {
+        ByteBuffer buf = sha == null ? ByteBuffer.allocate(0)
+            : ObjectStore.mapBlob(sha);
+        int n = 0;
+        int limit = buf.limit();
+        for (int p = 0; p < limit; p += 1) {
+            if (buf.get(p) == '\n') {
+                n += 1;
+            }
+        }
+        if (limit > 0 && buf.get(limit - 1) != '\n') {
+            n += 1;
+        }
+        Text t = new Text(buf, n);
+        for (int p = 0, line = 0; p < limit; p += 1) {
+            if (buf.get(p) == '\n' || p == limit - 1) {
+                line += 1;
+                t.starts[line] = p + 1;
+            }
+        }
+        for (int line = 0; line < n; line += 1) {
+            Line key = new Line(buf, t.starts[line], t.starts[line + 1]);
+            Integer id = _ids.putIfAbsent(key, _ids.size());
+            t.ids[line] = id == null ? _ids.size() - 1 : id;
+        }
+        return t;
+    }
+
+    /** The lines of one version of a file. */
+    private static class Text {
+        /** A text of N lines held in BUF. */
+        Text(ByteBuffer buf, int n) {
+            this.buf = buf;
+            starts = new int[n + 1];
+            ids = new int[n];
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return ids.length;
+        }
+
+        /** The contents. */
+        private final ByteBuffer buf;
+        /** Where each line starts, followed by the end of the last. */
+        private final int[] starts;
+        /** The id of each line's contents. */
+        private final int[] ids;
+    }
+
+    /** The contents of a line, as a key for the ids of distinct lines. */
+    private static class Line {
+        /** The bytes [START, END) of BUF. */
+        Line(ByteBuffer buf, int start, int end) {
+            _buf = buf;
+            _start = start;
+            _end = end;
+            int h = 1;
+            for (int p = start; p < end; p += 1) {
+                h = 31 * h + buf.get(p);
+            }
+            _hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Line)) {
+                return false;
+            }
+            Line o = (Line) obj;
+            return _hash == o._hash && _end - _start == o._end - o._start
+                && _buf.slice(_start, _end - _start)
+                .equals(o._buf.slice(o._start, o._end - o._start));
+        }
+
+        /** Where the line is. */
+        private final ByteBuffer _buf;
+        /** Its first byte. */
+        private final int _start;
+        /** Just past its last byte. */
+        private final int _end;
+        /** Hash of its contents. */
+        private final int _hash;
+    }
+
+    /** Myers' O(ND) difference algorithm, in its linear-space form: each
+     *  step finds the middle snake of an optimal path by searching from
+     *  both ends at once, then solves the two halves. */
+    private static class Myers {
+        /** Matches A against B into MATCH, using FORWARD and BACKWARD as
+         *  the furthest-reaching vectors. */
+        Myers(int[] a, int[] b, int[] match, int[] forward, int[] backward) {
+            _a = a;
+            _b = b;
+            _match = match;
+            _forward = forward;
+            _backward = backward;
+        }
+
+        /** Matches A[ALO, AHI) against B[BLO, BHI). */
+        void compare(int aLo, int aHi, int bLo, int bHi) {
+            while (aLo < aHi && bLo < bHi && _a[aLo] == _b[bLo]) {
+                _match[aLo++] = bLo++;
+            }
+            while (aLo < aHi && bLo < bHi && _a[aHi - 1] == _b[bHi - 1]) {
+                _match[--aHi] = --bHi;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                return;
+            }
+            int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+            compare(aLo, snake[0], bLo, snake[1]);
+            for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1) {
+                _match[x] = y++;
+            }
+            compare(snake[2], aHi, snake[3], bHi);
+        }
+
+        /** Returns the start and end {X, Y, U, V} of the middle snake of
+         *  an optimal path from (ALO, BLO) to (AHI, BHI). */
+        private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo, m = bHi - bLo;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int mid = (n + m + 1) / 2;
+            int off = mid + 1;
+            _forward[off + 1] = 0;
+            _backward[off + 1] = 0;
+            for (int d = 0; d <= mid; d += 1) {
+                for (int k = -d; k <= d; k += 2) {
+                    int x = k == -d || k != d
+                        && _forward[off + k - 1] < _forward[off + k + 1]
+                        ? _forward[off + k + 1] : _forward[off + k - 1] + 1;
+                    int x0 = x, y0 = x - k;
+                    int y = y0;
+                    while (x < n && y < m && _a[aLo + x] == _b[bLo + y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    _forward[off + k] = x;
+                    int c = delta - k;
+                    if (odd && c >= -(d - 1) && c <= d - 1
+                        && x + _backward[off + c] >= n) {
+                        return new int[] {aLo + x0, bLo + y0,
+                                          aLo + x, bLo + y};
+                    }
+                }
+                for (int c = -d; c <= d; c += 2) {
+                    int x = c == -d || c != d
+                        && _backward[off + c - 1] < _backward[off + c + 1]
+                        ? _backward[off + c + 1] : _backward[off + c - 1] + 1;
+                    int x0 = x, y0 = x - c;
+                    int y = y0;
+                    while (x < n && y < m
+                           && _a[aHi - 1 - x] == _b[bHi - 1 - y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    _backward[off + c] = x;
+                    int k = delta - c;
+                    if (!odd && k >= -d && k <= d
+                        && x + _forward[off + k] >= n) {
+                        return new int[] {aHi - x, bHi - y,
+                                          aHi - x0, bHi - y0};
+                    }
+                }
+            }
+            throw new IllegalArgumentException("no middle snake");
+        }
+
+        /** The first sequence. */
+        private final int[] _a;
+        /** The second sequence. */
+        private final int[] _b;
+        /** For each element of _a, its match in _b or -1. */
+        private final int[] _match;
+        /** Furthest x reached on each diagonal from the start. */
+        private final int[] _forward;
+        /** Furthest distance reached on each diagonal from the end. */
+        private final int[] _backward;
+    }
+
+    /** Ids of the distinct lines seen, shared by the three versions. */
+    private final HashMap<Line, Integer> _ids = new HashMap<>();
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.File;
+import java.util.Arrays;
 
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
@@ -13,39 +14,108 @@ public class Main {
     /** the gitlet repository. **/
     private static Gitlet git;
 
-    /** the path to the repo. **/
-    private static final String REPOPATH = ".gitlet/repo";
-
-    /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
+    /** Usage: java gitlet.Main [--trace] ARGS, where ARGS contains
+     *  <COMMAND> <OPERAND> ....  With --trace, the command runs here
+     *  even if a daemon is up, which is then told to reload, and a
+     *  summary of where its time went is printed on the standard
+     *  error. */
     public static void main(String... args) {
-        File save = new File(REPOPATH);
-        File gitlet = new File(".gitlet");
+        boolean trace = args.length > 0 && args[0].equals("--trace");
+        if (trace) {
+            Trace.enable();
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        Trace.begin();
+        boolean ok = true;
         try {
-            if (args.length == 0) {
-                Utils.message("Please enter a command.");
-                throw new GitletException();
-            }
-            if (args[0].equals("init")) {
-                git = new Gitlet();
-                git.init();
-                Utils.writeObject(save, git);
-            } else if (gitlet.exists()) {
-                git = Utils.readObject(save, Gitlet.class);
-                argHelper(args);
-                File saveagain = new File(REPOPATH);
-                Utils.writeObject(saveagain, git);
-            } else if (!gitlet.exists() || !gitlet.isDirectory()) {
-                Utils.message("Not in an initialized Gitlet directory.");
-                throw new GitletException();
-            }
-
+            run(trace, args);
         } catch (GitletException e) {
+            ok = false;
+        }
+        Trace.finish(args, ok);
+        if (!ok) {
             System.exit(0);
         }
     }
 
+    /** RUN.
+     * Runs the command ARGS, handing it to a running daemon unless
+     * TRACE.
+     * @param trace
+     * true if the command is being traced
+     * @param args
+     * the arguments inputted
+     * **/
+    private static void run(boolean trace, String... args) {
+        File gitlet = new File(".gitlet");
+        if (args.length == 0) {
+            Utils.message("Please enter a command.");
+            throw new GitletException();
+        }
+        if (args[0].equals("init")) {
+            git = new Gitlet();
+            git.init();
+            git.save();
+        } else if (gitlet.exists()) {
+            GarbageCollector.recover();
+            if (!trace && !plumbing(args[0]) && Daemon.forward(args)) {
+                return;
+            }
+            git = new Gitlet();
+            argHelper(args);
+            git.save();
+            StatCache.flush();
+            if (trace) {
+                Daemon.reload();
+            }
+        } else if (!gitlet.exists() || !gitlet.isDirectory()) {
+            Utils.message("Not in an initialized Gitlet directory.");
+            throw new GitletException();
+        }
+    }
+
+
+
+    /** PLUMBING.
+     * @param command
+     * the name of a command
+     * @return true iff the command reads the standard input, as to talk
+     * to another repository, or writes a stream of bytes to the standard
+     * output, and so must not be forwarded
+     * **/
+    private static boolean plumbing(String command) {
+        return command.equals("upload-pack")
+            || command.equals("receive-pack")
+            || command.equals("import")
+            || command.equals("export")
+            || command.equals("archive");
+    }
+
+    /** EXECUTE.
+     * Runs a command against a repository kept by the caller.
+     * @param repo
+     * the repository
+     * @param args
+     * the arguments inputted
+     * **/
+    static void execute(Gitlet repo, String... args) {
+        git = repo;
+        argHelper(args);
+    }
 
+    /** OPERANDS.
+     * Checks that a command was given the right number of operands.
+     * @param args
+     * the arguments inputted, the command first
+     * @param count
+     * the number of operands the command takes
+     * **/
+    private static void operands(String[] args, int count) {
+        if (args.length != count + 1) {
+            Utils.message("Incorrect operands.");
+            throw new GitletException();
+        }
+    }
 
     /** ARGS HELPER.
      * @param args
@@ -55,7 +125,7 @@ public class Main {
 
         switch (args[0]) {
         case "add":
-            git.add(args[1]);
+            git.add(Arrays.copyOfRange(args, 1, args.length));
             break;
         case "commit":
             git.commit(args[1]);
@@ -64,13 +134,13 @@ public class Main {
             git.rm(args[1]);
             break;
         case "log":
-            git.log();
+            git.log(Arrays.copyOfRange(args, 1, args.length));
             break;
         case "global-log":
             git.globalLog(args);
             break;
         case "find":
-            git.find(args[1]);
+            git.find(Arrays.copyOfRange(args, 1, args.length));
             break;
         case "status":
             git.status();
@@ -90,6 +160,56 @@ public class Main {
         case "merge":
             git.merge(args[1]);
             break;
+        case "repack":
+            git.repack();
+            break;
+        case "gc":
+            git.gc();
+            break;
+        case "migrate":
+            git.migrate();
+            break;
+        case "add-remote":
+            operands(args, 2);
+            git.addRemote(args[1], args[2]);
+            break;
+        case "rm-remote":
+            operands(args, 1);
+            git.rmRemote(args[1]);
+            break;
+        case "push":
+            operands(args, 2);
+            git.push(args[1], args[2]);
+            break;
+        case "fetch":
+            operands(args, 2);
+            git.fetch(args[1], args[2]);
+            break;
+        case "pull":
+            operands(args, 2);
+            git.pull(args[1], args[2]);
+            break;
+        case "upload-pack":
+            git.uploadPack();
+            break;
+        case "receive-pack":
+            git.receivePack();
+            break;
+        case "import":
+            git.importStream(Arrays.copyOfRange(args, 1, args.length));
+            break;
+        case "export":
+            git.export();
+            break;
+        case "fsck":
+            git.fsck();
+            break;
+        case "archive":
+            git.archive(Arrays.copyOfRange(args, 1, args.length));
+            break;
+        case "daemon":
+            Daemon.main(Arrays.copyOfRange(args, 1, args.length));
+            break;
         default:
             Utils.message("No command with that name exists");
             throw new GitletException();
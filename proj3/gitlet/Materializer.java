@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Writes files from the object store into the working directory, and
+ *  deletes stale ones, on a bounded pool of worker threads, so that
+ *  checking out many files is limited by the disk rather than by one
+ *  thread.  The number of workers is the gitlet.checkoutWorkers system
+ *  property, or else the number of processors.
+ *  @author Matt Chorlian
+ */
+class Materializer {
+
+    /** Fewest files worth starting threads for. */
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    /** Returns the configured number of workers. */
+    static int workers() {
+        return Math.max(1, Integer.getInteger("gitlet.checkoutWorkers",
+            Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Deletes each file in STALE and writes each file named in FILES
+     *  with the contents of the blob it maps to, recording the written
+     *  files in the stat cache.  All the deletes finish before any write
+     *  starts, since deleting a file also deletes the directories it
+     *  leaves empty, which a write may have just made. */
+    static void materialize(List<File> stale, Map<String, String> files) {
+        ObjectStore.packs();
+        StatCache.get();
+        List<Runnable> deletes = new ArrayList<>();
+        for (File f : stale) {
+            deletes.add(() -> {
+                Utils.deleteWorkingFile(f.getPath());
+                StatCache.get().remove(f.getPath());
+            });
+        }
+        run(deletes);
+        List<Runnable> tasks = new ArrayList<>();
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            tasks.add(() -> {
+                File dest = new File(e.getKey());
+                File parent = dest.getParentFile();
+                if (parent != null) {
+                    parent.mkdirs();
+                }
+                ObjectStore.copyBlob(e.getValue(), dest);
+                StatCache.get().record(e.getKey(), e.getValue());
+            });
+        }
+        run(tasks);
+    }
+
+    /** Runs TASKS, in parallel if there are enough of them, rethrowing the
+     *  first failure once all have finished. */
+    static void run(List<Runnable> tasks) {
+        int n = workers();
+        if (n == 1 || tasks.size() < PARALLEL_THRESHOLD) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(n);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (Runnable task : tasks) {
+                results.add(pool.submit(task));
+            }
+            RuntimeException failure = null;
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException excp) {
+                    if (failure == null) {
+                        failure = excp.getCause() instanceof RuntimeException
+                            ? (RuntimeException) excp.getCause()
+                            : new IllegalArgumentException(excp.getCause());
+                    }
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalArgumentException("interrupted");
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,591 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/** The messages and dates of all commits, so that find and global-log
+ *  never have to deserialize a commit.  .gitlet/messages is append-only:
+ *  after a header, each commit written adds one record holding its
+ *  binary id, its timestamp and its message, followed by a CRC32 of the
+ *  record and its length.  Commands that only add commits read nothing
+ *  but the last record, and only global-log and find --grep read them
+ *  all.
+ *
+ *  find and find --word are answered from .gitlet/message-terms, which
+ *  covers the records in the first part of .gitlet/messages: after a
+ *  header, it holds the ids of those commits in order, a table of terms
+ *  (whole messages and lower-case words, each identified by the first
+ *  KEY_SIZE bytes of a SHA-1 of its kind and text) sorted by key, and,
+ *  for each term in turn, the positions of the commits that have it.
+ *  It is memory-mapped and binary-searched, and the records appended
+ *  since it was written are scanned; once they take up more than
+ *  TAIL_LIMIT bytes, the next query writes the file afresh.
+ *
+ *  A crash while appending can leave a torn last record, so the first
+ *  use of the file in a command checks that the last record is whole,
+ *  and if it is not, or the file is in an older format, rebuilds the
+ *  file from the object store before anything is appended after it.
+ *  Reading stops at any other record whose checksum or length is wrong,
+ *  cutting the file back to the records before it.
+ *  @author Matt Chorlian
+ */
+class MessageIndex {
+
+    /** The index file. */
+    static final File MESSAGES = new File(".gitlet/messages");
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x474c4d49;
+
+    /** Format version. */
+    private static final int VERSION = 2;
+
+    /** Size of the header. */
+    private static final int HEADER = 8;
+
+    /** Size of the checksum and length after each record. */
+    private static final int TRAILER = 8;
+
+    /** Size of the raw form of an id. */
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+
+    /** The term index. */
+    static final File TERMS = new File(".gitlet/message-terms");
+
+    /** Bytes of records past those TERMS covers beyond which TERMS is
+     *  written afresh. */
+    static final long TAIL_LIMIT = 1 << 16;
+
+    /** Magic number at the start of TERMS. */
+    private static final int TERMS_MAGIC = 0x474c4d54;
+
+    /** Format version of TERMS. */
+    private static final int TERMS_VERSION = 1;
+
+    /** Size of the header of TERMS: magic, version, length of MESSAGES
+     *  covered, and the numbers of commits, terms and postings. */
+    private static final int TERMS_HEADER = 28;
+
+    /** Size of the key of a term. */
+    private static final int KEY_SIZE = 12;
+
+    /** Size of an entry in the term table: key, first posting. */
+    private static final int TERM_ENTRY = KEY_SIZE + Integer.BYTES;
+
+    /** Kind of term: a whole message. */
+    private static final byte MESSAGE_TERM = 0;
+
+    /** Kind of term: a lower-case word of a message. */
+    private static final byte WORD_TERM = 1;
+
+    /** Returns the message index of this repository, building it from the
+     *  object store if this repository does not have one yet. */
+    static MessageIndex get() {
+        if (_index == null) {
+            if (!MESSAGES.exists() || !current() || !lastRecordWhole()) {
+                rebuild();
+            }
+            _index = new MessageIndex();
+        }
+        return _index;
+    }
+
+    /** Forgets the index read so far, so that get() reads it again. */
+    static void reset() {
+        _index = null;
+    }
+
+    /** Rewrites the index to hold exactly the commits in the store. */
+    static void rebuild() {
+        File temp = Utils.tempFile(MESSAGES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(header());
+        for (String id : ObjectStore.commitIds()) {
+            out.writeBytes(record(ObjectStore.readCommit(id)));
+        }
+        Utils.writeContents(temp, (Object) out.toByteArray());
+        if (!temp.renameTo(MESSAGES)) {
+            throw new IllegalArgumentException("cannot install "
+                                               + MESSAGES);
+        }
+        Journal.written(MESSAGES);
+        TERMS.delete();
+        _index = null;
+    }
+
+    /** An index whose records are read from MESSAGES when first
+     *  needed. */
+    private MessageIndex() {
+    }
+
+    /** Records commit C, unless it is already recorded. */
+    void add(Commit c) {
+        if (_loaded) {
+            if (_positions.containsKey(c.getSha1())) {
+                return;
+            }
+            append(c.getSha1(), c.getTime(), c.getMessage());
+        }
+        byte[] record = record(c);
+        try (FileOutputStream out = new FileOutputStream(MESSAGES, true)) {
+            out.write(record);
+            _end += record.length;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.written(MESSAGES);
+    }
+
+    /** Returns the number of commits recorded. */
+    int size() {
+        load();
+        return _ids.size();
+    }
+
+    /** Returns the id of the Kth commit recorded. */
+    String id(int k) {
+        load();
+        return _ids.get(k);
+    }
+
+    /** Returns the timestamp of the Kth commit recorded. */
+    String time(int k) {
+        load();
+        return _times.get(k);
+    }
+
+    /** Returns the message of the Kth commit recorded. */
+    String message(int k) {
+        load();
+        return _messages.get(k);
+    }
+
+    /** Returns the ids of the commits whose message is MESSAGE. */
+    List<String> find(String message) {
+        return lookup(key(MESSAGE_TERM, message), message::equals);
+    }
+
+    /** Returns the ids of the commits whose message contains the word
+     *  WORD, ignoring case. */
+    List<String> findWord(String word) {
+        String lower = word.toLowerCase(Locale.ROOT);
+        return lookup(key(WORD_TERM, lower),
+                      message -> words(message).contains(lower));
+    }
+
+    /** Returns the ids of the commits whose message contains TEXT. */
+    List<String> findSubstring(String text) {
+        load();
+        List<String> result = new ArrayList<>();
+        for (int k = 0; k < _messages.size(); k += 1) {
+            if (_messages.get(k).contains(text)) {
+                result.add(_ids.get(k));
+            }
+        }
+        return result;
+    }
+
+    /** Reads the records of MESSAGES, if not done yet, cutting the file
+     *  back to the last whole record. */
+    private void load() {
+        if (_loaded) {
+            return;
+        }
+        _loaded = true;
+        byte[] contents = Utils.readContents(MESSAGES);
+        _end = records(contents, HEADER, (sha, time, message) -> {
+            if (!_positions.containsKey(sha)) {
+                append(sha, time, message);
+            }
+        });
+        if (_end < contents.length) {
+            truncate(_end);
+        }
+    }
+
+    /** Calls ACTION on each whole record of CONTENTS from offset START
+     *  on, returning the offset at which the whole records end. */
+    private static int records(byte[] contents, int start,
+                               RecordAction action) {
+        int end = start;
+        while (end < contents.length) {
+            int length = whole(contents, end);
+            if (length < 0) {
+                break;
+            }
+            try (DataInputStream in = new DataInputStream(
+                     new ByteArrayInputStream(contents, end, length))) {
+                byte[] id = new byte[ID_SIZE];
+                in.readFully(id);
+                String time = in.readUTF();
+                byte[] message = new byte[in.readInt()];
+                in.readFully(message);
+                action.accept(Utils.sha1Hex(id, 0), time,
+                              new String(message, StandardCharsets.UTF_8));
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            end += length + TRAILER;
+        }
+        return end;
+    }
+
+    /** Returns the ids of the commits that have the term whose key is
+     *  KEY, in the order recorded: those TERMS lists, then those of the
+     *  records after it whose message MATCHES. */
+    private List<String> lookup(byte[] key, Predicate<String> matches) {
+        MappedByteBuffer terms = terms();
+        int commits = terms.getInt(16), count = terms.getInt(20),
+            postings = terms.getInt(24);
+        int table = TERMS_HEADER + commits * ID_SIZE;
+        int lists = table + count * TERM_ENTRY;
+        Set<String> result = new LinkedHashSet<>();
+        int k = lowerBound(terms, table, count, key);
+        if (k < count && compareKey(terms, table + k * TERM_ENTRY, key) == 0) {
+            int first = terms.getInt(table + k * TERM_ENTRY + KEY_SIZE);
+            int last = k + 1 == count ? postings
+                : terms.getInt(table + (k + 1) * TERM_ENTRY + KEY_SIZE);
+            byte[] id = new byte[ID_SIZE];
+            for (int i = first; i < last; i += 1) {
+                int pos = terms.getInt(lists + i * Integer.BYTES);
+                terms.get(TERMS_HEADER + pos * ID_SIZE, id);
+                result.add(Utils.sha1Hex(id, 0));
+            }
+        }
+        records(tail(terms.getLong(8)), 0, (sha, time, message) -> {
+            if (matches.test(message)) {
+                result.add(sha);
+            }
+        });
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the index of the first of the COUNT entries of the term
+     *  table at offset TABLE of TERMS whose key is not less than KEY. */
+    private static int lowerBound(ByteBuffer terms, int table, int count,
+                                  byte[] key) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKey(terms, table + mid * TERM_ENTRY, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compares the key at offset POS of TERMS with KEY. */
+    private static int compareKey(ByteBuffer terms, int pos, byte[] key) {
+        for (int i = 0; i < KEY_SIZE; i += 1) {
+            int c = (terms.get(pos + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the bytes of MESSAGES from offset START on. */
+    private static byte[] tail(long start) {
+        try (RandomAccessFile f = new RandomAccessFile(MESSAGES, "r")) {
+            byte[] result = new byte[(int) (f.length() - start)];
+            f.seek(start);
+            f.readFully(result);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns TERMS, mapped, first writing it afresh if it is missing or
+     *  damaged, covers more of MESSAGES than there is, or leaves more
+     *  than TAIL_LIMIT bytes of it uncovered. */
+    private MappedByteBuffer terms() {
+        if (_terms == null) {
+            _terms = mapTerms();
+            long length = MESSAGES.length();
+            if (_terms == null || _terms.getLong(8) > length
+                || length - _terms.getLong(8) > TAIL_LIMIT) {
+                writeTerms();
+                _terms = mapTerms();
+                if (_terms == null) {
+                    throw new IllegalArgumentException("cannot write "
+                                                       + TERMS);
+                }
+            }
+        }
+        return _terms;
+    }
+
+    /** Returns TERMS, mapped, or null if it is missing or damaged. */
+    private static MappedByteBuffer mapTerms() {
+        if (!TERMS.exists()) {
+            return null;
+        }
+        MappedByteBuffer result;
+        try (RandomAccessFile f = new RandomAccessFile(TERMS, "r")) {
+            if (f.length() < TERMS_HEADER) {
+                return null;
+            }
+            result = f.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                        0, f.length());
+        } catch (IOException excp) {
+            return null;
+        }
+        long size = TERMS_HEADER + (long) result.getInt(16) * ID_SIZE
+            + (long) result.getInt(20) * TERM_ENTRY
+            + (long) result.getInt(24) * Integer.BYTES;
+        if (result.getInt(0) != TERMS_MAGIC
+            || result.getInt(4) != TERMS_VERSION
+            || size != result.capacity()) {
+            return null;
+        }
+        return result;
+    }
+
+    /** Writes TERMS for all the records of MESSAGES. */
+    private void writeTerms() {
+        load();
+        TreeMap<String, List<Integer>> postings = new TreeMap<>();
+        for (int k = 0; k < _messages.size(); k += 1) {
+            String message = _messages.get(k);
+            postings.computeIfAbsent(hexKey(MESSAGE_TERM, message),
+                                     t -> new ArrayList<>()).add(k);
+            for (String word : words(message)) {
+                postings.computeIfAbsent(hexKey(WORD_TERM, word),
+                                         t -> new ArrayList<>()).add(k);
+            }
+        }
+        int count = 0;
+        for (List<Integer> list : postings.values()) {
+            count += list.size();
+        }
+        ByteBuffer out = ByteBuffer.allocate(TERMS_HEADER
+                                             + _ids.size() * ID_SIZE
+                                             + postings.size() * TERM_ENTRY
+                                             + count * Integer.BYTES);
+        out.putInt(TERMS_MAGIC).putInt(TERMS_VERSION).putLong(_end)
+            .putInt(_ids.size()).putInt(postings.size()).putInt(count);
+        for (String id : _ids) {
+            out.put(Utils.sha1Bytes(id));
+        }
+        int first = 0;
+        for (Map.Entry<String, List<Integer>> e : postings.entrySet()) {
+            out.put(Utils.sha1Bytes(e.getKey()), 0, KEY_SIZE);
+            out.putInt(first);
+            first += e.getValue().size();
+        }
+        for (List<Integer> list : postings.values()) {
+            for (int k : list) {
+                out.putInt(k);
+            }
+        }
+        try {
+            Path temp = Utils.tempFile(TERMS).toPath();
+            Files.write(temp, out.array());
+            Files.move(temp, TERMS.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("cannot write " + TERMS);
+        }
+        Journal.written(TERMS);
+    }
+
+    /** Returns the key of the term of kind KIND and text TEXT, as the
+     *  hex form of a full SHA-1 whose first KEY_SIZE bytes are it. */
+    private static String hexKey(byte kind, String text) {
+        return Utils.sha1(new byte[] {kind},
+                          text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the key of the term of kind KIND and text TEXT. */
+    private static byte[] key(byte kind, String text) {
+        return Arrays.copyOf(Utils.sha1Bytes(hexKey(kind, text)), KEY_SIZE);
+    }
+
+    /** Returns the distinct lower-case words of MESSAGE, in order. */
+    private static Set<String> words(String message) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String word : message.toLowerCase(Locale.ROOT)
+                 .split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** Something done with each record read. */
+    private interface RecordAction {
+        /** Does it with the record of commit SHA, made at TIME, whose
+         *  message is MESSAGE. */
+        void accept(String sha, String time, String message);
+    }
+
+    /** Returns the length of the record at offset START of CONTENTS, or
+     *  -1 if it is not whole: if it is cut short, or its checksum or
+     *  length is wrong. */
+    private static int whole(byte[] contents, int start) {
+        ByteBuffer buf = ByteBuffer.wrap(contents);
+        long left = contents.length - start;
+        int time = ID_SIZE;
+        if (left < time + Short.BYTES) {
+            return -1;
+        }
+        int size = time + Short.BYTES + (buf.getShort(start + time) & 0xffff);
+        if (left < size + Integer.BYTES) {
+            return -1;
+        }
+        long length = size + Integer.BYTES + buf.getInt(start + size);
+        if (length < size || left < length + TRAILER) {
+            return -1;
+        }
+        int n = (int) length;
+        if (buf.getInt(start + n + Integer.BYTES) != n
+            || buf.getInt(start + n) != crc(contents, start, n)) {
+            return -1;
+        }
+        return n;
+    }
+
+    /** Returns true iff MESSAGES has no records or ends with a whole
+     *  one. */
+    private static boolean lastRecordWhole() {
+        try (RandomAccessFile f = new RandomAccessFile(MESSAGES, "r")) {
+            long size = f.length();
+            if (size == HEADER) {
+                return true;
+            }
+            if (size < HEADER + TRAILER) {
+                return false;
+            }
+            f.seek(size - Integer.BYTES);
+            long length = f.readInt();
+            long start = size - TRAILER - length;
+            if (length <= 0 || start < HEADER) {
+                return false;
+            }
+            byte[] record = new byte[(int) (length + TRAILER)];
+            f.seek(start);
+            f.readFully(record);
+            return whole(record, 0) == length;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns true iff MESSAGES begins with the current header. */
+    private static boolean current() {
+        try (DataInputStream in = new DataInputStream(
+                 new FileInputStream(MESSAGES))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Cuts MESSAGES back to its first SIZE bytes. */
+    private static void truncate(long size) {
+        try (RandomAccessFile f = new RandomAccessFile(MESSAGES, "rw")) {
+            f.setLength(size);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.written(MESSAGES);
+        TERMS.delete();
+    }
+
+    /** Returns the CRC32 of the LENGTH bytes of DATA at START. */
+    private static int crc(byte[] data, int start, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, start, length);
+        return (int) crc.getValue();
+    }
+
+    /** Returns the header of the file. */
+    private static byte[] header() {
+        return ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION)
+            .array();
+    }
+
+    /** Adds commit ID with timestamp TIME and message MESSAGE to the
+     *  in-memory tables. */
+    private void append(String id, String time, String message) {
+        int k = _ids.size();
+        _ids.add(id);
+        _times.add(time);
+        _messages.add(message);
+        _positions.put(id, k);
+    }
+
+    /** Returns the index record for commit C, with its trailer. */
+    private static byte[] record(Commit c) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            byte[] message = c.getMessage().getBytes(StandardCharsets.UTF_8);
+            out.write(Utils.sha1Bytes(c.getSha1()));
+            out.writeUTF(c.getTime());
+            out.writeInt(message.length);
+            out.write(message);
+            int length = out.size();
+            out.writeInt(crc(bytes.toByteArray(), 0, length));
+            out.writeInt(length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Commit ids, in the order recorded. */
+    private final List<String> _ids = new ArrayList<>();
+
+    /** Commit timestamps, in the order recorded. */
+    private final List<String> _times = new ArrayList<>();
+
+    /** Commit messages, in the order recorded. */
+    private final List<String> _messages = new ArrayList<>();
+
+    /** Positions of commits, by id. */
+    private final HashMap<String, Integer> _positions = new HashMap<>();
+
+    /** True iff the records of the file have been read. */
+    private boolean _loaded;
+
+    /** Length of the whole records of the file read, and appended since,
+     *  if they have been read. */
+    private int _end;
+
+    /** The term index, mapped, or null if not mapped yet. */
+    private MappedByteBuffer _terms;
+
+    /** The index read so far, or null. */
+    private static MessageIndex _index;
+}
@@ -0,0 +1,317 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/** A sorted list of the ids of all objects in the repository, used to
+ *  resolve abbreviated ids without listing directories.
+ *  .gitlet/object-index holds a header and then fixed-width records (the
+ *  binary id and the object's type, as in PackFile) sorted by id; it is
+ *  memory-mapped and binary-searched.  Objects written since the index
+ *  was last sorted are appended to .gitlet/object-index.log, which is
+ *  small and scanned linearly, and which is merged into the sorted index
+ *  once it grows past LOG_LIMIT records.
+ *  @author Matt Chorlian
+ */
+class ObjectIndex {
+
+    /** The sorted index. */
+    static final File INDEX = new File(".gitlet/object-index");
+
+    /** Records not yet merged into INDEX. */
+    static final File LOG = new File(".gitlet/object-index.log");
+
+    /** Largest number of records kept in LOG. */
+    static final int LOG_LIMIT = 1024;
+
+    /** Magic number at the start of INDEX. */
+    private static final int MAGIC = 0x474c4f49;
+
+    /** Format version. */
+    private static final int VERSION = 1;
+
+    /** Size of the header: magic, version, count. */
+    private static final int HEADER = 12;
+
+    /** Size of the raw form of an id. */
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+
+    /** Size of a record: id and type. */
+    private static final int RECORD = ID_SIZE + 1;
+
+    /** Returns the object index of this repository, building it from the
+     *  object store if this repository does not have one yet. */
+    static ObjectIndex get() {
+        if (_index == null) {
+            if (!INDEX.exists() && !LOG.exists()) {
+                rebuild();
+            }
+            _index = new ObjectIndex();
+        }
+        return _index;
+    }
+
+    /** Forgets the index read so far, so that get() reads it again. */
+    static void reset() {
+        _index = null;
+    }
+
+    /** Rewrites the index to hold exactly the objects in the store. */
+    static void rebuild() {
+        List<byte[]> records = new ArrayList<>();
+        for (String id : ObjectStore.commitIds()) {
+            records.add(record(id, PackFile.COMMIT));
+        }
+        for (File dir : new File[] {ObjectStore.BLOBS, ChunkStore.LISTS}) {
+            for (String id : ObjectStore.looseIds(dir)) {
+                records.add(record(id, PackFile.BLOB));
+            }
+        }
+        for (String id : ObjectStore.looseIds(ObjectStore.TREES)) {
+            records.add(record(id, PackFile.TREE));
+        }
+        for (PackFile pack : ObjectStore.packs()) {
+            for (int type : new int[] {PackFile.BLOB, PackFile.TREE}) {
+                for (String id : pack.ids(type)) {
+                    records.add(record(id, type));
+                }
+            }
+        }
+        writeSorted(records);
+        LOG.delete();
+        _index = null;
+    }
+
+    /** An index read from INDEX and LOG.  A record of LOG torn by a
+     *  crash while it was appended is cut off, so that the next one is
+     *  written where it belongs. */
+    private ObjectIndex() {
+        load();
+        if (LOG.exists()) {
+            byte[] log = Utils.readContents(LOG);
+            int whole = log.length - log.length % RECORD;
+            for (int i = 0; i < whole; i += RECORD) {
+                _log.put(Utils.sha1Hex(log, i), (int) log[i + ID_SIZE]);
+            }
+            if (whole < log.length) {
+                try (RandomAccessFile f = new RandomAccessFile(LOG, "rw")) {
+                    f.setLength(whole);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                Journal.written(LOG);
+            }
+        }
+    }
+
+    /** Maps the sorted index into memory. */
+    private void load() {
+        _count = 0;
+        if (INDEX.exists()) {
+            try (RandomAccessFile f = new RandomAccessFile(INDEX, "r")) {
+                _table = f.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                            0, f.length());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            if (_table.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException("bad object index");
+            }
+            _count = _table.getInt(8);
+        }
+    }
+
+    /** Records that the object SHA of type TYPE has been stored. */
+    void add(String sha, int type) {
+        addAll(List.of(sha), type);
+    }
+
+    /** Records that the objects SHAS, all of type TYPE, have been
+     *  stored. */
+    void addAll(List<String> shas, int type) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (String sha : shas) {
+            if (!contains(sha)) {
+                _log.put(sha, type);
+                records.writeBytes(record(sha, type));
+            }
+        }
+        if (_log.size() > LOG_LIMIT) {
+            compact();
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(LOG, true)) {
+            out.write(records.toByteArray());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff SHA is in the index. */
+    boolean contains(String sha) {
+        if (_log.containsKey(sha)) {
+            return true;
+        }
+        byte[] id = Utils.sha1Bytes(sha);
+        int k = lowerBound(id);
+        return k < _count && compare(k, id) == 0;
+    }
+
+    /** Returns the ids of all objects of type TYPE (any type if TYPE is 0)
+     *  whose ids start with the hexadecimal PREFIX, in order. */
+    List<String> resolve(String prefix, int type) {
+        prefix = prefix.toLowerCase();
+        List<String> result = new ArrayList<>();
+        if (!prefix.matches("[0-9a-f]{1,40}")) {
+            return result;
+        }
+        StringBuilder low = new StringBuilder(prefix);
+        while (low.length() < Utils.UID_LENGTH) {
+            low.append('0');
+        }
+        byte[] rec = new byte[RECORD];
+        for (int k = lowerBound(Utils.sha1Bytes(low.toString()));
+             k < _count; k += 1) {
+            _table.get(HEADER + k * RECORD, rec);
+            String id = Utils.sha1Hex(rec, 0);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            if (type == 0 || rec[ID_SIZE] == type) {
+                result.add(id);
+            }
+        }
+        for (String id : _log.keySet()) {
+            if (id.startsWith(prefix) && (type == 0 || _log.get(id) == type)
+                && !result.contains(id)) {
+                result.add(id);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Returns the ids of all objects of type TYPE, in order. */
+    List<String> ids(int type) {
+        List<String> result = new ArrayList<>();
+        byte[] rec = new byte[RECORD];
+        for (int k = 0; k < _count; k += 1) {
+            _table.get(HEADER + k * RECORD, rec);
+            if (rec[ID_SIZE] == type) {
+                result.add(Utils.sha1Hex(rec, 0));
+            }
+        }
+        for (String id : _log.keySet()) {
+            if (_log.get(id) == type) {
+                result.add(id);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Merges the log into a new sorted index. */
+    private void compact() {
+        List<byte[]> records = new ArrayList<>();
+        for (String id : _log.keySet()) {
+            records.add(record(id, _log.get(id)));
+        }
+        byte[] rec = new byte[RECORD];
+        for (int k = 0; k < _count; k += 1) {
+            _table.get(HEADER + k * RECORD, rec);
+            records.add(rec.clone());
+        }
+        writeSorted(records);
+        LOG.delete();
+        _log.clear();
+        load();
+    }
+
+    /** Returns the position of the first sorted record whose id is not
+     *  less than ID. */
+    private int lowerBound(byte[] id) {
+        int lo = 0, hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, id) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Compares the id of the Kth sorted record with ID. */
+    private int compare(int k, byte[] id) {
+        int pos = HEADER + k * RECORD;
+        for (int i = 0; i < ID_SIZE; i += 1) {
+            int c = (_table.get(pos + i) & 0xff) - (id[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the record for object SHA of type TYPE. */
+    private static byte[] record(String sha, int type) {
+        byte[] rec = Arrays.copyOf(Utils.sha1Bytes(sha), RECORD);
+        rec[ID_SIZE] = (byte) type;
+        return rec;
+    }
+
+    /** Sorts RECORDS, drops duplicates, and installs them as INDEX. */
+    private static void writeSorted(List<byte[]> records) {
+        records.sort(Comparator.comparing((byte[] r) ->
+            Arrays.copyOf(r, ID_SIZE), Arrays::compareUnsigned));
+        ByteBuffer out = ByteBuffer.allocate(HEADER
+                                             + records.size() * RECORD);
+        out.putInt(MAGIC).putInt(VERSION).putInt(0);
+        int count = 0;
+        byte[] last = null;
+        for (byte[] r : records) {
+            if (last == null || Arrays.compareUnsigned(last, 0, ID_SIZE,
+                                                       r, 0, ID_SIZE) != 0) {
+                out.put(r);
+                count += 1;
+                last = r;
+            }
+        }
+        out.putInt(8, count);
+        File temp = Utils.tempFile(INDEX);
+        try (DataOutputStream f =
+                 new DataOutputStream(new FileOutputStream(temp))) {
+            f.write(out.array(), 0, HEADER + count * RECORD);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!temp.renameTo(INDEX)) {
+            throw new IllegalArgumentException("cannot install object index");
+        }
+    }
+
+    /** The memory-mapped sorted index, or null. */
+    private MappedByteBuffer _table;
+
+    /** Number of records in _table. */
+    private int _count;
+
+    /** Types of the objects in the log, by id. */
+    private final HashMap<String, Integer> _log = new HashMap<>();
+
+    /** The index read so far, or null. */
+    private static ObjectIndex _index;
+}
@@ -0,0 +1,558 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/** Where gitlet keeps its commits and blobs.  An object is either loose,
+ *  in a file of its own named by its SHA-1 id, or packed into one of the
+ *  packs in .gitlet/packs.  Loose objects are spread over fan-out
+ *  directories named by the first two digits of their ids, as git does,
+ *  so that no directory grows huge; repositories made before that keep
+ *  them flat until migrate() moves them.  Large blobs may instead be
+ *  stored as chunks by ChunkStore.  Readers look in every place, so
+ *  objects can be packed without changing any of the commands that use
+ *  them.
+ *  @author Matt Chorlian
+ */
+class ObjectStore {
+
+    /** Directory of loose commits. */
+    static final File COMMITS = new File(".gitlet/commits");
+
+    /** Directory of loose blobs. */
+    static final File BLOBS = new File(".gitlet/blobs");
+
+    /** Directory where older repositories kept a second copy of every
+     *  staged blob.  Still read, never written. */
+    static final File STAGE = new File(".gitlet/stage");
+
+    /** Directory of loose trees. */
+    static final File TREES = new File(".gitlet/trees");
+
+    /** Directory of packs. */
+    static final File PACKS = new File(".gitlet/packs");
+
+    /** Blobs larger than this are never packed, so that they can always
+     *  be copied in and out of the store without passing through the
+     *  heap. */
+    static final long BIG_FILE_THRESHOLD = 32L << 20;
+
+    /** Present if loose objects are kept in fan-out directories. */
+    static final File FAN_OUT = new File(".gitlet/fan-out");
+
+    /** Length of the names of fan-out directories. */
+    static final int FAN_OUT_WIDTH = 2;
+
+    /** Returns the loose file for the commit SHA. */
+    static File commitFile(String sha) {
+        return looseFile(COMMITS, sha);
+    }
+
+    /** Returns the loose file for the blob SHA. */
+    static File blobFile(String sha) {
+        return looseFile(BLOBS, sha);
+    }
+
+    /** Returns the loose file for the tree SHA. */
+    static File treeFile(String sha) {
+        return looseFile(TREES, sha);
+    }
+
+    /** Returns the file for the object ID in the directory DIR of loose
+     *  objects: DIR/ab/cdef... if the repository uses fan-out
+     *  directories, and otherwise DIR/abcdef..., or the fan-out file if
+     *  only that exists, so that a repository whose migration was cut
+     *  short still finds every object. */
+    static File looseFile(File dir, String id) {
+        File nested = new File(new File(dir, id.substring(0, FAN_OUT_WIDTH)),
+                               id.substring(FAN_OUT_WIDTH));
+        if (fannedOut()) {
+            return nested;
+        }
+        File flat = new File(dir, id);
+        return flat.exists() || !nested.exists() ? flat : nested;
+    }
+
+    /** Returns the file to write the object ID to in the directory DIR
+     *  of loose objects, creating the directories it goes in. */
+    static File newLooseFile(File dir, String id) {
+        File f = looseFile(dir, id);
+        f.getParentFile().mkdirs();
+        return f;
+    }
+
+    /** Writes DATA as the object ID in the directory DIR of loose
+     *  objects, under a temporary name renamed into place, so that the
+     *  object is never seen incomplete, and notes it for the next
+     *  Journal.sync(). */
+    private static void writeLoose(File dir, String id, byte[] data) {
+        File f = newLooseFile(dir, id);
+        File temp = Utils.tempFile(f);
+        Utils.writeContents(temp, (Object) data);
+        try {
+            Files.move(temp.toPath(), f.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.written(f);
+    }
+
+    /** Returns the ids of the loose objects in DIR, in order, whether
+     *  flat or in fan-out directories.  Files whose names are not ids,
+     *  such as temporary files, are left out. */
+    static List<String> looseIds(File dir) {
+        List<String> result = new ArrayList<>();
+        File[] entries = dir.listFiles();
+        for (File f : entries == null ? new File[0] : entries) {
+            String name = f.getName();
+            if (f.isDirectory() && name.length() == FAN_OUT_WIDTH) {
+                String[] rest = f.list();
+                for (String tail : rest == null ? new String[0] : rest) {
+                    if (isId(name + tail)) {
+                        result.add(name + tail);
+                    }
+                }
+            } else if (f.isFile() && isId(name)) {
+                result.add(name);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Deletes the files in DIR, or in its fan-out directories, whose
+     *  names are not ids: the leftovers of interrupted writes.  Fan-out
+     *  directories left empty are deleted too. */
+    static void deleteTemps(File dir) {
+        File[] entries = dir.listFiles();
+        for (File f : entries == null ? new File[0] : entries) {
+            String name = f.getName();
+            if (f.isDirectory() && name.length() == FAN_OUT_WIDTH) {
+                File[] rest = f.listFiles();
+                for (File g : rest == null ? new File[0] : rest) {
+                    if (!isId(name + g.getName())) {
+                        g.delete();
+                    }
+                }
+                f.delete();
+            } else if (f.isFile() && !isId(name)) {
+                f.delete();
+            }
+        }
+    }
+
+    /** Returns true iff NAME is a full hexadecimal id. */
+    private static boolean isId(String name) {
+        return name.length() == Utils.UID_LENGTH
+            && name.matches("[0-9a-f]+");
+    }
+
+    /** Returns true iff loose objects are kept in fan-out directories. */
+    static boolean fannedOut() {
+        if (_fannedOut == null) {
+            _fannedOut = FAN_OUT.exists();
+        }
+        return _fannedOut;
+    }
+
+    /** Moves every loose object kept flat, in the old layout, into its
+     *  fan-out directory, and blobs left in STAGE into BLOBS, then marks
+     *  the repository as fanned out.  Each object is renamed, so an
+     *  interrupted migration loses nothing and can simply be run again.
+     *  Returns the number of objects moved. */
+    static int migrate() {
+        int moved = 0;
+        for (File dir : new File[] {COMMITS, TREES, BLOBS, STAGE,
+                                    ChunkStore.LISTS, ChunkStore.CHUNKS}) {
+            String[] names = dir.list();
+            for (String id : names == null ? new String[0] : names) {
+                File flat = new File(dir, id);
+                if (!isId(id) || !flat.isFile()) {
+                    continue;
+                }
+                File target = dir == STAGE ? BLOBS : dir;
+                File nested =
+                    new File(new File(target, id.substring(0, FAN_OUT_WIDTH)),
+                             id.substring(FAN_OUT_WIDTH));
+                nested.getParentFile().mkdirs();
+                try {
+                    Files.move(flat.toPath(), nested.toPath(),
+                               StandardCopyOption.REPLACE_EXISTING,
+                               StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                moved += 1;
+            }
+        }
+        Utils.writeContents(FAN_OUT, "");
+        _fannedOut = true;
+        return moved;
+    }
+
+    /** Forgets the layout read so far, so that it is looked up again. */
+    static void resetLayout() {
+        _fannedOut = null;
+    }
+
+    /** Returns the stored form of the tree SHA. */
+    static byte[] readTree(String sha) {
+        byte[] pending = BULK_TREES.get(sha);
+        if (pending != null) {
+            return pending;
+        }
+        File f = treeFile(sha);
+        if (f.exists()) {
+            return Utils.readContents(f);
+        }
+        for (PackFile pack : packs()) {
+            if (pack.typeOf(sha) == PackFile.TREE) {
+                return pack.read(sha);
+            }
+        }
+        throw new IllegalArgumentException("missing tree " + sha);
+    }
+
+    /** Writes DATA as the tree SHA, unless it is already stored. */
+    static void writeTree(String sha, byte[] data) {
+        File f = treeFile(sha);
+        if (f.exists()) {
+            return;
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(sha)) {
+                return;
+            }
+        }
+        if (_bulk != null) {
+            if (!_bulk.contains(sha)) {
+                _bulk.add(sha, PackFile.TREE, data, null, null);
+                BULK_TREES.put(sha, data);
+                BULK_IDS.get(PackFile.TREE).add(sha);
+            }
+            return;
+        }
+        writeLoose(TREES, sha, data);
+        ObjectIndex.get().add(sha, PackFile.TREE);
+    }
+
+    /** Returns the commit SHA, or null if there is no such commit.
+     *  Commits are looked up in the commit cache first, and cached once
+     *  read. */
+    static Commit readCommit(String sha) {
+        long start = Trace.start();
+        Commit c = CommitCache.get().lookup(sha);
+        if (c != null) {
+            Trace.hit("readCommit");
+            Trace.record("readCommit", start, 0);
+            return c;
+        }
+        File f = commitFile(sha);
+        if (BULK_COMMITS.containsKey(sha)) {
+            c = BULK_COMMITS.get(sha);
+        } else if (f.exists()) {
+            c = Utils.readObject(f, Commit.class);
+        } else {
+            for (PackFile pack : packs()) {
+                if (pack.typeOf(sha) == PackFile.COMMIT) {
+                    c = Utils.deserialize(pack.read(sha), Commit.class);
+                    break;
+                }
+            }
+        }
+        if (c != null) {
+            CommitCache.get().put(c);
+        }
+        Trace.record("readCommit", start, 0);
+        return c;
+    }
+
+    /** Writes commit C and records it in the commit graph, its
+     *  changed-path filter and the object and message indexes. */
+    static void writeCommit(Commit c) {
+        if (_bulk != null) {
+            _bulk.add(c.getSha1(), PackFile.COMMIT, Utils.serialize(c),
+                      null, null);
+            BULK_COMMITS.put(c.getSha1(), c);
+        } else {
+            writeLoose(COMMITS, c.getSha1(), Utils.serialize(c));
+        }
+        indexCommit(c);
+    }
+
+    /** Records the stored commit C in the commit graph, its changed-path
+     *  filter and the object and message indexes.  In bulk mode the
+     *  filter is left to be computed when first asked for. */
+    static void indexCommit(Commit c) {
+        CommitCache.get().put(c);
+        int pos = CommitGraph.get().add(c);
+        if (_bulk != null) {
+            BULK_IDS.get(PackFile.COMMIT).add(c.getSha1());
+        } else {
+            ChangedPaths.get().filter(pos);
+            ObjectIndex.get().add(c.getSha1(), PackFile.COMMIT);
+        }
+        MessageIndex.get().add(c);
+    }
+
+    /** Returns the contents of the blob SHA. */
+    static byte[] readBlob(String sha) {
+        File f = blobFile(sha);
+        if (!f.exists()) {
+            f = new File(STAGE, sha);
+        }
+        if (f.exists()) {
+            return Utils.readContents(f);
+        }
+        if (ChunkStore.contains(sha)) {
+            return ChunkStore.read(sha);
+        }
+        for (PackFile pack : packs()) {
+            if (pack.typeOf(sha) == PackFile.BLOB) {
+                return pack.read(sha);
+            }
+        }
+        throw new IllegalArgumentException("missing blob " + sha);
+    }
+
+    /** Writes CONTENTS as the blob SHA, unless it is already stored. */
+    static void writeBlob(String sha, byte[] contents) {
+        if (hasBlob(sha)) {
+            return;
+        } else if (_bulk != null) {
+            _bulk.add(sha, PackFile.BLOB, contents, null, null);
+            BULK_IDS.get(PackFile.BLOB).add(sha);
+        } else {
+            writeLoose(BLOBS, sha, contents);
+            ObjectIndex.get().add(sha, PackFile.BLOB);
+        }
+    }
+
+    /** Stores the contents of SOURCE, whose SHA-1 is SHA, unless they are
+     *  already stored.  The file is copied directly, not read into
+     *  memory, or if it is large, stored as chunks. */
+    static void writeBlob(String sha, File source) {
+        if (!hasBlob(sha)) {
+            store(sha, source);
+            ObjectIndex.get().add(sha, PackFile.BLOB);
+        }
+    }
+
+    /** Stores SOURCE as the blob SHA: as chunks if it is large enough,
+     *  and otherwise as a loose copy. */
+    private static void store(String sha, File source) {
+        if (ChunkStore.shouldChunk(source)) {
+            ChunkStore.store(sha, source);
+        } else {
+            File f = newLooseFile(BLOBS, sha);
+            Utils.copyContents(source, f);
+            Journal.written(f);
+        }
+    }
+
+    /** Stores the contents of each file in SOURCES, which maps their
+     *  SHA-1s to them, copying files in parallel. */
+    static void writeBlobs(Map<String, File> sources) {
+        packs();
+        List<String> missing = new ArrayList<>();
+        List<Runnable> tasks = new ArrayList<>();
+        for (Map.Entry<String, File> e : sources.entrySet()) {
+            if (!hasBlob(e.getKey())) {
+                missing.add(e.getKey());
+                tasks.add(() -> store(e.getKey(), e.getValue()));
+            }
+        }
+        Materializer.run(tasks);
+        ObjectIndex.get().addAll(missing, PackFile.BLOB);
+    }
+
+    /** Writes the contents of the blob SHA to DEST.  Loose blobs are
+     *  copied directly, and chunked ones a chunk at a time, not read
+     *  into memory. */
+    static void copyBlob(String sha, File dest) {
+        File f = blobFile(sha);
+        if (!f.exists()) {
+            f = new File(STAGE, sha);
+        }
+        if (f.exists()) {
+            Utils.copyContents(f, dest);
+        } else if (ChunkStore.contains(sha)) {
+            ChunkStore.copy(sha, dest);
+        } else {
+            Utils.writeContents(dest, (Object) readBlob(sha));
+        }
+    }
+
+    /** Writes to OUT what HEADER returns for the length of the blob SHA,
+     *  then its contents.  Loose and chunked blobs are copied from their
+     *  files, not read into memory. */
+    static void copyBlob(String sha, OutputStream out,
+                         LongFunction<byte[]> header) {
+        File f = blobFile(sha);
+        if (!f.exists()) {
+            f = new File(STAGE, sha);
+        }
+        try {
+            if (f.exists()) {
+                out.write(header.apply(f.length()));
+                Files.copy(f.toPath(), out);
+            } else if (ChunkStore.contains(sha)) {
+                out.write(header.apply(ChunkStore.length(sha)));
+                ChunkStore.copy(sha, out);
+            } else {
+                byte[] contents = readBlob(sha);
+                out.write(header.apply(contents.length));
+                out.write(contents);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of the blob SHA for reading.  Loose blobs are
+     *  mapped into memory rather than read; packed ones are inflated,
+     *  and chunked ones assembled. */
+    static ByteBuffer mapBlob(String sha) {
+        File f = blobFile(sha);
+        if (!f.exists()) {
+            f = new File(STAGE, sha);
+        }
+        if (!f.exists()) {
+            return ByteBuffer.wrap(readBlob(sha));
+        }
+        try (FileChannel channel = FileChannel.open(f.toPath(),
+                                                    StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("blob too large to map: "
+                                                   + sha);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff the blob SHA is stored. */
+    static boolean hasBlob(String sha) {
+        if (_bulk != null && _bulk.contains(sha)) {
+            return true;
+        }
+        if (blobFile(sha).exists() || ChunkStore.contains(sha)) {
+            return true;
+        }
+        for (PackFile pack : packs()) {
+            if (pack.typeOf(sha) == PackFile.BLOB) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the ids of all commits, loose or packed. */
+    static List<String> commitIds() {
+        List<String> result = looseIds(COMMITS);
+        for (PackFile pack : packs()) {
+            result.addAll(pack.ids(PackFile.COMMIT));
+        }
+        return result;
+    }
+
+    /** Starts writing new commits, trees and small blobs into one pack
+     *  rather than into loose files, for a bulk import.  Trees and
+     *  commits in the pack can be read before it is finished; blobs
+     *  cannot, though hasBlob() knows of them. */
+    static void beginBulk() {
+        PACKS.mkdir();
+        _bulk = new PackFile.Writer(PACKS);
+    }
+
+    /** Returns the number of objects written since beginBulk() or the
+     *  last flushBulk(). */
+    static int bulkSize() {
+        return _bulk.size();
+    }
+
+    /** Finishes the pack begun by beginBulk(), making what is in it
+     *  readable, and starts another. */
+    static void flushBulk() {
+        finishBulk();
+        _bulk = new PackFile.Writer(PACKS);
+    }
+
+    /** Finishes the pack begun by beginBulk() and goes back to writing
+     *  loose objects. */
+    static void endBulk() {
+        finishBulk();
+        _bulk = null;
+    }
+
+    /** Finishes the bulk pack and indexes what is in it. */
+    private static void finishBulk() {
+        _bulk.finish();
+        resetPacks();
+        for (Map.Entry<Integer, List<String>> e : BULK_IDS.entrySet()) {
+            ObjectIndex.get().addAll(e.getValue(), e.getKey());
+            e.getValue().clear();
+        }
+        BULK_TREES.clear();
+        BULK_COMMITS.clear();
+    }
+
+    /** Returns the packs of this repository. */
+    static List<PackFile> packs() {
+        if (_packs == null) {
+            _packs = new ArrayList<>();
+            File[] indexes = PACKS.listFiles((d, name) ->
+                name.startsWith("pack-") && name.endsWith(".idx"));
+            if (indexes != null) {
+                Arrays.sort(indexes);
+                for (File index : indexes) {
+                    _packs.add(new PackFile(index));
+                }
+            }
+        }
+        return _packs;
+    }
+
+    /** Forgets the packs read so far, so that packs() looks again. */
+    static void resetPacks() {
+        _packs = null;
+    }
+
+    /** Whether loose objects are in fan-out directories, or null if not
+     *  yet known. */
+    private static Boolean _fannedOut;
+
+    /** The packs read so far, or null. */
+    private static List<PackFile> _packs;
+
+    /** The pack being written by a bulk import, or null. */
+    private static PackFile.Writer _bulk;
+
+    /** The trees in _bulk, by id. */
+    private static final Map<String, byte[]> BULK_TREES = new HashMap<>();
+
+    /** The commits in _bulk, by id. */
+    private static final Map<String, Commit> BULK_COMMITS = new HashMap<>();
+
+    /** The ids of the objects in _bulk, not yet indexed, by type. */
+    private static final Map<Integer, List<String>> BULK_IDS = Map.of(
+        PackFile.COMMIT, new ArrayList<>(), PackFile.TREE, new ArrayList<>(),
+        PackFile.BLOB, new ArrayList<>());
+}
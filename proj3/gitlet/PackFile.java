@@ -0,0 +1,403 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A pack: many compressed objects in one file, plus a sorted index.
+ *  The pack file (pack-ID.pack) holds a header followed by entries, each
+ *  of which is the zlib-compressed contents of a commit, tree or blob, or
+ *  of a delta against another blob in the same pack.  The index file
+ *  (pack-ID.idx) holds a 256-way fan-out table and then, sorted by id,
+ *  one fixed-width record per object: its binary id, its type, and the
+ *  offset of its entry in the pack.
+ *  @author Matt Chorlian
+ */
+class PackFile {
+
+    /** Type of a serialized commit. */
+    static final int COMMIT = 1;
+
+    /** Type of a file's contents. */
+    static final int BLOB = 2;
+
+    /** Type of a directory listing (see Tree). */
+    static final int TREE = 3;
+
+    /** Entry encoding: the whole object, compressed. */
+    private static final int FULL = 0;
+
+    /** Entry encoding: a compressed delta against another entry. */
+    private static final int DELTA = 1;
+
+    /** Magic number at the start of a pack. */
+    private static final int PACK_MAGIC = 0x474c504b;
+
+    /** Magic number at the start of an index. */
+    private static final int INDEX_MAGIC = 0x474c4958;
+
+    /** Format version of packs and indexes. */
+    private static final int VERSION = 1;
+
+    /** Size of the pack and index headers: magic, version, count. */
+    private static final int HEADER = 12;
+
+    /** Number of entries in the fan-out table. */
+    private static final int FANOUT = 256;
+
+    /** Size of the raw form of an id. */
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+
+    /** Size of an index record: id, type, offset. */
+    private static final int RECORD = ID_SIZE + 1 + 8;
+
+    /** Longest chain of deltas the writer will build. */
+    static final int MAX_DEPTH = 50;
+
+    /** A PackFile for the pack whose index is INDEX. */
+    PackFile(File index) {
+        _index = index;
+        String name = index.getName();
+        _pack = new File(index.getParentFile(),
+                         name.substring(0, name.length() - ".idx".length())
+                         + ".pack");
+        try (RandomAccessFile f = new RandomAccessFile(index, "r")) {
+            _table = f.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                        0, f.length());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (_table.getInt(0) != INDEX_MAGIC) {
+            throw new IllegalArgumentException("not a pack index: " + name);
+        }
+        _count = _table.getInt(8);
+    }
+
+    /** Returns the index file of this pack. */
+    File indexFile() {
+        return _index;
+    }
+
+    /** Returns the pack file of this pack. */
+    File packFile() {
+        return _pack;
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return _count;
+    }
+
+    /** Returns true iff this pack holds the object SHA. */
+    boolean contains(String sha) {
+        return find(Utils.sha1Bytes(sha)) >= 0;
+    }
+
+    /** Returns the type of the object SHA, or 0 if it is not here. */
+    int typeOf(String sha) {
+        int k = find(Utils.sha1Bytes(sha));
+        return k < 0 ? 0 : _table.get(recordAt(k) + ID_SIZE);
+    }
+
+    /** Returns the contents of the object SHA, or null if it is not in
+     *  this pack. */
+    byte[] read(String sha) {
+        int k = find(Utils.sha1Bytes(sha));
+        if (k < 0) {
+            return null;
+        }
+        try (RandomAccessFile f = new RandomAccessFile(_pack, "r")) {
+            return readAt(f, _table.getLong(recordAt(k) + ID_SIZE + 1));
+        } catch (IOException | DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the ids of all objects of type TYPE in this pack, in
+     *  order. */
+    List<String> ids(int type) {
+        List<String> result = new ArrayList<>();
+        byte[] id = new byte[ID_SIZE];
+        for (int k = 0; k < _count; k += 1) {
+            int r = recordAt(k);
+            if (_table.get(r + ID_SIZE) == type) {
+                _table.get(r, id);
+                result.add(Utils.sha1Hex(id, 0));
+            }
+        }
+        return result;
+    }
+
+    /** Reads the entry at OFFSET of pack F, resolving deltas. */
+    private byte[] readAt(RandomAccessFile f, long offset)
+        throws IOException, DataFormatException {
+        f.seek(offset);
+        int encoding = f.readByte();
+        f.readByte();
+        String base = null;
+        if (encoding == DELTA) {
+            byte[] id = new byte[ID_SIZE];
+            f.readFully(id);
+            base = Utils.sha1Hex(id, 0);
+        }
+        int rawLength = f.readInt();
+        byte[] compressed = new byte[f.readInt()];
+        f.readFully(compressed);
+        byte[] raw = inflate(compressed, rawLength);
+        if (base == null) {
+            return raw;
+        }
+        int k = find(Utils.sha1Bytes(base));
+        if (k < 0) {
+            throw new IllegalArgumentException("missing delta base " + base);
+        }
+        return Delta.apply(readAt(f, _table.getLong(recordAt(k)
+                                                      + ID_SIZE + 1)), raw);
+    }
+
+    /** Returns the position of the index record for ID, or -1. */
+    private int find(byte[] id) {
+        int first = id[0] & 0xff;
+        int lo = first == 0 ? 0 : _table.getInt(HEADER + 4 * (first - 1));
+        int hi = _table.getInt(HEADER + 4 * first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareId(recordAt(mid), id);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compares the id stored at position POS of the table with ID. */
+    private int compareId(int pos, byte[] id) {
+        for (int i = 0; i < ID_SIZE; i += 1) {
+            int c = (_table.get(pos + i) & 0xff) - (id[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the table position of the Kth index record. */
+    private int recordAt(int k) {
+        return HEADER + 4 * FANOUT + k * RECORD;
+    }
+
+    /** Returns DATA compressed with zlib. */
+    static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** Returns the RAWLENGTH bytes that zlib-compressed DATA expands to. */
+    static byte[] inflate(byte[] data, int rawLength)
+        throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        byte[] result = new byte[rawLength];
+        int n = 0;
+        while (n < rawLength && !inflater.finished()) {
+            n += inflater.inflate(result, n, rawLength - n);
+            if (n < rawLength && inflater.needsInput()) {
+                break;
+            }
+        }
+        inflater.end();
+        if (n != rawLength) {
+            throw new DataFormatException("truncated pack entry");
+        }
+        return result;
+    }
+
+    /** Builds a new pack in a directory, one object at a time.  Nothing
+     *  is visible to readers until finish() renames the pack and its
+     *  index into place. */
+    static class Writer {
+
+        /** A Writer creating a pack in DIR. */
+        Writer(File dir) {
+            _dir = dir;
+            _temp = new File(dir, "tmp-" + System.nanoTime() + ".pack");
+            try {
+                _out = new DataOutputStream(new BufferedOutputStream(
+                           new FileOutputStream(_temp)));
+                _out.writeInt(PACK_MAGIC);
+                _out.writeInt(VERSION);
+                _out.writeInt(0);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** Returns true iff SHA has already been added. */
+        boolean contains(String sha) {
+            return _entries.containsKey(sha);
+        }
+
+        /** Returns the number of objects added so far. */
+        int size() {
+            return _entries.size();
+        }
+
+        /** Adds object SHA of type TYPE with contents DATA.  If BASE is
+         *  the id of a blob already added to this pack, whose contents are
+         *  BASEDATA, DATA may be stored as a delta against it. */
+        void add(String sha, int type, byte[] data,
+                 String base, byte[] baseData) {
+            if (contains(sha)) {
+                return;
+            }
+            byte[] delta = null;
+            Entry baseEntry = base == null ? null : _entries.get(base);
+            if (baseEntry != null && baseEntry.depth < MAX_DEPTH) {
+                delta = Delta.create(baseData, data);
+                if (delta != null && delta.length >= data.length / 2) {
+                    delta = null;
+                }
+            }
+            Entry e = new Entry();
+            e.id = Utils.sha1Bytes(sha);
+            e.type = type;
+            e.offset = _offset;
+            e.depth = delta == null ? 0 : baseEntry.depth + 1;
+            byte[] compressed = deflate(delta == null ? data : delta);
+            try {
+                _out.writeByte(delta == null ? FULL : DELTA);
+                _out.writeByte(type);
+                if (delta != null) {
+                    _out.write(baseEntry.id);
+                }
+                _out.writeInt(delta == null ? data.length : delta.length);
+                _out.writeInt(compressed.length);
+                _out.write(compressed);
+                _offset += 2 + (delta == null ? 0 : ID_SIZE) + 8
+                    + compressed.length;
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            _entries.put(sha, e);
+        }
+
+        /** Writes the index and moves the pack into place, returning it,
+         *  or returns null and discards everything if nothing was
+         *  added. */
+        PackFile finish() {
+            try {
+                _out.close();
+                if (_entries.isEmpty()) {
+                    _temp.delete();
+                    return null;
+                }
+                try (RandomAccessFile f = new RandomAccessFile(_temp, "rw")) {
+                    f.seek(8);
+                    f.writeInt(_entries.size());
+                }
+                List<Entry> sorted = new ArrayList<>(_entries.values());
+                sorted.sort(Comparator.comparing((Entry e) -> e.id,
+                                                 Arrays::compareUnsigned));
+                ByteBuffer table = ByteBuffer.allocate(HEADER + 4 * FANOUT
+                                                       + sorted.size()
+                                                       * RECORD);
+                table.putInt(INDEX_MAGIC).putInt(VERSION)
+                    .putInt(sorted.size());
+                int[] counts = new int[FANOUT];
+                for (Entry e : sorted) {
+                    counts[e.id[0] & 0xff] += 1;
+                }
+                int total = 0;
+                for (int count : counts) {
+                    total += count;
+                    table.putInt(total);
+                }
+                List<Object> ids = new ArrayList<>();
+                for (Entry e : sorted) {
+                    table.put(e.id).put((byte) e.type).putLong(e.offset);
+                    ids.add(e.id);
+                }
+                String name = "pack-" + Utils.sha1(ids);
+                File pack = new File(_dir, name + ".pack");
+                File index = new File(_dir, name + ".idx");
+                File tempIndex = new File(_dir, "tmp-" + name + ".idx");
+                Utils.writeContents(tempIndex, (Object) table.array());
+                if (!_temp.renameTo(pack) || !tempIndex.renameTo(index)) {
+                    throw new IllegalArgumentException("cannot install "
+                                                       + name);
+                }
+                Journal.written(pack);
+                Journal.written(index);
+                return new PackFile(index);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /** An object written to the pack. */
+        private static class Entry {
+            /** Binary id. */
+            private byte[] id;
+            /** Object type. */
+            private int type;
+            /** Offset of the entry in the pack. */
+            private long offset;
+            /** Number of deltas between this entry and a full one. */
+            private int depth;
+        }
+
+        /** Directory receiving the pack. */
+        private final File _dir;
+
+        /** The pack while it is being written. */
+        private final File _temp;
+
+        /** Stream writing _temp. */
+        private final DataOutputStream _out;
+
+        /** Offset of the next entry. */
+        private long _offset = HEADER;
+
+        /** Entries written so far, by id. */
+        private final HashMap<String, Entry> _entries = new HashMap<>();
+    }
+
+    /** The index file. */
+    private final File _index;
+
+    /** The pack file. */
+    private final File _pack;
+
+    /** The memory-mapped contents of the index. */
+    private final MappedByteBuffer _table;
+
+    /** Number of objects in the pack. */
+    private final int _count;
+}
@@ -0,0 +1,331 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** The mutable state of a repository: the current branch, the branches,
+ *  the files staged for addition and those staged for removal, and the
+ *  remotes.  Each is a separate record in .gitlet/state, in a small
+ *  versioned binary format, read only when first asked for.  save()
+ *  writes back only the records that were read and have since changed,
+ *  together through a write-ahead journal (see Journal), so read-only
+ *  commands write nothing and a crash leaves all of a command's changes
+ *  or none.  A repository without remotes
+ *  may have no remotes record.
+ *
+ *  Repositories made before these records kept their state in
+ *  .gitlet/repo, a serialized Gitlet; the first command run in one
+ *  converts it into the records and deletes it.
+ *  @author Matt Chorlian
+ */
+class RepoState {
+
+    /** Directory holding the records. */
+    static final File DIR = new File(".gitlet/state");
+
+    /** Record holding the name of the current branch. */
+    static final int HEAD = 0;
+
+    /** Record mapping branch names to commit ids. */
+    static final int BRANCHES = 1;
+
+    /** Record mapping staged file names to blob ids. */
+    static final int STAGE = 2;
+
+    /** Record listing files staged for removal. */
+    static final int REMOVED = 3;
+
+    /** Record mapping remote names to their .gitlet directories. */
+    static final int REMOTES = 4;
+
+    /** File names of the records, by record number. */
+    private static final String[] NAMES = {
+        "HEAD", "branches", "stage", "removed", "remotes"
+    };
+
+    /** The serialized Gitlet of a repository made before the records. */
+    static final File LEGACY = new File(".gitlet/repo");
+
+    /** Magic number at the start of each record. */
+    private static final int MAGIC = 0x474c5354;
+
+    /** Format version. */
+    private static final int VERSION = 1;
+
+    /** State of a new repository whose only branch, master, points at
+     *  commit INITIAL. */
+    static RepoState create(String initial) {
+        RepoState state = new RepoState();
+        state._head = "master";
+        state._branches = new HashMap<>();
+        state._branches.put("master", initial);
+        state._stage = new HashMap<>();
+        state._removed = new ArrayList<>();
+        return state;
+    }
+
+    /** Converts the state kept in LEGACY, if this repository still has
+     *  it, into the records. */
+    static void upgrade() {
+        if (DIR.exists() || !LEGACY.exists()) {
+            return;
+        }
+        Legacy old;
+        try (ObjectInputStream in =
+                 new LegacyInputStream(new FileInputStream(LEGACY))) {
+            old = (Legacy) in.readObject();
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException("cannot convert " + LEGACY
+                                               + ": " + excp.getMessage());
+        }
+        RepoState state = new RepoState();
+        state._head = old._head;
+        state._branches = old._branches;
+        state._stage = old._stage;
+        state._removed = old._untracked;
+        state.save();
+        LEGACY.delete();
+    }
+
+    /** Returns the name of the current branch. */
+    String head() {
+        if (_head == null) {
+            DataInputStream in = open(HEAD);
+            try {
+                _head = in.readUTF();
+            } catch (IOException excp) {
+                throw corrupt(HEAD);
+            }
+        }
+        return _head;
+    }
+
+    /** Makes NAME the current branch. */
+    void setHead(String name) {
+        head();
+        _head = name;
+    }
+
+    /** Returns the branches, mapping names to commit ids. */
+    HashMap<String, String> branches() {
+        if (_branches == null) {
+            _branches = readMap(BRANCHES);
+        }
+        return _branches;
+    }
+
+    /** Returns the staged files, mapping names to blob ids. */
+    HashMap<String, String> stage() {
+        if (_stage == null) {
+            _stage = readMap(STAGE);
+        }
+        return _stage;
+    }
+
+    /** Returns the remotes, mapping names to the paths of their .gitlet
+     *  directories. */
+    HashMap<String, String> remotes() {
+        if (_remotes == null) {
+            _remotes = new File(DIR, NAMES[REMOTES]).exists()
+                ? readMap(REMOTES) : new HashMap<>();
+        }
+        return _remotes;
+    }
+
+    /** Returns the names of the files staged for removal. */
+    ArrayList<String> removed() {
+        if (_removed == null) {
+            DataInputStream in = open(REMOVED);
+            _removed = new ArrayList<>();
+            try {
+                for (int n = in.readInt(); n > 0; n -= 1) {
+                    _removed.add(in.readUTF());
+                }
+            } catch (IOException excp) {
+                throw corrupt(REMOVED);
+            }
+        }
+        return _removed;
+    }
+
+    /** Writes every record that has been read and changed since, all
+     *  at once through the journal, once the objects written so far are
+     *  on disk. */
+    void save() {
+        DIR.mkdir();
+        Map<String, byte[]> changed = new LinkedHashMap<>();
+        for (int k = 0; k < NAMES.length; k += 1) {
+            byte[] now = encode(k);
+            if (now != null && !Arrays.equals(now, _read[k])) {
+                changed.put(NAMES[k], now);
+                _read[k] = now;
+            }
+        }
+        Journal.commit(DIR, changed);
+    }
+
+    /** Returns the current encoding of record K, or null if it has not
+     *  been read. */
+    private byte[] encode(int k) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(k);
+            switch (k) {
+            case HEAD:
+                if (_head == null) {
+                    return null;
+                }
+                out.writeUTF(_head);
+                break;
+            case BRANCHES:
+            case STAGE:
+            case REMOTES:
+                HashMap<String, String> map = k == BRANCHES ? _branches
+                    : k == STAGE ? _stage : _remotes;
+                if (map == null) {
+                    return null;
+                }
+                out.writeInt(map.size());
+                for (String key : new TreeMap<>(map).keySet()) {
+                    out.writeUTF(key);
+                    out.writeUTF(map.get(key));
+                }
+                break;
+            default:
+                if (_removed == null) {
+                    return null;
+                }
+                out.writeInt(_removed.size());
+                for (String name : _removed) {
+                    out.writeUTF(name);
+                }
+                break;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Reads the map held in record K. */
+    private HashMap<String, String> readMap(int k) {
+        DataInputStream in = open(k);
+        HashMap<String, String> result = new HashMap<>();
+        try {
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                result.put(in.readUTF(), in.readUTF());
+            }
+        } catch (IOException excp) {
+            throw corrupt(k);
+        }
+        return result;
+    }
+
+    /** Returns a stream positioned just after the header of record K,
+     *  remembering its contents. */
+    private DataInputStream open(int k) {
+        if (!_recovered) {
+            upgrade();
+            Journal.recover(DIR);
+            _recovered = true;
+        }
+        File f = new File(DIR, NAMES[k]);
+        if (!f.exists()) {
+            throw new IllegalArgumentException("missing repository state: "
+                                               + f);
+        }
+        byte[] contents = Utils.readContents(f);
+        _read[k] = contents;
+        DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(contents));
+        try {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION
+                || in.readByte() != k) {
+                throw corrupt(k);
+            }
+        } catch (IOException excp) {
+            throw corrupt(k);
+        }
+        return in;
+    }
+
+    /** Returns an exception reporting that record K is unreadable. */
+    private static IllegalArgumentException corrupt(int k) {
+        return new IllegalArgumentException("corrupt repository state: "
+                                            + NAMES[k]);
+    }
+
+    /** The fields of the Gitlet serialized in LEGACY. */
+    private static class Legacy implements Serializable {
+        /** Unused: the stream is read with this class's own descriptor. */
+        private static final long serialVersionUID = 1L;
+        /** The current branch. */
+        private String _head;
+        /** The branches. */
+        private HashMap<String, String> _branches;
+        /** The staged files. */
+        private HashMap<String, String> _stage;
+        /** The files staged for removal. */
+        private ArrayList<String> _untracked;
+    }
+
+    /** A stream reading LEGACY, which reads the serialized Gitlet as a
+     *  Legacy: Gitlet itself is no longer serializable, but the stream
+     *  holds the same fields as Legacy. */
+    private static class LegacyInputStream extends ObjectInputStream {
+
+        /** A stream reading IN. */
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (desc.getName().equals(Gitlet.class.getName())) {
+                return ObjectStreamClass.lookup(Legacy.class);
+            }
+            return desc;
+        }
+    }
+
+    /** The current branch, or null if not read. */
+    private String _head;
+
+    /** The branches, or null if not read. */
+    private HashMap<String, String> _branches;
+
+    /** The staged files, or null if not read. */
+    private HashMap<String, String> _stage;
+
+    /** The files staged for removal, or null if not read. */
+    private ArrayList<String> _removed;
+
+    /** The remotes, or null if not read. */
+    private HashMap<String, String> _remotes;
+
+    /** True once the journal has been replayed. */
+    private boolean _recovered;
+
+    /** The contents of each record as read, or null. */
+    private final byte[][] _read = new byte[NAMES.length][];
+}
@@ -0,0 +1,228 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/** What gitlet last saw of each file in the working directory, so that
+ *  files that have not changed need not be hashed again.  .gitlet/index
+ *  records, for each file, its size, its modification time and the SHA-1
+ *  of its contents.  A file whose size and modification time match its
+ *  entry is taken to have the recorded hash, unless it was modified less
+ *  than RACY_WINDOW before the index was written: such a file may have
+ *  changed again within the resolution of the file system's clock, so it
+ *  is always hashed, and once it is seen unchanged outside that window
+ *  the index is written again so that its entry is trusted from then
+ *  on.  Entries for files that no longer exist are dropped whenever the
+ *  index is written.  A StatCache may be used by several threads.
+ *  @author Matt Chorlian
+ */
+class StatCache {
+
+    /** The index file. */
+    static final File INDEX = new File(".gitlet/index");
+
+    /** Magic number at the start of the index. */
+    private static final int MAGIC = 0x474c5343;
+
+    /** Format version. */
+    private static final int VERSION = 1;
+
+    /** How long (in nanoseconds) before the index was written a file
+     *  must have been modified for its entry to be trusted. */
+    private static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+
+    /** Returns the stat cache of this repository. */
+    static StatCache get() {
+        if (_cache == null) {
+            _cache = new StatCache();
+        }
+        return _cache;
+    }
+
+    /** Writes the stat cache if it has been read and changed. */
+    static void flush() {
+        if (_cache != null) {
+            _cache.save();
+        }
+    }
+
+    /** Forgets the cache read so far, so that get() reads it again. */
+    static void reset() {
+        _cache = null;
+    }
+
+    /** A cache read from INDEX, if it exists. */
+    private StatCache() {
+        if (!INDEX.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(INDEX)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            _written = in.readLong();
+            byte[] id = new byte[Utils.UID_LENGTH / 2];
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                Entry e = new Entry();
+                String name = in.readUTF();
+                e.size = in.readLong();
+                e.mtime = in.readLong();
+                in.readFully(id);
+                e.sha1 = Utils.sha1Hex(id, 0);
+                _entries.put(name, e);
+            }
+        } catch (IOException excp) {
+            _entries.clear();
+        }
+    }
+
+    /** Returns the SHA-1 of the contents of the working file NAME, reusing
+     *  the recorded hash if the file has not changed since. */
+    String hash(String name) {
+        long start = Trace.start();
+        File f = new File(name);
+        long[] stat = stat(f);
+        String sha1 = cached(name, stat);
+        if (sha1 == null) {
+            sha1 = Utils.sha1File(f);
+            record(name, stat, sha1);
+        } else {
+            Trace.hit("hash");
+        }
+        Trace.record("hash", start, 0);
+        return sha1;
+    }
+
+    /** Returns the recorded hash of NAME if its entry matches STAT and can
+     *  be trusted, or else null. */
+    private synchronized String cached(String name, long[] stat) {
+        Entry e = _entries.get(name);
+        if (e != null && stat != null && e.size == stat[0]
+            && e.mtime == stat[1] && stat[1] < _written - RACY_WINDOW) {
+            return e.sha1;
+        }
+        return null;
+    }
+
+    /** Records that the working file NAME has contents whose SHA-1 is
+     *  SHA1, as just written or hashed. */
+    synchronized void record(String name, String sha1) {
+        record(name, stat(new File(name)), sha1);
+    }
+
+    /** Forgets the entry for NAME. */
+    synchronized void remove(String name) {
+        if (_entries.remove(name) != null) {
+            _dirty = true;
+        }
+    }
+
+    /** Writes the cache to INDEX if it has changed. */
+    synchronized void save() {
+        if (!_dirty) {
+            return;
+        }
+        _entries.keySet().removeIf(name -> !new File(name).isFile());
+        File temp = Utils.tempFile(INDEX);
+        long now = now();
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(now);
+            out.writeInt(_entries.size());
+            for (String name : _entries.keySet()) {
+                Entry e = _entries.get(name);
+                out.writeUTF(name);
+                out.writeLong(e.size);
+                out.writeLong(e.mtime);
+                out.write(Utils.sha1Bytes(e.sha1));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!temp.renameTo(INDEX)) {
+            throw new IllegalArgumentException("cannot install " + INDEX);
+        }
+        _written = now;
+        _dirty = false;
+    }
+
+    /** Records STAT and SHA1 for NAME, if STAT is not null. */
+    private synchronized void record(String name, long[] stat,
+                                     String sha1) {
+        if (stat == null) {
+            return;
+        }
+        Entry old = _entries.get(name);
+        if (old != null && old.size == stat[0] && old.mtime == stat[1]
+            && old.sha1.equals(sha1)) {
+            if (stat[1] >= _written - RACY_WINDOW
+                && stat[1] < now() - RACY_WINDOW) {
+                _dirty = true;
+            }
+            return;
+        }
+        Entry e = new Entry();
+        e.size = stat[0];
+        e.mtime = stat[1];
+        e.sha1 = sha1;
+        _entries.put(name, e);
+        _dirty = true;
+    }
+
+    /** Returns the current time in nanoseconds. */
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+    /** Returns the size and modification time (in nanoseconds) of F, or
+     *  null if F is not a plain file. */
+    private static long[] stat(File f) {
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            return new long[] {attrs.size(),
+                               attrs.lastModifiedTime()
+                               .to(TimeUnit.NANOSECONDS)};
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** What was seen of one file. */
+    private static class Entry {
+        /** Size in bytes. */
+        private long size;
+        /** Modification time in nanoseconds. */
+        private long mtime;
+        /** SHA-1 of the contents. */
+        private String sha1;
+    }
+
+    /** Entries, by file name. */
+    private final HashMap<String, Entry> _entries = new HashMap<>();
+
+    /** Time (in nanoseconds) at which INDEX was last written. */
+    private long _written;
+
+    /** True iff _entries differs from INDEX. */
+    private boolean _dirty;
+
+    /** The cache read so far, or null. */
+    private static StatCache _cache;
+}
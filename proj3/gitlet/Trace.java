@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts of what a command spends its time on.  Instrumented operations
+ *  (reading and writing files, hashing, reading commits and trees)
+ *  record, under their names, how often they ran, how many bytes they
+ *  handled, how long they took and, for those with a cache in front of
+ *  them, how often the cache answered.  Times are wall-clock and
+ *  inclusive, so an operation that calls another counts the other's
+ *  time too.  Operations may run on several threads at once.
+ *
+ *  Tracing is off, and costs a branch per operation, unless Main was
+ *  given --trace, which prints a summary on the standard error when the
+ *  command finishes, or the environment variable SINK names a file, to
+ *  which a JSON object describing each command is appended as one line,
+ *  so that many runs can be aggregated.  A daemon started with SINK set
+ *  records every command it serves there.
+ *  @author Matt Chorlian
+ */
+class Trace {
+
+    /** Environment variable naming the JSON-lines file. */
+    static final String SINK = "GITLET_TRACE";
+
+    /** Milliseconds per nanosecond. */
+    private static final double MS_PER_NANO = 1e-6;
+
+    /** Turns on tracing with a summary at the end of the command. */
+    static void enable() {
+        _summary = true;
+        _on = true;
+    }
+
+    /** Returns the time at which an operation starts, for record(), or
+     *  0 if tracing is off. */
+    static long start() {
+        return _on ? System.nanoTime() : 0;
+    }
+
+    /** Records that the operation OP, begun at START, has handled BYTES
+     *  bytes. */
+    static void record(String op, long start, long bytes) {
+        if (_on) {
+            Counter c = counter(op);
+            c.count.increment();
+            c.bytes.add(bytes);
+            c.nanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /** Records that the cache in front of OP answered a call. */
+    static void hit(String op) {
+        if (_on) {
+            counter(op).hits.increment();
+        }
+    }
+
+    /** Forgets what has been recorded and starts timing a command. */
+    static void begin() {
+        OPS.clear();
+        _begin = System.nanoTime();
+    }
+
+    /** Reports what has been recorded since begin() for the command
+     *  ARGS, which succeeded iff OK, as tracing is set up to. */
+    static void finish(String[] args, boolean ok) {
+        if (!_on) {
+            return;
+        }
+        double total = (System.nanoTime() - _begin) * MS_PER_NANO;
+        String command = args.length == 0 ? "" : args[0];
+        Map<String, Counter> ops = new TreeMap<>(OPS);
+        if (_summary) {
+            System.err.printf(Locale.ROOT, "trace: %s %s in %.3f ms%n",
+                              command, ok ? "ok" : "failed", total);
+            System.err.printf("  %-14s %8s %12s %10s %8s%n", "operation",
+                              "count", "bytes", "ms", "hits");
+            for (Map.Entry<String, Counter> e : ops.entrySet()) {
+                Counter c = e.getValue();
+                System.err.printf(Locale.ROOT,
+                                  "  %-14s %8d %12d %10.3f %8d%n",
+                                  e.getKey(), c.count.sum(), c.bytes.sum(),
+                                  c.nanos.sum() * MS_PER_NANO, c.hits.sum());
+            }
+        }
+        if (SINK_FILE != null) {
+            StringBuilder line = new StringBuilder();
+            line.append(String.format(Locale.ROOT,
+                                      "{\"time\":%d,\"dir\":%s,"
+                                      + "\"command\":%s,\"ok\":%b,"
+                                      + "\"ms\":%.3f,\"ops\":{",
+                                      System.currentTimeMillis(),
+                                      quote(new File("").getAbsolutePath()),
+                                      quote(command), ok, total));
+            String sep = "";
+            for (Map.Entry<String, Counter> e : ops.entrySet()) {
+                Counter c = e.getValue();
+                line.append(String.format(Locale.ROOT,
+                                          "%s%s:{\"count\":%d,\"bytes\":%d,"
+                                          + "\"ms\":%.3f,\"hits\":%d}",
+                                          sep, quote(e.getKey()),
+                                          c.count.sum(), c.bytes.sum(),
+                                          c.nanos.sum() * MS_PER_NANO,
+                                          c.hits.sum()));
+                sep = ",";
+            }
+            line.append("}}\n");
+            try (FileOutputStream out =
+                     new FileOutputStream(SINK_FILE, true)) {
+                out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException excp) {
+                System.err.println("trace: " + excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns S as a JSON string. */
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                result.append('\\').append(c);
+            } else if (c < ' ') {
+                result.append(String.format("\\u%04x", (int) c));
+            } else {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /** Returns the counter of OP. */
+    private static Counter counter(String op) {
+        return OPS.computeIfAbsent(op, k -> new Counter());
+    }
+
+    /** What has been recorded for one operation. */
+    private static class Counter {
+        /** Number of calls. */
+        private final LongAdder count = new LongAdder();
+        /** Bytes handled. */
+        private final LongAdder bytes = new LongAdder();
+        /** Nanoseconds taken. */
+        private final LongAdder nanos = new LongAdder();
+        /** Calls answered by a cache. */
+        private final LongAdder hits = new LongAdder();
+    }
+
+    /** Counters by operation name. */
+    private static final Map<String, Counter> OPS = new ConcurrentHashMap<>();
+
+    /** The JSON-lines file, or null. */
+    private static final File SINK_FILE = System.getenv(SINK) == null
+        ? null : new File(System.getenv(SINK)).getAbsoluteFile();
+
+    /** True iff tracing is on. */
+    private static boolean _on = SINK_FILE != null;
+
+    /** True iff a summary is printed. */
+    private static boolean _summary;
+
+    /** When the current command began. */
+    private static long _begin = System.nanoTime();
+}
@@ -0,0 +1,523 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/** Moving commits between a repository and a remote: another .gitlet
+ *  directory on the same filesystem.  Since the object store works on
+ *  the current directory, the remote's side runs in a second JVM started
+ *  in the remote's working directory (as "gitlet.Main upload-pack" for a
+ *  fetch, "receive-pack" for a push), and the two talk over its
+ *  standard input and output.
+ *
+ *  The remote first sends its branches.  The side that will receive
+ *  objects then says what it already has: for a push, the remote's
+ *  branch heads that the pusher knows are enough; for a fetch, the
+ *  fetcher sends the ids of its own commits in batches, newest first by
+ *  generation, and the remote acknowledges those it has, after which
+ *  none of their ancestors is offered.  The sender then walks its commit
+ *  graph from the wanted commit down to what the receiver has, and sends
+ *  the missing commits, with the trees and blobs not already in the
+ *  trees of the commits the receiver has, as one pack (see PackFile), in
+ *  which each blob may be a delta against the previous version of its
+ *  file.  The receiver installs the pack as it is, indexes the objects
+ *  in it and only then moves a branch, so a branch never names a commit
+ *  that is not all there.
+ *  @author Matt Chorlian
+ */
+class Transfer {
+
+    /** Magic number starting the remote's side of a conversation. */
+    private static final int MAGIC = 0x474c5450;
+
+    /** Number of commit ids the fetcher offers at a time. */
+    private static final int BATCH = 64;
+
+    /** Size of the buffer pack files are copied through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Walk flag: a commit to send. */
+    private static final byte WANTED = 1;
+
+    /** Walk flag: a commit the receiver has. */
+    private static final byte HAVE = 2;
+
+    /** Fetches the branch BRANCH of the remote whose .gitlet directory is
+     *  REMOTE into this repository, offering the commits reachable from
+     *  the commits LOCAL as already here.  Returns the id of the fetched
+     *  head, or null if the remote has no such branch. */
+    static String fetch(File remote, String branch,
+                        Collection<String> local) {
+        try (Connection conn = new Connection(remote, "upload-pack")) {
+            String want = conn._refs.get(branch);
+            CommitGraph graph = CommitGraph.get();
+            if (want == null || graph.contains(want)) {
+                conn._out.writeUTF("");
+                conn._out.flush();
+                return want;
+            }
+            conn._out.writeUTF(want);
+            negotiate(conn, local);
+            readPack(conn._in);
+            return want;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("fetch failed: "
+                                               + excp.getMessage());
+        }
+    }
+
+    /** Makes the branch BRANCH of the remote whose .gitlet directory is
+     *  REMOTE point at the commit HEAD of this repository, sending what
+     *  the remote lacks.  Returns null if it did, or a message saying why
+     *  not. */
+    static String push(File remote, String branch, String head) {
+        try (Connection conn = new Connection(remote, "receive-pack")) {
+            String old = conn._refs.get(branch);
+            CommitGraph graph = CommitGraph.get();
+            if (old != null && !(graph.contains(old)
+                                 && graph.isAncestor(old, head))) {
+                conn._out.writeUTF("");
+                conn._out.flush();
+                return "Please pull down remote changes before pushing.";
+            }
+            conn._out.writeUTF(branch);
+            conn._out.writeUTF(old == null ? "" : old);
+            conn._out.writeUTF(head);
+            List<String> common = new ArrayList<>();
+            for (String id : conn._refs.values()) {
+                if (graph.contains(id)) {
+                    common.add(id);
+                }
+            }
+            writePack(conn._out, head, common);
+            conn._out.flush();
+            String result = conn._in.readUTF();
+            return result.isEmpty() ? null : result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("push failed: "
+                                               + excp.getMessage());
+        }
+    }
+
+    /** Serves a fetch from this repository, whose branches are
+     *  BRANCHES, over the standard input and output. */
+    static void upload(Map<String, String> branches) {
+        DataOutputStream out = serverOutput();
+        try {
+            DataInputStream in = serverInput();
+            sendRefs(out, branches);
+            String want = in.readUTF();
+            if (want.isEmpty()) {
+                return;
+            }
+            CommitGraph graph = CommitGraph.get();
+            List<String> common = new ArrayList<>();
+            for (int n = in.readInt(); n > 0; n = in.readInt()) {
+                for (int i = 0; i < n; i += 1) {
+                    String id = readId(in);
+                    boolean have = graph.contains(id);
+                    if (have) {
+                        common.add(id);
+                    }
+                    out.writeBoolean(have);
+                }
+                out.flush();
+            }
+            writePack(out, want, common);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Serves a push into this repository, whose branches are BRANCHES,
+     *  over the standard input and output, running SAVE to make a
+     *  changed branch durable before the pusher is told. */
+    static void receive(Map<String, String> branches, Runnable save) {
+        DataOutputStream out = serverOutput();
+        try {
+            DataInputStream in = serverInput();
+            sendRefs(out, branches);
+            String branch = in.readUTF();
+            if (branch.isEmpty()) {
+                return;
+            }
+            String old = in.readUTF();
+            String head = in.readUTF();
+            readPack(in);
+            String result = "";
+            if (!old.equals(branches.getOrDefault(branch, ""))) {
+                result = "Please pull down remote changes before pushing.";
+            } else if (!CommitGraph.get().contains(head)) {
+                result = "Remote is missing commit " + head + ".";
+            } else {
+                branches.put(branch, head);
+                save.run();
+            }
+            out.writeUTF(result);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Offers the commits reachable from LOCAL over CONN, newest first,
+     *  until every one has been offered or is an ancestor of one that
+     *  the remote has, then ends the offer. */
+    private static void negotiate(Connection conn, Collection<String> local)
+        throws IOException {
+        CommitGraph graph = CommitGraph.get();
+        byte[] flags = new byte[graph.size()];
+        PriorityQueue<Integer> queue = byGeneration(graph);
+        for (String id : local) {
+            int pos = graph.position(id);
+            if (flags[pos] == 0) {
+                flags[pos] = WANTED;
+                queue.add(pos);
+            }
+        }
+        List<Integer> batch = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            batch.clear();
+            while (!queue.isEmpty() && batch.size() < BATCH) {
+                int pos = queue.poll();
+                if (flags[pos] == HAVE) {
+                    continue;
+                }
+                batch.add(pos);
+                for (int p : graph.parents(pos)) {
+                    if (flags[p] == 0) {
+                        flags[p] = WANTED;
+                        queue.add(p);
+                    }
+                }
+            }
+            if (batch.isEmpty()) {
+                break;
+            }
+            conn._out.writeInt(batch.size());
+            for (int pos : batch) {
+                conn._out.write(Utils.sha1Bytes(graph.idAt(pos)));
+            }
+            conn._out.flush();
+            for (int pos : batch) {
+                if (conn._in.readBoolean()) {
+                    markHave(graph, flags, pos);
+                }
+            }
+        }
+        conn._out.writeInt(0);
+        conn._out.flush();
+    }
+
+    /** Marks the commit at POS and all its ancestors in FLAGS as ones the
+     *  remote has. */
+    private static void markHave(CommitGraph graph, byte[] flags, int pos) {
+        List<Integer> stack = new ArrayList<>(List.of(pos));
+        while (!stack.isEmpty()) {
+            int c = stack.remove(stack.size() - 1);
+            if (flags[c] != HAVE) {
+                flags[c] = HAVE;
+                for (int p : graph.parents(c)) {
+                    stack.add(p);
+                }
+            }
+        }
+    }
+
+    /** Writes to OUT a pack of the commits reachable from WANT and not
+     *  from any of the commits COMMON, with the trees and blobs they use
+     *  that the trees of the commits COMMON do not. */
+    private static void writePack(DataOutputStream out, String want,
+                                  Collection<String> common)
+        throws IOException {
+        CommitGraph graph = CommitGraph.get();
+        byte[] flags = new byte[graph.size()];
+        List<Integer> send = new ArrayList<>();
+        missing(graph, graph.position(want), common, flags, send);
+        Set<String> have = new HashSet<>();
+        for (int pos : send) {
+            for (int p : graph.parents(pos)) {
+                if (flags[p] == HAVE) {
+                    Tree.mark(ObjectStore.readCommit(graph.idAt(p))
+                              .getTree(), have);
+                }
+            }
+        }
+        Path dir = Files.createTempDirectory("gitlet-pack");
+        try {
+            PackFile.Writer writer = new PackFile.Writer(dir.toFile());
+            Map<String, String> previous = new HashMap<>();
+            for (int pos : send) {
+                Commit c = ObjectStore.readCommit(graph.idAt(pos));
+                writer.add(c.getSha1(), PackFile.COMMIT,
+                           Utils.serialize(c), null, null);
+                addTree(writer, c.getTree(), "", have, previous);
+            }
+            PackFile pack = writer.finish();
+            if (pack == null) {
+                out.writeUTF("");
+                return;
+            }
+            String name = pack.indexFile().getName();
+            out.writeUTF(name.substring(0, name.length()
+                                        - ".idx".length()));
+            copy(pack.indexFile(), out);
+            copy(pack.packFile(), out);
+        } finally {
+            for (File f : dir.toFile().listFiles()) {
+                f.delete();
+            }
+            dir.toFile().delete();
+        }
+    }
+
+    /** Adds to SEND the positions of the commits reachable from WANT and
+     *  not from any of the commits COMMON, parents first, marking them
+     *  WANTED in FLAGS and the commits found reachable from COMMON HAVE.
+     *  Commits are visited in decreasing generation, so every child of a
+     *  commit is seen before it, and the walk stops once only commits
+     *  reachable from COMMON are left. */
+    private static void missing(CommitGraph graph, int want,
+                                Collection<String> common, byte[] flags,
+                                List<Integer> send) {
+        PriorityQueue<Integer> queue = byGeneration(graph);
+        for (String id : common) {
+            int pos = graph.position(id);
+            if (flags[pos] == 0) {
+                flags[pos] = HAVE;
+                queue.add(pos);
+            }
+        }
+        int wanted = 0;
+        if (flags[want] == 0) {
+            flags[want] = WANTED;
+            queue.add(want);
+            wanted += 1;
+        }
+        while (wanted > 0) {
+            int c = queue.poll();
+            if (flags[c] == WANTED) {
+                wanted -= 1;
+                send.add(c);
+            }
+            for (int p : graph.parents(c)) {
+                if (flags[p] == 0) {
+                    flags[p] = flags[c];
+                    queue.add(p);
+                    wanted += flags[c] == WANTED ? 1 : 0;
+                } else if (flags[p] == WANTED && flags[c] == HAVE) {
+                    flags[p] = HAVE;
+                    wanted -= 1;
+                }
+            }
+        }
+        send.sort(Comparator.comparingInt(graph::generation));
+    }
+
+    /** Adds the tree TREE, whose path is PREFIX, and whatever trees and
+     *  blobs below it are in neither HAVE nor WRITER to WRITER.  PREVIOUS
+     *  maps each path to the last blob seen there, against which the
+     *  next may be stored as a delta. */
+    private static void addTree(PackFile.Writer writer, String tree,
+                                String prefix, Set<String> have,
+                                Map<String, String> previous) {
+        if (tree == null || have.contains(tree) || writer.contains(tree)) {
+            return;
+        }
+        writer.add(tree, PackFile.TREE, ObjectStore.readTree(tree),
+                   null, null);
+        for (Map.Entry<String, String> e : Tree.entries(tree).entrySet()) {
+            String path = prefix + e.getKey(), blob = e.getValue();
+            if (path.endsWith(Tree.SEPARATOR)) {
+                addTree(writer, blob, path, have, previous);
+                continue;
+            }
+            String base = previous.put(path, blob);
+            if (!have.contains(blob) && !writer.contains(blob)) {
+                writer.add(blob, PackFile.BLOB, ObjectStore.readBlob(blob),
+                           base, writer.contains(base)
+                           ? ObjectStore.readBlob(base) : null);
+            }
+        }
+    }
+
+    /** Reads a pack sent by writePack from IN and installs it, pack
+     *  before index, then indexes what is in it.  Until it is indexed,
+     *  GarbageCollector.PENDING has the indexes rebuilt should this
+     *  process stop. */
+    private static void readPack(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        if (name.isEmpty()) {
+            return;
+        }
+        ObjectStore.PACKS.mkdir();
+        File index = new File(ObjectStore.PACKS, name + ".idx");
+        File pack = new File(ObjectStore.PACKS, name + ".pack");
+        File tempIndex = new File(ObjectStore.PACKS, "tmp-" + name + ".idx");
+        File tempPack = new File(ObjectStore.PACKS, "tmp-" + name + ".pack");
+        copy(in, tempIndex);
+        copy(in, tempPack);
+        if (index.exists()) {
+            tempIndex.delete();
+            tempPack.delete();
+            return;
+        }
+        Utils.writeContents(GarbageCollector.PENDING, "");
+        if (!tempPack.renameTo(pack) || !tempIndex.renameTo(index)) {
+            throw new IllegalArgumentException("cannot install " + name);
+        }
+        Journal.written(pack);
+        Journal.written(index);
+        ObjectStore.resetPacks();
+        PackFile received = new PackFile(index);
+        ObjectIndex.get().addAll(received.ids(PackFile.TREE),
+                                 PackFile.TREE);
+        ObjectIndex.get().addAll(received.ids(PackFile.BLOB),
+                                 PackFile.BLOB);
+        for (String id : received.ids(PackFile.COMMIT)) {
+            ObjectStore.indexCommit(ObjectStore.readCommit(id));
+        }
+        GarbageCollector.PENDING.delete();
+    }
+
+    /** Writes the branches BRANCHES to OUT. */
+    private static void sendRefs(DataOutputStream out,
+                                 Map<String, String> branches)
+        throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(branches.size());
+        for (Map.Entry<String, String> e : branches.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeUTF(e.getValue());
+        }
+        out.flush();
+    }
+
+    /** Returns an id read in binary from IN. */
+    private static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[Utils.UID_LENGTH / 2];
+        in.readFully(id);
+        return Utils.sha1Hex(id, 0);
+    }
+
+    /** Writes the length of SOURCE and then its contents to OUT. */
+    private static void copy(File source, DataOutputStream out)
+        throws IOException {
+        out.writeLong(source.length());
+        try (InputStream in = new FileInputStream(source)) {
+            in.transferTo(out);
+        }
+    }
+
+    /** Reads a length, and then that many bytes, from IN into DEST. */
+    private static void copy(DataInputStream in, File dest)
+        throws IOException {
+        long left = in.readLong();
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (OutputStream out = new FileOutputStream(dest)) {
+            while (left > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, left));
+                if (n < 0) {
+                    throw new IOException("pack truncated");
+                }
+                out.write(buf, 0, n);
+                left -= n;
+            }
+        }
+    }
+
+    /** Returns an empty queue of positions in GRAPH, highest generation
+     *  first. */
+    private static PriorityQueue<Integer> byGeneration(CommitGraph graph) {
+        return new PriorityQueue<>((x, y) ->
+            Integer.compare(graph.generation(y), graph.generation(x)));
+    }
+
+    /** Returns the standard input, for the remote's side. */
+    private static DataInputStream serverInput() {
+        return new DataInputStream(new BufferedInputStream(
+            new FileInputStream(FileDescriptor.in)));
+    }
+
+    /** Returns the standard output, for the remote's side, sending
+     *  whatever is printed to System.out to the standard error instead,
+     *  where it cannot be mistaken for the conversation. */
+    private static DataOutputStream serverOutput() {
+        System.setOut(System.err);
+        return new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(FileDescriptor.out)));
+    }
+
+    /** The repository's side of a conversation with a remote. */
+    private static class Connection implements AutoCloseable {
+
+        /** A conversation with the remote whose .gitlet directory is
+         *  REMOTE, whose side runs the plumbing command COMMAND.  Reads
+         *  the remote's branches. */
+        Connection(File remote, String command) throws IOException {
+            File dir = remote.getAbsoluteFile().getParentFile();
+            _process = new ProcessBuilder(Utils.javaCommand("gitlet.Main",
+                                                            command))
+                .directory(dir)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+            _in = new DataInputStream(new BufferedInputStream(
+                _process.getInputStream()));
+            _out = new DataOutputStream(new BufferedOutputStream(
+                _process.getOutputStream()));
+            if (_in.readInt() != MAGIC) {
+                throw new IOException("bad reply from " + remote);
+            }
+            for (int n = _in.readInt(); n > 0; n -= 1) {
+                _refs.put(_in.readUTF(), _in.readUTF());
+            }
+        }
+
+        /** Ends the conversation and waits for the remote's side to
+         *  exit. */
+        @Override
+        public void close() throws IOException {
+            _out.close();
+            _in.close();
+            try {
+                _process.waitFor();
+            } catch (InterruptedException excp) {
+                _process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /** Replies from the remote. */
+        private final DataInputStream _in;
+
+        /** Requests to the remote. */
+        private final DataOutputStream _out;
+
+        /** The remote's branches, mapping names to commit ids. */
+        private final Map<String, String> _refs = new HashMap<>();
+
+        /** The remote's side. */
+        private final Process _process;
+    }
+}
@@ -0,0 +1,265 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** A directory of a commit: the names in it, each mapped to the id of a
+ *  blob or, for a subdirectory, of another tree.  Trees are stored like
+ *  blobs, under the SHA-1 of their encoding, so a directory that does
+ *  not change between commits is the same object in both, and comparing
+ *  two commits can skip every subtree whose id is the same on both
+ *  sides.  Paths use '/' between names; a subdirectory's name is kept
+ *  with a trailing '/', which keeps files and directories apart and
+ *  sorts each directory's entries as git does.  The empty tree is
+ *  represented by a null id and never stored.
+ *  @author Matt Chorlian
+ */
+class Tree {
+
+    /** Number of trees kept in memory. */
+    private static final int CACHE_SIZE = 4096;
+
+    /** Separator between the names of a path. */
+    static final String SEPARATOR = "/";
+
+    /** Returns the tree ID, which must not be null. */
+    static Tree read(String id) {
+        long start = Trace.start();
+        Tree t = CACHE.get(id);
+        if (t == null) {
+            t = decode(ObjectStore.readTree(id));
+            CACHE.put(id, t);
+        } else {
+            Trace.hit("readTree");
+        }
+        Trace.record("readTree", start, 0);
+        return t;
+    }
+
+    /** Forgets every tree read. */
+    static void clearCache() {
+        CACHE.clear();
+    }
+
+    /** Returns the id of the tree holding the files FILES, mapping paths
+     *  to blob ids, storing whatever trees are new. */
+    static String fromFiles(Map<String, String> files) {
+        return update(null, files == null ? new HashMap<>() : files);
+    }
+
+    /** Returns the id of the tree that results from applying CHANGES to
+     *  the tree ROOT (either may be null), storing the trees that change.
+     *  CHANGES maps paths to new blob ids, or to null for paths to
+     *  remove.  Only the directories along changed paths are visited. */
+    static String update(String root, Map<String, String> changes) {
+        TreeMap<String, String> entries = root == null
+            ? new TreeMap<>() : new TreeMap<>(read(root)._entries);
+        TreeMap<String, Map<String, String>> below = new TreeMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash < 0) {
+                entries.remove(path + SEPARATOR);
+                if (e.getValue() == null) {
+                    entries.remove(path);
+                } else {
+                    entries.put(path, e.getValue());
+                }
+            } else {
+                below.computeIfAbsent(path.substring(0, slash + 1),
+                                      k -> new HashMap<>())
+                    .put(path.substring(slash + 1), e.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> e : below.entrySet()) {
+            String dir = e.getKey();
+            String sub = update(entries.get(dir), e.getValue());
+            if (sub == null) {
+                entries.remove(dir);
+            } else {
+                entries.remove(dir.substring(0, dir.length() - 1));
+                entries.put(dir, sub);
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        Tree t = new Tree(entries);
+        byte[] data = t.encode();
+        String id = Utils.sha1((Object) data);
+        ObjectStore.writeTree(id, data);
+        CACHE.put(id, t);
+        return id;
+    }
+
+    /** Returns the blob id of the file PATH in the tree ROOT, or null if
+     *  there is none. */
+    static String lookup(String root, String path) {
+        String[] names = path.split(SEPARATOR);
+        String dir = directory(root, names);
+        return dir == null ? null
+            : read(dir)._entries.get(names[names.length - 1]);
+    }
+
+    /** Returns the id of the blob or tree at PATH in the tree ROOT, or
+     *  null if there is neither. */
+    static String idOf(String root, String path) {
+        String[] names = path.split(SEPARATOR);
+        String dir = directory(root, names);
+        if (dir == null) {
+            return null;
+        }
+        String last = names[names.length - 1];
+        String id = read(dir)._entries.get(last);
+        return id != null ? id : read(dir)._entries.get(last + SEPARATOR);
+    }
+
+    /** Returns the id of the tree that holds the last of NAMES, found
+     *  by following the others down from the tree ROOT, or null. */
+    private static String directory(String root, String[] names) {
+        String id = root;
+        for (int i = 0; id != null && i < names.length - 1; i += 1) {
+            id = read(id)._entries.get(names[i] + SEPARATOR);
+        }
+        return id;
+    }
+
+    /** Adds every file of the tree ROOT to FILES, mapping its path
+     *  (which begins with PREFIX) to its blob id. */
+    static void flatten(String root, String prefix,
+                        Map<String, String> files) {
+        if (root == null) {
+            return;
+        }
+        for (Map.Entry<String, String> e : read(root)._entries.entrySet()) {
+            if (e.getKey().endsWith(SEPARATOR)) {
+                flatten(e.getValue(), prefix + e.getKey(), files);
+            } else {
+                files.put(prefix + e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /** Adds to CHANGES every file that differs between the trees FROM
+     *  and TO, mapping its path (which begins with PREFIX) to its blob
+     *  id in TO, or to null if TO does not have it.  Subtrees with the
+     *  same id on both sides are not read. */
+    static void diff(String from, String to, String prefix,
+                     Map<String, String> changes) {
+        if (from == null ? to == null : from.equals(to)) {
+            return;
+        }
+        Map<String, String> a = from == null ? Map.of() : read(from)._entries;
+        Map<String, String> b = to == null ? Map.of() : read(to)._entries;
+        TreeSet<String> names = new TreeSet<>(a.keySet());
+        names.addAll(b.keySet());
+        for (String name : names) {
+            String x = a.get(name), y = b.get(name);
+            if (name.endsWith(SEPARATOR)) {
+                diff(x, y, prefix + name, changes);
+            } else if (x == null || !x.equals(y)) {
+                changes.put(prefix + name, y);
+            }
+        }
+    }
+
+    /** Adds the ids of the tree ROOT, of every tree below it and of
+     *  every blob in them to LIVE, skipping trees already in it. */
+    static void mark(String root, Set<String> live) {
+        if (root == null || !live.add(root)) {
+            return;
+        }
+        for (Map.Entry<String, String> e : read(root)._entries.entrySet()) {
+            if (e.getKey().endsWith(SEPARATOR)) {
+                mark(e.getValue(), live);
+            } else {
+                live.add(e.getValue());
+            }
+        }
+    }
+
+    /** Returns the entries of the tree ROOT, mapping names (with a
+     *  trailing SEPARATOR for subtrees) to ids.  They must not be
+     *  modified. */
+    static Map<String, String> entries(String root) {
+        return Collections.unmodifiableMap(read(root)._entries);
+    }
+
+    /** Returns the entries of the tree stored as DATA, as entries()
+     *  does, without storing or caching it. */
+    static Map<String, String> parse(byte[] data) {
+        return Collections.unmodifiableMap(decode(data)._entries);
+    }
+
+    /** Returns the ids of the subtrees directly in the tree ROOT. */
+    static Set<String> subtrees(String root) {
+        Set<String> result = new TreeSet<>();
+        for (Map.Entry<String, String> e : read(root)._entries.entrySet()) {
+            if (e.getKey().endsWith(SEPARATOR)) {
+                result.add(e.getValue());
+            }
+        }
+        return result;
+    }
+
+    /** A tree with ENTRIES. */
+    private Tree(TreeMap<String, String> entries) {
+        _entries = entries;
+    }
+
+    /** Returns the stored form of this tree: the number of entries, then
+     *  each name followed by its binary id. */
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(_entries.size());
+            for (Map.Entry<String, String> e : _entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.write(Utils.sha1Bytes(e.getValue()));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the tree stored as DATA. */
+    private static Tree decode(byte[] data) {
+        TreeMap<String, String> entries = new TreeMap<>();
+        byte[] id = new byte[Utils.UID_LENGTH / 2];
+        try (DataInputStream in =
+                 new DataInputStream(new ByteArrayInputStream(data))) {
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String name = in.readUTF();
+                in.readFully(id);
+                entries.put(name, Utils.sha1Hex(id, 0));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("corrupt tree");
+        }
+        return new Tree(entries);
+    }
+
+    /** Names (with a trailing SEPARATOR for subtrees) mapped to ids. */
+    private final TreeMap<String, String> _entries;
+
+    /** Trees read or written recently, by id. */
+    private static final Map<String, Tree> CACHE =
+        new LinkedHashMap<String, Tree>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,
+                                                Tree> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,13 +10,20 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Formatter;
+import java.util.Collections;
+import java.util.HexFormat;
 import java.util.List;
 
 
@@ -29,25 +37,31 @@ class Utils {
     /** The length of a complete SHA-1 UID as a hexadecimal numeral. */
     static final int UID_LENGTH = 40;
 
+    /** Lower-case hexadecimal, as UIDs are written. */
+    private static final HexFormat HEX = HexFormat.of();
+
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = Trace.start();
+        long bytes = 0;
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
+                byte[] data;
                 if (val instanceof byte[]) {
-                    md.update((byte[]) val);
+                    data = (byte[]) val;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    data = ((String) val).getBytes(StandardCharsets.UTF_8);
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
+                md.update(data);
+                bytes += data.length;
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            String result = HEX.formatHex(md.digest());
+            Trace.record("sha1", start, bytes);
+            return result;
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -59,6 +73,55 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Files larger than this are hashed through a memory mapping rather
+     *  than read into the heap. */
+    static final long MAP_THRESHOLD = 1 << 20;
+
+    /** Largest window of a file that sha1File maps at once. */
+    private static final long MAP_WINDOW = 1 << 28;
+
+    /** Returns the SHA-1 hash of the contents of FILE, which is read once,
+     *  a window at a time, so that even very large files are never held
+     *  in the heap.  Agrees with sha1(readContents(FILE)). */
+    static String sha1File(File file) {
+        long start = Trace.start();
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long size = in.size();
+            if (size <= MAP_THRESHOLD) {
+                ByteBuffer buf = ByteBuffer.allocate((int) size);
+                while (buf.hasRemaining() && in.read(buf) >= 0) {
+                    continue;
+                }
+                buf.flip();
+                md.update(buf);
+            } else {
+                for (long pos = 0; pos < size; pos += MAP_WINDOW) {
+                    md.update(in.map(FileChannel.MapMode.READ_ONLY, pos,
+                                     Math.min(MAP_WINDOW, size - pos)));
+                }
+            }
+            Trace.record("sha1File", start, size);
+            return sha1Hex(md.digest(), 0);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the 20-byte binary form of the hexadecimal SHA-1 UID. */
+    static byte[] sha1Bytes(String uid) {
+        return HEX.parseHex(uid, 0, UID_LENGTH);
+    }
+
+    /** Returns the hexadecimal SHA-1 UID whose binary form occupies
+     *  UID_LENGTH / 2 bytes of RAW starting at OFFSET. */
+    static String sha1Hex(byte[] raw, int offset) {
+        return HEX.formatHex(raw, offset, offset + UID_LENGTH / 2);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -93,8 +156,11 @@ class Utils {
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
+        long start = Trace.start();
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] result = Files.readAllBytes(file.toPath());
+            Trace.record("readContents", start, result.length);
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -112,6 +178,8 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
+        long start = Trace.start();
+        long bytes = 0;
         try {
             if (file.isDirectory()) {
                 throw
@@ -120,13 +188,13 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] data = obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(data);
+                bytes += data.length;
             }
             str.close();
+            Trace.record("writeContents", start, bytes);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -136,11 +204,13 @@ class Utils {
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
+        long start = Trace.start();
         try {
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Trace.record("readObject", start, file.length());
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -148,6 +218,52 @@ class Utils {
         }
     }
 
+    /** Copy the contents of SOURCE to DEST, creating or overwriting it as
+     *  needed, without passing them through the heap.  DEST is written
+     *  under a new temporary name beside it and renamed into place.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void copyContents(File source, File dest) {
+        long start = Trace.start();
+        Path temp = null;
+        try {
+            temp = tempFile(dest).toPath();
+            try (FileChannel in = FileChannel.open(source.toPath(),
+                                                   StandardOpenOption.READ);
+                 FileChannel out =
+                     FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                for (long pos = 0; pos < size;) {
+                    pos += in.transferTo(pos, size - pos, out);
+                }
+            }
+            Files.move(temp, dest.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Trace.record("copyContents", start, dest.length());
+    }
+
+    /** Returns a new, empty file in the directory of DEST, with a name
+     *  no other file has, to be written and then renamed onto DEST.  It
+     *  is readable by all, as files written in place are.  Throws
+     *  IllegalArgumentException if it cannot be made. */
+    static File tempFile(File dest) {
+        Path dir = dest.getAbsoluteFile().getParentFile().toPath();
+        try {
+            File temp = Files.createTempFile(dir, "." + dest.getName() + ".",
+                                             ".tmp").toFile();
+            temp.setReadable(true, false);
+            return temp;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -184,6 +300,57 @@ class Utils {
         return plainFilenamesIn(new File(dir));
     }
 
+    /** Returns the paths, relative to DIR and with '/' between names, of
+     *  all plain files in DIR and its subdirectories, in lexicographic
+     *  order.  A .gitlet directory and everything below it are left
+     *  out. */
+    static List<String> workingFiles(File dir) {
+        List<String> result = new ArrayList<>();
+        addWorkingFiles(dir, "", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Adds the plain files below DIR, whose path is PREFIX, to
+     *  RESULT. */
+    private static void addWorkingFiles(File dir, String prefix,
+                                        List<String> result) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File f = new File(dir, name);
+            if (f.isFile()) {
+                result.add(prefix + name);
+            } else if (f.isDirectory() && !name.equals(".gitlet")) {
+                addWorkingFiles(f, prefix + name + "/", result);
+            }
+        }
+    }
+
+    /** Deletes the working file PATH (relative to the working directory,
+     *  which must contain .gitlet) if it is a plain file, and then any
+     *  directories above it that are left empty.  Returns true if PATH
+     *  was deleted. */
+    static boolean deleteWorkingFile(String path) {
+        if (!new File(".gitlet").isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File f = new File(path);
+        if (f.isDirectory() || !f.delete()) {
+            return false;
+        }
+        for (File dir = f.getParentFile(); dir != null;
+             dir = dir.getParentFile()) {
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+        return true;
+    }
+
     /* OTHER FILE UTILITIES */
 
     /** Return the concatentation of FIRST and OTHERS into a File designator,
@@ -218,6 +385,44 @@ class Utils {
 
 
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* PROCESSES */
+
+    /** Returns the command that runs the class MAIN with ARGS in a new
+     *  JVM, like this one and with the same class path made absolute, so
+     *  that it may run in another directory. */
+    static List<String> javaCommand(String main, String... args) {
+        List<String> classpath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path")
+                 .split(File.pathSeparator)) {
+            classpath.add(new File(entry).getAbsolutePath());
+        }
+        List<String> result = new ArrayList<>();
+        result.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+                   .toString());
+        result.add("-cp");
+        result.add(String.join(File.pathSeparator, classpath));
+        result.add(main);
+        result.addAll(Arrays.asList(args));
+        return result;
+    }
+
     /* MESSAGES AND ERROR REPORTING */
 
     /** Return a GitletException whose message is composed from MSG and ARGS as